@@ -0,0 +1,27 @@
+package org.newdawn.spaceinvaders;
+
+/**
+ * An automated player. An agent takes the place of the keyboard as the
+ * source of input for a game, pushing the same input events into the
+ * game's input queue that a human player's key presses would.
+ *
+ * @author John
+ */
+public interface Agent {
+	/**
+	 * Notification that a new round is starting. All keys are released
+	 * at the start of a round.
+	 *
+	 * @param game The game the round is being played in
+	 */
+	public void startRound(Game game);
+
+	/**
+	 * Decide what to do this tick. Called before each tick of the game,
+	 * the agent pushes any changes in its input into the queue.
+	 *
+	 * @param game The game being played
+	 * @param input The queue to push input events into
+	 */
+	public void act(Game game, InputQueue input);
+}
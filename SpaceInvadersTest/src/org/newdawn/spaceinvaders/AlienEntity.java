@@ -1,5 +1,7 @@
 package org.newdawn.spaceinvaders;
 
+import java.nio.ByteBuffer;
+
 /**
  * An entity which represents one of our space invader aliens.
  * 
@@ -8,9 +10,19 @@ package org.newdawn.spaceinvaders;
 public class AlienEntity extends Entity implements Damageable{
 	/** The speed at which the alient moves horizontally */
 	private double moveSpeed = 75;
-	/** The game in which the entity exists */
-	protected Game game;
 	private int health;
+	/** The row of the formation this alien started in, -1 if it isn't in one */
+	private int row = -1;
+	/** The column of the formation this alien started in, -1 if it isn't in one */
+	private int column = -1;
+	/** The dive path this alien is following, -1 if it isn't diving */
+	int divePath = -1;
+	/** The next step of the dive path */
+	int diveStep;
+	/** How far this alien has dived to the right of its place in the formation (16.16) */
+	int diveX;
+	/** How far this alien has dived below its place in the formation (16.16) */
+	int diveY;
 	/**
 	 * Create a new alien entity
 	 * 
@@ -20,13 +32,69 @@ public class AlienEntity extends Entity implements Damageable{
 	 * @param y The intial y location of this alient
 	 */
 	public AlienEntity(Game game,String ref,int x,int y, int _health) {
-		super(ref,x,y);
+		super(game,ref,x,y);
 		
                 health = _health;
-		this.game = game;
 		dx = -moveSpeed;
 	}
         
+        /**
+         * Set the place this alien has in the formation
+         *
+         * @param row The row of the formation
+         * @param column The column of the formation
+         */
+        void setGridPosition(int row, int column){
+            this.row = row;
+            this.column = column;
+        }
+        
+        /**
+         * Get the row of the formation this alien started in
+         *
+         * @return The row, or -1 if it isn't in a formation
+         */
+        public int getRow(){
+            return row;
+        }
+        
+        /**
+         * Get the column of the formation this alien started in
+         *
+         * @return The column, or -1 if it isn't in a formation
+         */
+        public int getColumn(){
+            return column;
+        }
+        
+        /**
+         * Check if this alien has peeled off the formation to dive
+         *
+         * @return True if this alien is diving
+         */
+        public boolean isDiving(){
+            return divePath >= 0;
+        }
+        
+        /**
+         * Get the x position of this alien's place in the formation,
+         * which is where it is unless it's diving
+         *
+         * @return The x position of the alien's place in the formation
+         */
+        public double getFormationX(){
+            return x - (diveX * DivePaths.FIXED_SCALE);
+        }
+        
+        /**
+         * Get the y position of this alien's place in the formation
+         *
+         * @return The y position of the alien's place in the formation
+         */
+        public double getFormationY(){
+            return y - (diveY * DivePaths.FIXED_SCALE);
+        }
+        
         public int getHealth(){
             return health;
         }
@@ -43,13 +111,54 @@ public class AlienEntity extends Entity implements Damageable{
             }
         }
         
+        @Override
+        void writeState(ByteBuffer buffer){
+            super.writeState(buffer);
+            buffer.putInt(health);
+            buffer.putShort((short) row);
+            buffer.putShort((short) column);
+            buffer.put((byte) divePath);
+            buffer.putShort((short) diveStep);
+            buffer.putInt(diveX);
+            buffer.putInt(diveY);
+        }
+        
+        @Override
+        void readState(ByteBuffer buffer){
+            super.readState(buffer);
+            health = buffer.getInt();
+            row = buffer.getShort();
+            column = buffer.getShort();
+            divePath = buffer.get();
+            diveStep = buffer.getShort();
+            diveX = buffer.getInt();
+            diveY = buffer.getInt();
+        }
+        
         public void die(){
             // remove the affected entities
             game.removeEntity(this);
+            
+            // the alien behind us, if any, is now at the front
+            game.getFrontLine().remove(this);
+            game.getPathFollower().remove(this);
+            
+            // and leave a puff of debris where it was
+            game.emitParticles(x + (sprite.getWidth() / 2), y + (sprite.getHeight() / 2), 40, 120, 0x40A020, 600);
 
             // notify the game that the alien has been killed
             game.notifyAlienKilled();
         }
+	/**
+	 * Aliens move slowly and all together, so the formation doesn't
+	 * need moving every tick
+	 * 
+	 * @return The formation tier
+	 */
+	public int getUpdateTier() {
+		return Game.TIER_FORMATION;
+	}
+	
 	/**
 	 * Request that this alien moved based on time elapsed
 	 * 
@@ -57,14 +166,15 @@ public class AlienEntity extends Entity implements Damageable{
 	 */
 	public void move(long delta) {
 		// if we have reached the left hand side of the screen and
-		// are moving left then request a logic update 
-                
-		if ((dx < 0) && (x < 10)) {
+		// are moving left then request a logic update. A diving
+		// alien goes by its place in the formation
+		double formationX = getFormationX();
+		if ((dx < 0) && (formationX < 10)) {
 			game.updateLogic();
 		}
 		// and vice vesa, if we have reached the right hand side of 
 		// the screen and are moving right, request a logic update
-		if ((dx > 0) && (x > 750)) {
+		if ((dx > 0) && (formationX > 750)) {
 			game.updateLogic();
 		}
 		
@@ -83,7 +193,7 @@ public class AlienEntity extends Entity implements Damageable{
 		
 		// if we've reached the bottom of the screen then the player
 		// dies
-		if (y > 570) {
+		if (getFormationY() > 570) {
 			game.notifyDeath();
 		}
 	}
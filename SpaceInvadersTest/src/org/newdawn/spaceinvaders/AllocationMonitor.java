@@ -0,0 +1,203 @@
+package org.newdawn.spaceinvaders;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * A probe that records how many bytes the game loop thread allocates
+ * in each phase of a tick, using the per-thread allocation counters of
+ * the JVM.
+ * <p>
+ * The monitor also acts as a guard: a scenario can be played with the
+ * monitor attached and then checked against an allocation budget with
+ * assertWithinBudget(), which fails with a per-phase report if the
+ * budget has been exceeded. Running this class plays such a scenario.
+ * <p>
+ * Usage: AllocationMonitor [ticks] [budget (bytes/tick)]
+ *
+ * @author John
+ */
+public class AllocationMonitor implements TickProbe {
+	/** The JVM's thread bean, with the allocation counters */
+	private com.sun.management.ThreadMXBean threads;
+	/** The allocation counter reading at the last mark */
+	private long last;
+	/** The bytes that reading the counter itself allocates */
+	private long overhead;
+	/** The bytes allocated in each phase since the last reset */
+	private long[] bytes = new long[PHASE_COUNT];
+	/** The number of ticks since the last reset */
+	private long ticks;
+
+	/**
+	 * Create a new monitor
+	 *
+	 * @throws UnsupportedOperationException Indicates the JVM can't count allocations per thread
+	 */
+	public AllocationMonitor() {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException("Thread allocation counting isn't supported by this JVM");
+		}
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		// work out what a reading costs so it isn't charged to the game
+		overhead = Long.MAX_VALUE;
+		for (int i=0;i<100;i++) {
+			long start = read();
+			overhead = Math.min(overhead, read() - start);
+		}
+	}
+
+	/**
+	 * Check whether the JVM can count allocations per thread
+	 *
+	 * @return True if a monitor can be created
+	 */
+	public static boolean isSupported() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		return (bean instanceof com.sun.management.ThreadMXBean)
+				&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported();
+	}
+
+	/**
+	 * Read the allocation counter of the current thread
+	 *
+	 * @return The bytes the current thread has allocated so far
+	 */
+	private long read() {
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * @see org.newdawn.spaceinvaders.TickProbe#mark()
+	 */
+	public void mark() {
+		last = read();
+	}
+
+	/**
+	 * @see org.newdawn.spaceinvaders.TickProbe#phaseEnded(int)
+	 */
+	public void phaseEnded(int phase) {
+		long now = read();
+		bytes[phase] += Math.max(0, now - last - overhead);
+		last = now;
+	}
+
+	/**
+	 * @see org.newdawn.spaceinvaders.TickProbe#tickEnded()
+	 */
+	public void tickEnded() {
+		ticks++;
+	}
+
+	/**
+	 * Forget everything recorded so far, for example once the game
+	 * has warmed up
+	 */
+	public void reset() {
+		for (int i=0;i<PHASE_COUNT;i++) {
+			bytes[i] = 0;
+		}
+		ticks = 0;
+	}
+
+	/**
+	 * Get the number of ticks recorded
+	 *
+	 * @return The number of ticks since the last reset
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Get the average allocation of a phase
+	 *
+	 * @param phase The phase to check
+	 * @return The bytes allocated per tick in the phase
+	 */
+	public double getBytesPerTick(int phase) {
+		return ticks == 0 ? 0 : (double) bytes[phase] / ticks;
+	}
+
+	/**
+	 * Get the average allocation of a whole tick
+	 *
+	 * @return The bytes allocated per tick in all phases
+	 */
+	public double getBytesPerTick() {
+		long total = 0;
+		for (int i=0;i<PHASE_COUNT;i++) {
+			total += bytes[i];
+		}
+		return ticks == 0 ? 0 : (double) total / ticks;
+	}
+
+	/**
+	 * Describe the allocation recorded in each phase
+	 *
+	 * @return A readable report of bytes/tick per phase
+	 */
+	public String report() {
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("Allocation over %d ticks: %.1f bytes/tick%n", ticks, getBytesPerTick()));
+		for (int i=0;i<PHASE_COUNT;i++) {
+			report.append(String.format("  %-12s %10.1f bytes/tick%n", PHASE_NAMES[i], getBytesPerTick(i)));
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Check the allocation recorded is within budget
+	 *
+	 * @param budget The most bytes a tick may allocate on average
+	 * @throws AssertionError Indicates the budget has been exceeded
+	 */
+	public void assertWithinBudget(double budget) {
+		if (getBytesPerTick() > budget) {
+			throw new AssertionError("Allocation budget of "+budget+" bytes/tick exceeded. "+report());
+		}
+	}
+
+	/**
+	 * Play a headless scenario with the monitor attached and check it
+	 * against a budget
+	 *
+	 * @param argv The arguments: ticks to measure, budget (bytes/tick)
+	 */
+	public static void main(String argv[]) {
+		System.setProperty("java.awt.headless", "true");
+
+		int ticks = argv.length > 0 ? Integer.parseInt(argv[0]) : 100000;
+		double budget = argv.length > 1 ? Double.parseDouble(argv[1]) : Double.MAX_VALUE;
+
+		Game game = new Game(SpriteStore.get(), true);
+		game.getRandom().setSeed(1);
+		AllocationMonitor monitor = new AllocationMonitor();
+		game.addProbe(monitor);
+
+		Agent agent = new SweepAgent(Game.ShotType.SINGLE);
+		InputQueue input = game.getInputQueue();
+
+		// play a warm up run first so class loading and compilation
+		// aren't counted, then the measured run
+		for (int run=0;run<2;run++) {
+			monitor.reset();
+			for (int i=0;i<ticks;i++) {
+				if (game.isWaitingForKeyPress()) {
+					game.awaitNextRound();
+					input.offer(InputQueue.START, true);
+					game.tick(10);
+					agent.startRound(game);
+				} else {
+					agent.act(game, input);
+					game.tick(10);
+				}
+			}
+		}
+
+		System.out.print(monitor.report());
+		monitor.assertWithinBudget(budget);
+	}
+}
@@ -5,6 +5,7 @@
  */
 package org.newdawn.spaceinvaders;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 /**
@@ -22,14 +23,35 @@ public class BombShot extends ShotEntity{
         rotation = _rotation;
     }
     
+    public BombShot(Game game, Sprite sprite, int x, int y, double _moveSpeed, float _angle, double _dx, double _dy, float _rotation, int _damage, boolean _playerProj) {
+        super(game, sprite, x, y, _moveSpeed, _angle, _dx, _dy, _damage, _playerProj);
+        
+        rotation = _rotation;
+    }
+    
     @Override
     public void move(long _delta){
         super.move(_delta);
     }
     
+    @Override
+    void writeState(ByteBuffer buffer){
+        super.writeState(buffer);
+        buffer.putFloat(rotation);
+    }
+    
+    @Override
+    void readState(ByteBuffer buffer){
+        super.readState(buffer);
+        rotation = buffer.getFloat();
+    }
+    
     @Override
     public void onDestroy(){
-        enemiesInRange = super.game.findEnemyInRange(getX(), getY(), 100);
+        // splash out to the edge of the blast
+        game.emitParticles(x + (sprite.getWidth() / 2), y + (sprite.getHeight() / 2), 300, 250, 0xFF8000, 400);
+        
+        enemiesInRange = game.findEnemyInRange(getX(), getY(), 100);
         
         for(int i = 0; i < enemiesInRange.size(); i++){
             AlienEntity enemy = (AlienEntity)enemiesInRange.get(i);
@@ -0,0 +1,207 @@
+package org.newdawn.spaceinvaders;
+
+/**
+ * A compiled volley of shots, everything about each shot worked out
+ * ahead of time by the PatternCompiler so firing it is just copying
+ * the rows out into new shots.
+ * <p>
+ * Each row is one shot: where it starts relative to whoever fired it,
+ * the angle it flies at, its velocity along that angle and the id of
+ * its sprite. A pattern never changes once it's compiled, so one
+ * pattern can be shared by every shooter and every game, and the
+ * arrays handed out must not be changed by their users.
+ * <p>
+ * An aimed pattern is compiled pointing straight down and turned
+ * towards the player when it's fired, see Game.firePattern().
+ *
+ * @author John
+ */
+public class BulletPattern {
+	/** The x offset of each shot from the shooter */
+	private final int[] offsetX;
+	/** The y offset of each shot from the shooter */
+	private final int[] offsetY;
+	/** The angle each shot flies at (degrees) */
+	private final float[] angle;
+	/** The horizontal speed of each shot (pixels/sec) */
+	private final double[] velocityX;
+	/** The vertical speed of each shot (pixels/sec) */
+	private final double[] velocityY;
+	/** The sprite id of each shot */
+	private final int[] spriteId;
+	/** The speed of the shots along their angle (pixels/sec) */
+	private final double moveSpeed;
+	/** The damage each shot does */
+	private final int damage;
+	/** True if the shots are bombs that splash when they hit */
+	private final boolean bomb;
+	/** The rotation given to bombs (degrees) */
+	private final float rotation;
+	/** True if the pattern is turned towards the player when fired */
+	private final boolean aimed;
+	/** The shape the pattern was compiled from, or PatternCompiler.CUSTOM */
+	private final int shape;
+	/** The angle the shape was spread over (degrees) */
+	private final int arc;
+
+	/**
+	 * Create a new pattern. Only the compiler makes patterns.
+	 *
+	 * @param offsetX The x offset of each shot from the shooter
+	 * @param offsetY The y offset of each shot from the shooter
+	 * @param angle The angle each shot flies at (degrees)
+	 * @param velocityX The horizontal speed of each shot (pixels/sec)
+	 * @param velocityY The vertical speed of each shot (pixels/sec)
+	 * @param spriteId The sprite id of each shot
+	 * @param moveSpeed The speed of the shots along their angle (pixels/sec)
+	 * @param damage The damage each shot does
+	 * @param bomb True if the shots are bombs
+	 * @param rotation The rotation given to bombs (degrees)
+	 * @param aimed True if the pattern is turned towards the player
+	 * @param shape The shape the pattern was compiled from
+	 * @param arc The angle the shape was spread over (degrees)
+	 */
+	BulletPattern(int[] offsetX, int[] offsetY, float[] angle, double[] velocityX, double[] velocityY,
+			int[] spriteId, double moveSpeed, int damage, boolean bomb, float rotation, boolean aimed, int shape, int arc) {
+		this.offsetX = offsetX;
+		this.offsetY = offsetY;
+		this.angle = angle;
+		this.velocityX = velocityX;
+		this.velocityY = velocityY;
+		this.spriteId = spriteId;
+		this.moveSpeed = moveSpeed;
+		this.damage = damage;
+		this.bomb = bomb;
+		this.rotation = rotation;
+		this.aimed = aimed;
+		this.shape = shape;
+		this.arc = arc;
+	}
+
+	/**
+	 * Get the number of shots in the pattern
+	 *
+	 * @return The number of shots
+	 */
+	public int getCount() {
+		return offsetX.length;
+	}
+
+	/**
+	 * Get the x offset of each shot from the shooter
+	 *
+	 * @return The offsets (pixels), which must not be changed
+	 */
+	public int[] getOffsetsX() {
+		return offsetX;
+	}
+
+	/**
+	 * Get the y offset of each shot from the shooter
+	 *
+	 * @return The offsets (pixels), which must not be changed
+	 */
+	public int[] getOffsetsY() {
+		return offsetY;
+	}
+
+	/**
+	 * Get the angle each shot flies at
+	 *
+	 * @return The angles (degrees), which must not be changed
+	 */
+	public float[] getAngles() {
+		return angle;
+	}
+
+	/**
+	 * Get the horizontal speed of each shot
+	 *
+	 * @return The speeds (pixels/sec), which must not be changed
+	 */
+	public double[] getVelocitiesX() {
+		return velocityX;
+	}
+
+	/**
+	 * Get the vertical speed of each shot
+	 *
+	 * @return The speeds (pixels/sec), which must not be changed
+	 */
+	public double[] getVelocitiesY() {
+		return velocityY;
+	}
+
+	/**
+	 * Get the sprite id of each shot
+	 *
+	 * @return The sprite ids, which must not be changed
+	 */
+	public int[] getSpriteIds() {
+		return spriteId;
+	}
+
+	/**
+	 * Get the speed of the shots along their angle. Like the shots
+	 * themselves this is negative, they fly away from their angle.
+	 *
+	 * @return The speed of the shots (pixels/sec)
+	 */
+	public double getMoveSpeed() {
+		return moveSpeed;
+	}
+
+	/**
+	 * Get the damage each shot does
+	 *
+	 * @return The damage
+	 */
+	public int getDamage() {
+		return damage;
+	}
+
+	/**
+	 * Check if the shots are bombs that splash when they hit
+	 *
+	 * @return True if the shots are bombs
+	 */
+	public boolean isBomb() {
+		return bomb;
+	}
+
+	/**
+	 * Get the rotation given to bombs
+	 *
+	 * @return The rotation (degrees)
+	 */
+	public float getRotation() {
+		return rotation;
+	}
+
+	/**
+	 * Check if the pattern is turned towards the player when it's fired
+	 *
+	 * @return True if the pattern is aimed
+	 */
+	public boolean isAimed() {
+		return aimed;
+	}
+
+	/**
+	 * Get the shape the pattern was compiled from
+	 *
+	 * @return The shape, one of the PatternCompiler shapes
+	 */
+	public int getShape() {
+		return shape;
+	}
+
+	/**
+	 * Get the angle the shape was spread over
+	 *
+	 * @return The arc (degrees)
+	 */
+	public int getArc() {
+		return arc;
+	}
+}
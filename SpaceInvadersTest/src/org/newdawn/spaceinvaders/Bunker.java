@@ -0,0 +1,238 @@
+package org.newdawn.spaceinvaders;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+
+/**
+ * A destructible shield the player can hide behind. A bunker isn't an
+ * entity, it's a grid of solid and empty pixels packed into one long
+ * per row, bit n of a row being column n from the left.
+ * <p>
+ * Shots are tested against the bunker a row at a time with a single
+ * mask covering the columns the shot spans, and a hit carves a crater
+ * out of the rows around it the same way. So testing a shot costs a
+ * few word operations however big the bunker is, and bunkers never
+ * take part in the collisions between entities.
+ * <p>
+ * The bunker is drawn from a cached image. When the bunker is eroded
+ * only the rectangle of pixels that changed is redrawn into the image,
+ * and a headless game never creates the image at all.
+ *
+ * @author John
+ */
+public class Bunker {
+	/** The width of a bunker (pixels), at most 64 */
+	public static final int WIDTH = 56;
+	/** The height of a bunker (pixels) */
+	public static final int HEIGHT = 32;
+	/** The colour of a bunker */
+	private static final int COLOUR = 0xFF2E7D32;
+	/** The number of columns either side of the centre of a shot that hit */
+	private static final int SHOT_HALF_WIDTH = 2;
+	/** The radius of the crater a hit leaves */
+	private static final int CRATER_RADIUS = 5;
+	/** The crater as rows of bits, centred on bit CRATER_RADIUS */
+	private static final long[] CRATER = new long[(CRATER_RADIUS * 2) + 1];
+	/** The shape of an undamaged bunker, one long per row */
+	private static final long[] SHAPE = new long[HEIGHT];
+
+	static {
+		for (int row=0;row<CRATER.length;row++) {
+			int dy = row - CRATER_RADIUS;
+			for (int col=0;col<CRATER.length;col++) {
+				int dx = col - CRATER_RADIUS;
+				if ((dx * dx) + (dy * dy) <= CRATER_RADIUS * CRATER_RADIUS) {
+					CRATER[row] |= 1L << col;
+				}
+			}
+		}
+
+		// the classic arch, with the top corners cut off and a notch
+		// out of the bottom for the player to shelter under
+		for (int row=0;row<HEIGHT;row++) {
+			for (int col=0;col<WIDTH;col++) {
+				boolean corner = (row < 8) && ((col < 8 - row) || (col >= WIDTH - (8 - row)));
+				boolean notch = (row >= HEIGHT - 10) && (col >= 16) && (col < WIDTH - 16);
+				if ((!corner) && (!notch)) {
+					SHAPE[row] |= 1L << col;
+				}
+			}
+		}
+	}
+
+	/** The x location of the left of the bunker */
+	private int x;
+	/** The y location of the top of the bunker */
+	private int y;
+	/** The solid pixels of each row */
+	private long[] rows = new long[HEIGHT];
+
+	/** The image the bunker is drawn from, created when first drawn */
+	private BufferedImage image;
+	/** The pixels of the image */
+	private int[] pixels;
+	/** The first row of the image that needs redrawing */
+	private int dirtyTop;
+	/** The row after the last row of the image that needs redrawing */
+	private int dirtyBottom;
+	/** The first column of the image that needs redrawing */
+	private int dirtyLeft;
+	/** The column after the last column of the image that needs redrawing */
+	private int dirtyRight;
+
+	/**
+	 * Create a new, undamaged bunker
+	 *
+	 * @param x The x location of the left of the bunker
+	 * @param y The y location of the top of the bunker
+	 */
+	public Bunker(int x, int y) {
+		this.x = x;
+		this.y = y;
+		reset();
+	}
+
+	/**
+	 * Repair all the damage to the bunker
+	 */
+	public void reset() {
+		System.arraycopy(SHAPE, 0, rows, 0, HEIGHT);
+		markDirty(0, HEIGHT, 0, WIDTH);
+	}
+
+	/**
+	 * Check if a shot has hit the bunker during its last move and if
+	 * so blast a crater out where it hit
+	 *
+	 * @param shot The shot to check
+	 * @return True if the shot hit the bunker
+	 */
+	public boolean hit(ShotEntity shot) {
+		Sprite sprite = shot.getSprite();
+
+		// the rows covered by the whole of the shot's move
+		int top = (int) Math.min(shot.lastY, shot.y) - y;
+		int bottom = (int) Math.max(shot.lastY, shot.y) + sprite.getHeight() - y;
+		if ((bottom <= 0) || (top >= HEIGHT)) {
+			return false;
+		}
+		top = Math.max(0, top);
+		bottom = Math.min(HEIGHT, bottom);
+
+		// the columns covered by the middle of the shot
+		int centre = (int) shot.x + (sprite.getWidth() / 2) - x;
+		int left = Math.max(0, centre - SHOT_HALF_WIDTH);
+		int right = Math.min(WIDTH, centre + SHOT_HALF_WIDTH + 1);
+		if (left >= right) {
+			return false;
+		}
+		long mask = (-1L >>> (64 - (right - left))) << left;
+
+		// look for the first solid row in the direction of travel
+		boolean down = shot.y > shot.lastY;
+		int step = down ? 1 : -1;
+		int row = down ? top : bottom - 1;
+		int end = down ? bottom : top - 1;
+		for (;row!=end;row+=step) {
+			long solid = rows[row] & mask;
+			if (solid != 0) {
+				erode(row, Long.numberOfTrailingZeros(solid));
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Carve a crater out of the bunker
+	 *
+	 * @param row The row at the centre of the crater
+	 * @param col The column at the centre of the crater
+	 */
+	private void erode(int row, int col) {
+		int shift = col - CRATER_RADIUS;
+		int first = Math.max(0, row - CRATER_RADIUS);
+		int last = Math.min(HEIGHT - 1, row + CRATER_RADIUS);
+
+		for (int r=first;r<=last;r++) {
+			long crater = CRATER[r - row + CRATER_RADIUS];
+			rows[r] &= ~(shift >= 0 ? crater << shift : crater >>> -shift);
+		}
+
+		markDirty(first, last + 1, Math.max(0, shift), Math.min(WIDTH, col + CRATER_RADIUS + 1));
+	}
+
+	/**
+	 * Note that part of the image needs redrawing
+	 *
+	 * @param top The first row changed
+	 * @param bottom The row after the last row changed
+	 * @param left The first column changed
+	 * @param right The column after the last column changed
+	 */
+	private void markDirty(int top, int bottom, int left, int right) {
+		if (dirtyTop >= dirtyBottom) {
+			dirtyTop = top;
+			dirtyBottom = bottom;
+			dirtyLeft = left;
+			dirtyRight = right;
+		} else {
+			dirtyTop = Math.min(dirtyTop, top);
+			dirtyBottom = Math.max(dirtyBottom, bottom);
+			dirtyLeft = Math.min(dirtyLeft, left);
+			dirtyRight = Math.max(dirtyRight, right);
+		}
+	}
+
+	/**
+	 * Draw the bunker, first bringing the changed part of its image
+	 * up to date
+	 *
+	 * @param g The graphics context to draw on
+	 */
+	public void draw(Graphics g) {
+		if (image == null) {
+			image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+			pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			markDirty(0, HEIGHT, 0, WIDTH);
+		}
+
+		for (int row=dirtyTop;row<dirtyBottom;row++) {
+			long bits = rows[row];
+			int offset = row * WIDTH;
+			for (int col=dirtyLeft;col<dirtyRight;col++) {
+				pixels[offset + col] = ((bits >>> col) & 1) != 0 ? COLOUR : 0;
+			}
+		}
+		dirtyTop = 0;
+		dirtyBottom = 0;
+
+		g.drawImage(image, x, y, null);
+	}
+
+	/**
+	 * Write the damage to the bunker to a buffer
+	 *
+	 * @param buffer The buffer to write the state to
+	 */
+	void writeState(ByteBuffer buffer) {
+		for (int i=0;i<HEIGHT;i++) {
+			buffer.putLong(rows[i]);
+		}
+	}
+
+	/**
+	 * Restore the damage to the bunker from a buffer written by
+	 * writeState()
+	 *
+	 * @param buffer The buffer to read the state from
+	 */
+	void readState(ByteBuffer buffer) {
+		for (int i=0;i<HEIGHT;i++) {
+			rows[i] = buffer.getLong();
+		}
+		markDirty(0, HEIGHT, 0, WIDTH);
+	}
+}
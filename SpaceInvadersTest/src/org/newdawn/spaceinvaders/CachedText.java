@@ -0,0 +1,117 @@
+package org.newdawn.spaceinvaders;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * A line of text rendered once into an image and then drawn as that
+ * image, like a sprite. Laying out and rasterising text is slow, so
+ * the text is only rendered again when it actually changes.
+ *
+ * @author John
+ */
+public class CachedText {
+	/** The font all cached text is drawn in */
+	private static final Font FONT = new Font("Dialog", Font.PLAIN, 12);
+	/** The metrics of the font, used to size the images */
+	private static final FontMetrics METRICS;
+
+	static {
+		BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+		Graphics g = scratch.getGraphics();
+		METRICS = g.getFontMetrics(FONT);
+		g.dispose();
+	}
+
+	/** The colour of the text */
+	private Color colour;
+	/** The text currently rendered */
+	private String text;
+	/** The image holding the rendered text, null if the text is empty */
+	private BufferedImage image;
+
+	/**
+	 * Create a new, empty piece of cached text
+	 *
+	 * @param colour The colour of the text
+	 */
+	public CachedText(Color colour) {
+		this.colour = colour;
+	}
+
+	/**
+	 * Set the text, rendering it again only if it has changed
+	 *
+	 * @param text The text to show
+	 */
+	public void setText(String text) {
+		if ((text == this.text) || ((text != null) && text.equals(this.text))) {
+			return;
+		}
+		this.text = text;
+
+		if ((text == null) || (text.length() == 0)) {
+			image = null;
+			return;
+		}
+
+		int width = Math.max(1, METRICS.stringWidth(text));
+		int height = METRICS.getHeight();
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		g.setFont(FONT);
+		g.setColor(colour);
+		g.drawString(text, 0, METRICS.getAscent());
+		g.dispose();
+	}
+
+	/**
+	 * Get the width of the rendered text
+	 *
+	 * @return The width of the text (pixels)
+	 */
+	public int getWidth() {
+		return image == null ? 0 : image.getWidth();
+	}
+
+	/**
+	 * Draw the text with its baseline at the given location, as
+	 * drawString() would
+	 *
+	 * @param g The graphics context to draw on
+	 * @param x The x location of the start of the text
+	 * @param y The y location of the baseline
+	 */
+	public void draw(Graphics g, int x, int y) {
+		if (image != null) {
+			g.drawImage(image, x, y - METRICS.getAscent(), null);
+		}
+	}
+
+	/**
+	 * Draw the text centred horizontally
+	 *
+	 * @param g The graphics context to draw on
+	 * @param centre The x location of the centre of the text
+	 * @param y The y location of the baseline
+	 */
+	public void drawCentred(Graphics g, int centre, int y) {
+		draw(g, centre - (getWidth() / 2), y);
+	}
+
+	/**
+	 * Get the height of a line of cached text
+	 *
+	 * @return The line height (pixels)
+	 */
+	public static int getLineHeight() {
+		return METRICS.getHeight();
+	}
+}
@@ -0,0 +1,99 @@
+package org.newdawn.spaceinvaders;
+
+/**
+ * The collisions found in a tick, held so they can be resolved in the
+ * order they happened rather than the order they were found. When a
+ * shot sweeps through two aliens in one move, the one it reached first
+ * is the one it hits.
+ * <p>
+ * The list reuses its arrays from tick to tick so finding collisions
+ * doesn't allocate once it has grown to fit.
+ *
+ * @author John
+ */
+class ContactList {
+	/** The first entity in each contact */
+	private Entity[] first = new Entity[16];
+	/** The second entity in each contact */
+	private Entity[] second = new Entity[16];
+	/** The fraction of the tick at which each contact happened */
+	private double[] time = new double[16];
+	/** The number of contacts in the list */
+	private int count;
+
+	/**
+	 * Add a contact to the list
+	 *
+	 * @param a The first entity
+	 * @param b The second entity
+	 * @param at The fraction of the tick at which they touched
+	 */
+	void add(Entity a, Entity b, double at) {
+		if (count == first.length) {
+			Entity[] newFirst = new Entity[count * 2];
+			Entity[] newSecond = new Entity[count * 2];
+			double[] newTime = new double[count * 2];
+			System.arraycopy(first, 0, newFirst, 0, count);
+			System.arraycopy(second, 0, newSecond, 0, count);
+			System.arraycopy(time, 0, newTime, 0, count);
+			first = newFirst;
+			second = newSecond;
+			time = newTime;
+		}
+
+		// insert in time order, contacts are few so a simple insertion
+		// keeps the list sorted cheaply. Equal times keep the order they
+		// were found in.
+		int i = count;
+		while ((i > 0) && (time[i - 1] > at)) {
+			first[i] = first[i - 1];
+			second[i] = second[i - 1];
+			time[i] = time[i - 1];
+			i--;
+		}
+		first[i] = a;
+		second[i] = b;
+		time[i] = at;
+		count++;
+	}
+
+	/**
+	 * Get the number of contacts
+	 *
+	 * @return The number of contacts in the list
+	 */
+	int size() {
+		return count;
+	}
+
+	/**
+	 * Get the first entity of a contact
+	 *
+	 * @param index The index of the contact, in time order
+	 * @return The first entity
+	 */
+	Entity getFirst(int index) {
+		return first[index];
+	}
+
+	/**
+	 * Get the second entity of a contact
+	 *
+	 * @param index The index of the contact, in time order
+	 * @return The second entity
+	 */
+	Entity getSecond(int index) {
+		return second[index];
+	}
+
+	/**
+	 * Empty the list, letting go of the entities
+	 */
+	void clear() {
+		for (int i=0;i<count;i++) {
+			first[i] = null;
+			second[i] = null;
+		}
+		count = 0;
+	}
+}
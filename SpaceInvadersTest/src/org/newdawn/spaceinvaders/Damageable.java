@@ -12,4 +12,5 @@ package org.newdawn.spaceinvaders;
 public interface Damageable {
     public void die();
     public void takeDamage(int _damage);
+    public int getHealth();
 }
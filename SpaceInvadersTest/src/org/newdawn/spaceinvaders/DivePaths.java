@@ -0,0 +1,161 @@
+package org.newdawn.spaceinvaders;
+
+/**
+ * The curved paths aliens follow when they peel off the formation to
+ * dive at the player, baked into tables when a wave is loaded.
+ * <p>
+ * Each path is the offset of the diving alien from its place in the
+ * formation, sampled every STEP_TIME ms of game time. Rather than the
+ * offsets themselves the tables hold the change in offset from one step
+ * to the next, in 16.16 fixed point, so following a path costs one
+ * table look up and one add per step and no trig at all. Every path
+ * starts and ends at no offset and the steps are worked out from the
+ * rounded offsets, so they add up to exactly nothing and the alien
+ * drops back into the formation where it left it.
+ *
+ * @author John
+ */
+public class DivePaths {
+	/** The game time covered by each step of a path (ms) */
+	public static final int STEP_TIME = 10;
+	/** The number of fractional bits in the table entries */
+	public static final int FIXED_SHIFT = 16;
+	/** Converts a table entry to pixels */
+	public static final double FIXED_SCALE = 1.0 / (1 << FIXED_SHIFT);
+
+	/** A wide S shaped swoop down and back */
+	private static final int SWOOP = 0;
+	/** A dive with a loop at the bottom */
+	private static final int LOOP = 1;
+	/** The number of path shapes */
+	private static final int SHAPE_COUNT = 2;
+	/** The number of paths, each shape heading off to either side */
+	public static final int PATH_COUNT = SHAPE_COUNT * 2;
+
+	/** The time taken to fly each shape (ms) */
+	private static final int[] DURATION = {3000, 4000};
+	/** How far each shape swings out to the side (pixels) */
+	private static final double WIDTH = 120;
+	/** The radius of the loop (pixels) */
+	private static final double LOOP_RADIUS = 50;
+
+	/** The change in x offset at each step of each path (16.16) */
+	private final int[][] stepX = new int[PATH_COUNT][];
+	/** The change in y offset at each step of each path (16.16) */
+	private final int[][] stepY = new int[PATH_COUNT][];
+	/** How far below the formation the paths reach (pixels) */
+	private final int depth;
+
+	/**
+	 * Bake the dive paths for a wave
+	 *
+	 * @param depth How far below the formation the paths reach (pixels)
+	 */
+	public DivePaths(int depth) {
+		this.depth = depth;
+
+		for (int path=0;path<PATH_COUNT;path++) {
+			int shape = path / 2;
+			int side = (path % 2) == 0 ? 1 : -1;
+			int steps = DURATION[shape] / STEP_TIME;
+
+			stepX[path] = new int[steps];
+			stepY[path] = new int[steps];
+
+			int lastX = 0;
+			int lastY = 0;
+			for (int i=1;i<=steps;i++) {
+				double t = (double) i / steps;
+				int x = toFixed(side * offsetX(shape, t));
+				int y = toFixed(offsetY(shape, t));
+
+				stepX[path][i - 1] = x - lastX;
+				stepY[path][i - 1] = y - lastY;
+				lastX = x;
+				lastY = y;
+			}
+		}
+	}
+
+	/**
+	 * Work out the sideways offset of a shape part way along
+	 *
+	 * @param shape The shape of the path
+	 * @param t How far along the path, 0 to 1
+	 * @return The offset to the right (pixels)
+	 */
+	private double offsetX(int shape, double t) {
+		double swing = WIDTH * Math.sin(2 * Math.PI * t);
+		if (shape == LOOP) {
+			swing += LOOP_RADIUS * Math.sin(4 * Math.PI * t);
+		}
+		return swing;
+	}
+
+	/**
+	 * Work out the downwards offset of a shape part way along
+	 *
+	 * @param shape The shape of the path
+	 * @param t How far along the path, 0 to 1
+	 * @return The offset downwards (pixels)
+	 */
+	private double offsetY(int shape, double t) {
+		double dive = depth * Math.sin(Math.PI * t);
+		if (shape == LOOP) {
+			dive -= LOOP_RADIUS * (1 - Math.cos(4 * Math.PI * t));
+		}
+		return dive;
+	}
+
+	/**
+	 * Convert pixels to rounded 16.16 fixed point
+	 *
+	 * @param value The value in pixels
+	 * @return The fixed point value
+	 */
+	private static int toFixed(double value) {
+		return (int) Math.round(value * (1 << FIXED_SHIFT));
+	}
+
+	/**
+	 * Pick the path that suits an alien at a given position, heading in
+	 * towards the middle of the screen first
+	 *
+	 * @param x The x position of the alien
+	 * @param shape A number picking the shape, any value will do
+	 * @return The path
+	 */
+	public static int choosePath(double x, int shape) {
+		int side = x < 400 ? 0 : 1;
+		return ((Math.abs(shape) % SHAPE_COUNT) * 2) + side;
+	}
+
+	/**
+	 * Get the changes in x offset for each step of a path
+	 *
+	 * @param path The path
+	 * @return The changes in x offset (16.16), which must not be changed
+	 */
+	public int[] getStepsX(int path) {
+		return stepX[path];
+	}
+
+	/**
+	 * Get the changes in y offset for each step of a path
+	 *
+	 * @param path The path
+	 * @return The changes in y offset (16.16), which must not be changed
+	 */
+	public int[] getStepsY(int path) {
+		return stepY[path];
+	}
+
+	/**
+	 * Get how far below the formation the paths reach
+	 *
+	 * @return The depth of the paths (pixels)
+	 */
+	public int getDepth() {
+		return depth;
+	}
+}
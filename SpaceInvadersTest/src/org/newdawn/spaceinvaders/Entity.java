@@ -2,6 +2,7 @@ package org.newdawn.spaceinvaders;
 
 import java.awt.Graphics;
 import java.awt.Rectangle;
+import java.nio.ByteBuffer;
 
 /**
  * An entity represents any element that appears in the game. The
@@ -21,8 +22,14 @@ public abstract class Entity {
 	protected double x;
 	/** The current y location of this entity */
 	protected double y;
+	/** The game (session) in which this entity exists */
+	protected Game game;
 	/** The sprite that represents this entity */
 	protected Sprite sprite;
+	/** The x location of this entity before its last move */
+	protected double lastX;
+	/** The y location of this entity before its last move */
+	protected double lastY;
 	/** The current speed of this entity horizontally (pixels/sec) */
 	protected double dx;
 	/** The current speed of this entity vertically (pixels/sec) */
@@ -31,18 +38,42 @@ public abstract class Entity {
 	private Rectangle me = new Rectangle();
 	/** The rectangle used for other entities during collision resolution */
 	private Rectangle him = new Rectangle();
+	/** The unique id given to this entity when it was added to the game */
+	private int id;
 	
 	/**
 	 * Construct a entity based on a sprite image and a location.
 	 * 
+	 * @param game The game in which this entity is being created
 	 * @param ref The reference to the image to be displayed for this entity
  	 * @param x The initial x location of this entity
 	 * @param y The initial y location of this entity
 	 */
-	public Entity(String ref,int x,int y) {
-		this.sprite = SpriteStore.get().getSprite(ref);
+	public Entity(Game game,String ref,int x,int y) {
+		this.game = game;
+		this.sprite = game.getSpriteStore().getSprite(ref);
 		this.x = x;
 		this.y = y;
+		this.lastX = x;
+		this.lastY = y;
+	}
+	
+	/**
+	 * Construct a entity from a sprite already looked up, for entities
+	 * created in bulk where the look up by reference would be wasted.
+	 * 
+	 * @param game The game in which this entity is being created
+	 * @param sprite The sprite to be displayed for this entity
+	 * @param x The initial x location of this entity
+	 * @param y The initial y location of this entity
+	 */
+	public Entity(Game game,Sprite sprite,int x,int y) {
+		this.game = game;
+		this.sprite = sprite;
+		this.x = x;
+		this.y = y;
+		this.lastX = x;
+		this.lastY = y;
 	}
 	
         public void translate(double _dx, double _dy){
@@ -57,6 +88,11 @@ public abstract class Entity {
 	 * @param delta The amount of time that has passed in milliseconds
 	 */
 	public void move(long delta) {
+		// remember where we started so collisions can be swept
+		// along the whole move
+		lastX = x;
+		lastY = y;
+		
 		// update the location of the entity based on move speeds
 		x += (delta * dx) / 1000;
 		y += (delta * dy) / 1000;
@@ -116,6 +152,68 @@ public abstract class Entity {
 	public void doLogic() {
 	}
 	
+	/**
+	 * Get the unique id of this entity within its game
+	 * 
+	 * @return The id of this entity
+	 */
+	public int getId() {
+		return id;
+	}
+	
+	/**
+	 * Set the unique id of this entity, called by the game as
+	 * the entity is added.
+	 * 
+	 * @param id The id of this entity
+	 */
+	void setId(int id) {
+		this.id = id;
+	}
+	
+	/**
+	 * Write the state of this entity to a buffer so it can be restored
+	 * later. Subclasses with extra state must write it after calling
+	 * this method.
+	 * 
+	 * @param buffer The buffer to write the state to
+	 */
+	void writeState(ByteBuffer buffer) {
+		buffer.putInt(id);
+		buffer.putShort((short) sprite.getId());
+		buffer.putDouble(x);
+		buffer.putDouble(y);
+		buffer.putDouble(dx);
+		buffer.putDouble(dy);
+	}
+	
+	/**
+	 * Restore the state of this entity from a buffer written by
+	 * writeState(). Subclasses must read their state back in the
+	 * same order it was written.
+	 * 
+	 * @param buffer The buffer to read the state from
+	 */
+	void readState(ByteBuffer buffer) {
+		id = buffer.getInt();
+		sprite = game.getSpriteStore().getSprite(buffer.getShort());
+		x = buffer.getDouble();
+		y = buffer.getDouble();
+		dx = buffer.getDouble();
+		dy = buffer.getDouble();
+		lastX = x;
+		lastY = y;
+	}
+	
+	/**
+	 * Get the sprite that represents this entity
+	 * 
+	 * @return The sprite for this entity
+	 */
+	public Sprite getSprite() {
+		return sprite;
+	}
+	
 	/**
 	 * Get the x location of this entity
 	 * 
@@ -147,6 +245,94 @@ public abstract class Entity {
 		return me.intersects(him);
 	}
 	
+	/**
+	 * Get the update tier of this entity. Entities in the slower tiers
+	 * are moved less often, each time covering all the time since their
+	 * last move.
+	 * 
+	 * @return The tier, one of the Game.TIER_ constants
+	 */
+	public int getUpdateTier() {
+		return Game.TIER_EVERY_TICK;
+	}
+	
+	/**
+	 * Notification that this entity hasn't moved this tick because its
+	 * tier isn't due, so its collisions see it standing still.
+	 */
+	void hold() {
+		lastX = x;
+		lastY = y;
+	}
+	
+	/**
+	 * Check if this entity needs its collisions swept along its move
+	 * rather than just checked where it ends up. Fast moving entities
+	 * can pass straight through others in a single move.
+	 * 
+	 * @return True if collisions with this entity should be swept
+	 */
+	public boolean isSwept() {
+		return false;
+	}
+	
+	/**
+	 * Find when during the last move this entity first touched another,
+	 * treating both as boxes moving in a straight line from where they
+	 * were before the move to where they are now.
+	 * 
+	 * @param other The other entity to check collision against
+	 * @return The fraction of the move at which they touched (0 to 1), 
+	 * or -1 if they never touched
+	 */
+	public double sweep(Entity other) {
+		double width = sprite.getWidth();
+		double height = sprite.getHeight();
+		double otherWidth = other.sprite.getWidth();
+		double otherHeight = other.sprite.getHeight();
+		
+		// cheap rejection first, do the boxes covering the whole of
+		// both moves overlap at all?
+		if ((Math.max(lastX, x) + width <= Math.min(other.lastX, other.x))
+				|| (Math.max(other.lastX, other.x) + otherWidth <= Math.min(lastX, x))
+				|| (Math.max(lastY, y) + height <= Math.min(other.lastY, other.y))
+				|| (Math.max(other.lastY, other.y) + otherHeight <= Math.min(lastY, y))) {
+			return -1;
+		}
+		
+		// work in the other entity's frame of reference, so it stays
+		// still and we move by the difference of the two moves
+		double moveX = (x - lastX) - (other.x - other.lastX);
+		double moveY = (y - lastY) - (other.y - other.lastY);
+		
+		double entry = Double.NEGATIVE_INFINITY;
+		double exit = Double.POSITIVE_INFINITY;
+		
+		if (moveX != 0) {
+			double near = ((moveX > 0 ? other.lastX - width : other.lastX + otherWidth) - lastX) / moveX;
+			double far = ((moveX > 0 ? other.lastX + otherWidth : other.lastX - width) - lastX) / moveX;
+			entry = Math.max(entry, near);
+			exit = Math.min(exit, far);
+		} else if ((lastX + width <= other.lastX) || (other.lastX + otherWidth <= lastX)) {
+			return -1;
+		}
+		
+		if (moveY != 0) {
+			double near = ((moveY > 0 ? other.lastY - height : other.lastY + otherHeight) - lastY) / moveY;
+			double far = ((moveY > 0 ? other.lastY + otherHeight : other.lastY - height) - lastY) / moveY;
+			entry = Math.max(entry, near);
+			exit = Math.min(exit, far);
+		} else if ((lastY + height <= other.lastY) || (other.lastY + otherHeight <= lastY)) {
+			return -1;
+		}
+		
+		if ((entry >= exit) || (entry > 1) || (exit <= 0)) {
+			return -1;
+		}
+		
+		return Math.max(entry, 0);
+	}
+	
 	/**
 	 * Notification that this entity collided with another.
 	 * 
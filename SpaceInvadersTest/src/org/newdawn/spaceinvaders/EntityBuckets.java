@@ -0,0 +1,355 @@
+package org.newdawn.spaceinvaders;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * The entities of a game sorted into one bucket per concrete class, so
+ * they can be moved, drawn and given their logic one class at a time.
+ * <p>
+ * Going through one mixed list, the calls to move(), draw() and
+ * doLogic() see every kind of entity, so the JIT can't inline them and
+ * each one is a full virtual call. Here each class has its own loop
+ * calling through its own type, so every call only ever sees the one
+ * class and can be inlined. Any other kind of entity goes in a last
+ * bucket that's handled the slow way.
+ * <p>
+ * The buckets sit alongside the game's entity list, which still holds
+ * every entity in id order for collisions and snapshots. Since no
+ * entity looks at another while it moves, moving them a class at a
+ * time gives the same result as moving them in id order.
+ *
+ * @author John
+ */
+public class EntityBuckets {
+	/** The plain aliens */
+	private ArrayList aliens = new ArrayList();
+	/** The aliens that fire back */
+	private ArrayList projectileAliens = new ArrayList();
+	/** The aliens that take more than one hit */
+	private ArrayList highHealthAliens = new ArrayList();
+	/** The player's ship */
+	private ArrayList ships = new ArrayList();
+	/** The shots that fly straight */
+	private ArrayList straightShots = new ArrayList();
+	/** The bombs */
+	private ArrayList bombShots = new ArrayList();
+	/** Any other kind of entity */
+	private ArrayList others = new ArrayList();
+
+	/**
+	 * Add an entity to the bucket for its class
+	 *
+	 * @param entity The entity to add
+	 */
+	public void add(Entity entity) {
+		bucketFor(entity).add(entity);
+	}
+
+	/**
+	 * Remove an entity from the bucket for its class. Removing an
+	 * entity that isn't there does nothing.
+	 *
+	 * @param entity The entity to remove
+	 */
+	public void remove(Entity entity) {
+		bucketFor(entity).remove(entity);
+	}
+
+	/**
+	 * Remove every entity in a list
+	 *
+	 * @param removed The entities to remove
+	 */
+	public void removeAll(ArrayList removed) {
+		for (int i=0;i<removed.size();i++) {
+			remove((Entity) removed.get(i));
+		}
+	}
+
+	/**
+	 * Remove every entity
+	 */
+	public void clear() {
+		aliens.clear();
+		projectileAliens.clear();
+		highHealthAliens.clear();
+		ships.clear();
+		straightShots.clear();
+		bombShots.clear();
+		others.clear();
+	}
+
+	/**
+	 * Sort the entities into their buckets again from scratch, for
+	 * when the whole game has been restored
+	 *
+	 * @param entities The entities in the game
+	 */
+	public void rebuild(ArrayList entities) {
+		clear();
+		for (int i=0;i<entities.size();i++) {
+			add((Entity) entities.get(i));
+		}
+	}
+
+	/**
+	 * Move the entities whose update tier is due and hold the rest
+	 *
+	 * @param due True for each update tier that moves this tick
+	 * @param pending The time each update tier has to move through (ms)
+	 */
+	public void move(boolean[] due, long[] pending) {
+		for (int i=0;i<aliens.size();i++) {
+			AlienEntity alien = (AlienEntity) aliens.get(i);
+			int tier = alien.getUpdateTier();
+			if (due[tier]) {
+				alien.move(pending[tier]);
+			} else {
+				alien.hold();
+			}
+		}
+		for (int i=0;i<projectileAliens.size();i++) {
+			ProjectileAlien alien = (ProjectileAlien) projectileAliens.get(i);
+			int tier = alien.getUpdateTier();
+			if (due[tier]) {
+				alien.move(pending[tier]);
+			} else {
+				alien.hold();
+			}
+		}
+		for (int i=0;i<highHealthAliens.size();i++) {
+			HighHealthAlien alien = (HighHealthAlien) highHealthAliens.get(i);
+			int tier = alien.getUpdateTier();
+			if (due[tier]) {
+				alien.move(pending[tier]);
+			} else {
+				alien.hold();
+			}
+		}
+		for (int i=0;i<ships.size();i++) {
+			ShipEntity ship = (ShipEntity) ships.get(i);
+			int tier = ship.getUpdateTier();
+			if (due[tier]) {
+				ship.move(pending[tier]);
+			} else {
+				ship.hold();
+			}
+		}
+		for (int i=0;i<straightShots.size();i++) {
+			StraightShot shot = (StraightShot) straightShots.get(i);
+			int tier = shot.getUpdateTier();
+			if (due[tier]) {
+				shot.move(pending[tier]);
+			} else {
+				shot.hold();
+			}
+		}
+		for (int i=0;i<bombShots.size();i++) {
+			BombShot shot = (BombShot) bombShots.get(i);
+			int tier = shot.getUpdateTier();
+			if (due[tier]) {
+				shot.move(pending[tier]);
+			} else {
+				shot.hold();
+			}
+		}
+		for (int i=0;i<others.size();i++) {
+			Entity entity = (Entity) others.get(i);
+			int tier = entity.getUpdateTier();
+			if (due[tier]) {
+				entity.move(pending[tier]);
+			} else {
+				entity.hold();
+			}
+		}
+	}
+
+	/**
+	 * Give every entity the chance to run its logic
+	 */
+	public void doLogic() {
+		for (int i=0;i<aliens.size();i++) {
+			((AlienEntity) aliens.get(i)).doLogic();
+		}
+		for (int i=0;i<projectileAliens.size();i++) {
+			((ProjectileAlien) projectileAliens.get(i)).doLogic();
+		}
+		for (int i=0;i<highHealthAliens.size();i++) {
+			((HighHealthAlien) highHealthAliens.get(i)).doLogic();
+		}
+		for (int i=0;i<ships.size();i++) {
+			((ShipEntity) ships.get(i)).doLogic();
+		}
+		for (int i=0;i<straightShots.size();i++) {
+			((StraightShot) straightShots.get(i)).doLogic();
+		}
+		for (int i=0;i<bombShots.size();i++) {
+			((BombShot) bombShots.get(i)).doLogic();
+		}
+		for (int i=0;i<others.size();i++) {
+			((Entity) others.get(i)).doLogic();
+		}
+	}
+
+	/**
+	 * Draw every entity, the aliens first and then the ship and the
+	 * shots over the top
+	 *
+	 * @param g The graphics context to draw onto
+	 */
+	public void draw(Graphics g) {
+		for (int i=0;i<aliens.size();i++) {
+			((AlienEntity) aliens.get(i)).draw(g);
+		}
+		for (int i=0;i<projectileAliens.size();i++) {
+			((ProjectileAlien) projectileAliens.get(i)).draw(g);
+		}
+		for (int i=0;i<highHealthAliens.size();i++) {
+			((HighHealthAlien) highHealthAliens.get(i)).draw(g);
+		}
+		for (int i=0;i<ships.size();i++) {
+			((ShipEntity) ships.get(i)).draw(g);
+		}
+		for (int i=0;i<straightShots.size();i++) {
+			((StraightShot) straightShots.get(i)).draw(g);
+		}
+		for (int i=0;i<bombShots.size();i++) {
+			((BombShot) bombShots.get(i)).draw(g);
+		}
+		for (int i=0;i<others.size();i++) {
+			((Entity) others.get(i)).draw(g);
+		}
+	}
+
+	/**
+	 * Find the bucket an entity belongs in, by its exact class
+	 *
+	 * @param entity The entity to find the bucket for
+	 * @return The bucket for the entity's class
+	 */
+	private ArrayList bucketFor(Entity entity) {
+		Class type = entity.getClass();
+
+		if (type == AlienEntity.class) {
+			return aliens;
+		} else if (type == StraightShot.class) {
+			return straightShots;
+		} else if (type == ProjectileAlien.class) {
+			return projectileAliens;
+		} else if (type == HighHealthAlien.class) {
+			return highHealthAliens;
+		} else if (type == ShipEntity.class) {
+			return ships;
+		} else if (type == BombShot.class) {
+			return bombShots;
+		}
+		return others;
+	}
+
+	/**
+	 * Compare moving and running the logic of a mixed list of entities
+	 * against doing the same through the buckets. Each pass starts the
+	 * entities from the same place so every pass does the same work.
+	 *
+	 * @param argv The arguments: number of entities, number of passes
+	 */
+	public static void main(String argv[]) {
+		System.setProperty("java.awt.headless", "true");
+
+		int count = argv.length > 0 ? Integer.parseInt(argv[0]) : 2000;
+		int passes = argv.length > 1 ? Integer.parseInt(argv[1]) : 20000;
+
+		Game game = new Game(SpriteStore.get(), true);
+		ArrayList mixed = new ArrayList();
+		for (int i=0;i<count;i++) {
+			int x = 100 + (i % 500);
+			int y = 100 + ((i / 500) % 300);
+			switch (i % 6) {
+				case 0: mixed.add(new AlienEntity(game,"sprites/alien.gif",x,y,1)); break;
+				case 1: mixed.add(new ProjectileAlien(game,"sprites/projectileAlien.gif",x,y,1,6000)); break;
+				case 2: mixed.add(new HighHealthAlien(game,"sprites/largeAlien.gif",x,y,3)); break;
+				case 3: mixed.add(new ShipEntity(game,"sprites/ship.gif",x,y,3)); break;
+				case 4: mixed.add(new StraightShot(game,"sprites/shot.gif",x,y,1,270,1,true)); break;
+				default: mixed.add(new BombShot(game,"sprites/roundShot.gif",x,y,1,270,0,1,true)); break;
+			}
+		}
+		Collections.shuffle(mixed, new Random(1));
+
+		EntityBuckets buckets = new EntityBuckets();
+		buckets.rebuild(mixed);
+
+		double[] startX = new double[count];
+		double[] startY = new double[count];
+		for (int i=0;i<count;i++) {
+			Entity entity = (Entity) mixed.get(i);
+			startX[i] = entity.x;
+			startY[i] = entity.y;
+		}
+
+		boolean[] due = {true, true};
+		long[] pending = {10, 10};
+		Graphics g = new BufferedImage(800, 800, BufferedImage.TYPE_INT_RGB).getGraphics();
+
+		long[] mixedTimes = new long[2];
+		long[] bucketTimes = new long[2];
+		for (int pass=0;pass<passes;pass++) {
+			// skip the first passes while the code warms up
+			boolean measure = pass >= passes / 5;
+
+			long start = System.nanoTime();
+			for (int i=0;i<mixed.size();i++) {
+				Entity entity = (Entity) mixed.get(i);
+				entity.move(10);
+				entity.doLogic();
+			}
+			long moved = System.nanoTime();
+			for (int i=0;i<mixed.size();i++) {
+				((Entity) mixed.get(i)).draw(g);
+			}
+			long drawn = System.nanoTime();
+			if (measure) {
+				mixedTimes[0] += moved - start;
+				mixedTimes[1] += drawn - moved;
+			}
+			reset(mixed, startX, startY);
+
+			start = System.nanoTime();
+			buckets.move(due, pending);
+			buckets.doLogic();
+			moved = System.nanoTime();
+			buckets.draw(g);
+			drawn = System.nanoTime();
+			if (measure) {
+				bucketTimes[0] += moved - start;
+				bucketTimes[1] += drawn - moved;
+			}
+			reset(mixed, startX, startY);
+		}
+
+		double scale = 1.0 / ((double) count * (passes - (passes / 5)));
+		System.out.printf("%d entities, 6 classes%n", count);
+		System.out.printf("move+logic: mixed %.2f ns/entity, buckets %.2f ns/entity%n",
+				mixedTimes[0] * scale, bucketTimes[0] * scale);
+		System.out.printf("draw:       mixed %.2f ns/entity, buckets %.2f ns/entity%n",
+				mixedTimes[1] * scale, bucketTimes[1] * scale);
+	}
+
+	/**
+	 * Put the benchmark entities back where they started
+	 *
+	 * @param entities The entities to put back
+	 * @param x The starting x position of each entity
+	 * @param y The starting y position of each entity
+	 */
+	private static void reset(ArrayList entities, double[] x, double[] y) {
+		for (int i=0;i<entities.size();i++) {
+			Entity entity = (Entity) entities.get(i);
+			entity.x = x[i];
+			entity.y = y[i];
+		}
+	}
+}
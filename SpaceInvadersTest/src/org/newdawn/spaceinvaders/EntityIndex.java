@@ -0,0 +1,147 @@
+package org.newdawn.spaceinvaders;
+
+import java.util.ArrayList;
+
+/**
+ * Lists of the live entities in a game by the part they play, kept up
+ * to date as entities are added and removed. Anything that only cares
+ * about one kind of entity, say the aliens or the enemy's shots, can go
+ * through exactly those rather than checking every entity in the game,
+ * so the cost follows the size of the list not the size of the world.
+ * <p>
+ * An entity leaves the index as soon as it's marked for removal, even
+ * though it stays in the game's entity list until the end of the
+ * collision phase, so the lists only ever hold entities still in play.
+ * An entity may be in more than one list, an alien that fires is both
+ * an alien and a shooter. The lists must not be changed by their users.
+ *
+ * @author John
+ */
+public class EntityIndex {
+	/** Every live alien */
+	private ArrayList aliens = new ArrayList();
+	/** The live aliens that fire back */
+	private ArrayList shooters = new ArrayList();
+	/** The shots fired by the player */
+	private ArrayList playerShots = new ArrayList();
+	/** The shots fired by the aliens */
+	private ArrayList enemyShots = new ArrayList();
+	/** Every live entity that can take damage */
+	private ArrayList damageables = new ArrayList();
+
+	/**
+	 * Add an entity to every list it belongs in
+	 *
+	 * @param entity The entity to add
+	 */
+	public void add(Entity entity) {
+		if (entity instanceof AlienEntity) {
+			aliens.add(entity);
+			if (entity instanceof ProjectileAlien) {
+				shooters.add(entity);
+			}
+		} else if (entity instanceof ShotEntity) {
+			if (((ShotEntity) entity).isPlayerProjectile()) {
+				playerShots.add(entity);
+			} else {
+				enemyShots.add(entity);
+			}
+		}
+		if (entity instanceof Damageable) {
+			damageables.add(entity);
+		}
+	}
+
+	/**
+	 * Remove an entity from every list it's in. Removing an entity
+	 * that has already gone does nothing.
+	 *
+	 * @param entity The entity to remove
+	 */
+	public void remove(Entity entity) {
+		if (entity instanceof AlienEntity) {
+			aliens.remove(entity);
+			if (entity instanceof ProjectileAlien) {
+				shooters.remove(entity);
+			}
+		} else if (entity instanceof ShotEntity) {
+			if (((ShotEntity) entity).isPlayerProjectile()) {
+				playerShots.remove(entity);
+			} else {
+				enemyShots.remove(entity);
+			}
+		}
+		if (entity instanceof Damageable) {
+			damageables.remove(entity);
+		}
+	}
+
+	/**
+	 * Remove every entity
+	 */
+	public void clear() {
+		aliens.clear();
+		shooters.clear();
+		playerShots.clear();
+		enemyShots.clear();
+		damageables.clear();
+	}
+
+	/**
+	 * Build the lists again from scratch, for when the whole game has
+	 * been restored
+	 *
+	 * @param entities The entities in the game
+	 */
+	public void rebuild(ArrayList entities) {
+		clear();
+		for (int i=0;i<entities.size();i++) {
+			add((Entity) entities.get(i));
+		}
+	}
+
+	/**
+	 * Get the live aliens, of every kind
+	 *
+	 * @return The live aliens
+	 */
+	public ArrayList getAliens() {
+		return aliens;
+	}
+
+	/**
+	 * Get the live aliens that fire back
+	 *
+	 * @return The live aliens that fire
+	 */
+	public ArrayList getShooters() {
+		return shooters;
+	}
+
+	/**
+	 * Get the shots fired by the player that are still in play
+	 *
+	 * @return The player's shots
+	 */
+	public ArrayList getPlayerShots() {
+		return playerShots;
+	}
+
+	/**
+	 * Get the shots fired by the aliens that are still in play
+	 *
+	 * @return The aliens' shots
+	 */
+	public ArrayList getEnemyShots() {
+		return enemyShots;
+	}
+
+	/**
+	 * Get the live entities that can take damage
+	 *
+	 * @return The damageable entities
+	 */
+	public ArrayList getDamageables() {
+		return damageables;
+	}
+}
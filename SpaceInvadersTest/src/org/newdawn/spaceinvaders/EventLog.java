@@ -0,0 +1,369 @@
+package org.newdawn.spaceinvaders;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A low overhead log of game events, written out by a background
+ * thread so that logging never holds up the thread doing the logging.
+ * <p>
+ * Events are structured: each kind of event is an Event constant with
+ * a name and the names of up to two numeric fields, and logging one
+ * copies the values into a preallocated slot in a ring. Nothing is
+ * formatted or allocated on the calling thread. Slots are claimed with
+ * a compare and swap on the tail so any thread can log without locks.
+ * If the writer has fallen behind and the ring is full the event is
+ * dropped and counted rather than waiting, and the writer reports how
+ * many were lost.
+ * <p>
+ * The writer sleeps while there's nothing to write. Logging an event
+ * wakes it only if it's asleep, so a quiet game costs nothing at all
+ * and a busy one doesn't pay for a wake up per event.
+ * <p>
+ * Events below the current level are thrown away by the first check
+ * in log(), before anything else is touched. The level is set by the
+ * spaceinvaders.logLevel property (DEBUG, INFO, WARN, ERROR or OFF,
+ * default INFO) and events go to standard error unless the
+ * spaceinvaders.log property names a file to append to.
+ * <p>
+ * Each event is written as a line of the form
+ * <pre>
+ * 1714213423120 INFO ship.damaged damage=1 health=2
+ * </pre>
+ *
+ * @author John
+ */
+public class EventLog {
+	/** Level for detail only wanted while investigating */
+	public static final int DEBUG = 0;
+	/** Level for normal game events */
+	public static final int INFO = 1;
+	/** Level for problems the game carries on through */
+	public static final int WARN = 2;
+	/** Level for failures */
+	public static final int ERROR = 3;
+	/** Level that turns logging off */
+	public static final int OFF = 4;
+	/** The names of the levels */
+	private static final String[] LEVEL_NAMES = {"DEBUG", "INFO", "WARN", "ERROR", "OFF"};
+
+	/** The number of slots in the ring, a power of two */
+	private static final int CAPACITY = 4096;
+	/** The mask to turn a sequence into a slot index */
+	private static final int MASK = CAPACITY - 1;
+	/**
+	 * The longest the writer sleeps when there's nothing to write (ns).
+	 * Logging wakes it, this is only a backstop.
+	 */
+	private static final long IDLE_WAIT = 250000000;
+
+	/** Reports events dropped because the ring was full */
+	private static final Event DROPPED = new Event("log.dropped", "count");
+
+	/**
+	 * A kind of event that can be logged. Events are created once, as
+	 * constants, so logging one doesn't allocate.
+	 */
+	public static class Event {
+		/** The name of the event */
+		private final String name;
+		/** The names of the event's fields, null where a field isn't used */
+		private final String[] fields;
+
+		/**
+		 * Create a kind of event
+		 *
+		 * @param name The name of the event
+		 * @param fields The names of the event's numeric fields, at most two
+		 */
+		public Event(String name, String... fields) {
+			this.name = name;
+			this.fields = new String[2];
+			System.arraycopy(fields, 0, this.fields, 0, Math.min(2, fields.length));
+		}
+	}
+
+	/** The lowest level that is logged */
+	private static volatile int threshold = parseLevel(System.getProperty("spaceinvaders.logLevel", "INFO"));
+
+	/** The sequence each slot is waiting for: its own index to be written, index+1 once written */
+	private static final AtomicLongArray sequence = new AtomicLongArray(CAPACITY);
+	/** The level of the event in each slot */
+	private static final int[] levels = new int[CAPACITY];
+	/** The kind of event in each slot */
+	private static final Event[] events = new Event[CAPACITY];
+	/** The first field of the event in each slot */
+	private static final long[] firsts = new long[CAPACITY];
+	/** The second field of the event in each slot */
+	private static final long[] seconds = new long[CAPACITY];
+	/** The text attached to the event in each slot, if any */
+	private static final String[] details = new String[CAPACITY];
+	/** The wall clock time of the event in each slot (ms) */
+	private static final long[] times = new long[CAPACITY];
+	/** The sequence of the next slot to be claimed */
+	private static final AtomicLong tail = new AtomicLong();
+	/** The sequence of the next slot to be written out, only used by the writer */
+	private static long head;
+	/** The number of events dropped because the ring was full */
+	private static final AtomicLong dropped = new AtomicLong();
+	/** The number of dropped events already reported, only used by the writer */
+	private static long reported;
+	/** Where events are written */
+	private static PrintStream out = System.err;
+	/** The thread writing events out */
+	private static final Thread writer;
+	/** True while the writer is asleep, or about to be, waiting for events */
+	private static volatile boolean sleeping;
+
+	static {
+		for (int i=0;i<CAPACITY;i++) {
+			sequence.set(i, i);
+		}
+
+		String file = System.getProperty("spaceinvaders.log");
+		if (file != null) {
+			try {
+				out = new PrintStream(new FileOutputStream(file, true), false);
+			} catch (IOException e) {
+				System.err.println("Unable to open log file, logging to standard error: "+e.getMessage());
+			}
+		}
+
+		writer = new Thread(new Runnable() {
+			public void run() {
+				while (true) {
+					boolean wrote;
+					synchronized (EventLog.class) {
+						wrote = drain();
+					}
+					if (!wrote) {
+						// say we're going to sleep before the last look,
+						// so an event published after it is sure to wake us
+						sleeping = true;
+						if (!pending()) {
+							LockSupport.parkNanos(IDLE_WAIT);
+						}
+						sleeping = false;
+					}
+				}
+			}
+		}, "event-log");
+		writer.setDaemon(true);
+		writer.start();
+
+		// write out whatever is still waiting when the JVM exits
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				synchronized (EventLog.class) {
+					drain();
+				}
+			}
+		}, "event-log-flush"));
+	}
+
+	/**
+	 * Convert the name of a level into the level
+	 *
+	 * @param name The name of the level
+	 * @return The level
+	 */
+	private static int parseLevel(String name) {
+		for (int i=0;i<LEVEL_NAMES.length;i++) {
+			if (LEVEL_NAMES[i].equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown log level: "+name);
+	}
+
+	/**
+	 * Set the lowest level that is logged
+	 *
+	 * @param level The lowest level to log, or OFF
+	 */
+	public static void setLevel(int level) {
+		threshold = level;
+	}
+
+	/**
+	 * Check if events at a level are being logged. Only needed when
+	 * working out the values to log is expensive in itself.
+	 *
+	 * @param level The level to check
+	 * @return True if events at the level are logged
+	 */
+	public static boolean isEnabled(int level) {
+		return level >= threshold;
+	}
+
+	/**
+	 * Log an event with no fields
+	 *
+	 * @param level The level of the event
+	 * @param event The kind of event
+	 */
+	public static void log(int level, Event event) {
+		log(level, event, 0, 0, null);
+	}
+
+	/**
+	 * Log an event with one field
+	 *
+	 * @param level The level of the event
+	 * @param event The kind of event
+	 * @param first The value of the first field
+	 */
+	public static void log(int level, Event event, long first) {
+		log(level, event, first, 0, null);
+	}
+
+	/**
+	 * Log an event with two fields
+	 *
+	 * @param level The level of the event
+	 * @param event The kind of event
+	 * @param first The value of the first field
+	 * @param second The value of the second field
+	 */
+	public static void log(int level, Event event, long first, long second) {
+		log(level, event, first, second, null);
+	}
+
+	/**
+	 * Log an event, never blocking. If the ring is full the event is
+	 * dropped.
+	 *
+	 * @param level The level of the event
+	 * @param event The kind of event
+	 * @param first The value of the first field
+	 * @param second The value of the second field
+	 * @param detail Text to attach to the event, or null
+	 */
+	public static void log(int level, Event event, long first, long second, String detail) {
+		if (level < threshold) {
+			return;
+		}
+
+		// claim a slot, giving up if the writer hasn't freed the next one
+		long claimed;
+		int slot;
+		do {
+			claimed = tail.get();
+			slot = (int) claimed & MASK;
+			if (sequence.get(slot) != claimed) {
+				dropped.incrementAndGet();
+				wake();
+				return;
+			}
+		} while (!tail.compareAndSet(claimed, claimed + 1));
+
+		levels[slot] = level;
+		events[slot] = event;
+		firsts[slot] = first;
+		seconds[slot] = second;
+		details[slot] = detail;
+		times[slot] = System.currentTimeMillis();
+
+		// publish the slot to the writer. This is a full volatile write
+		// so the check that follows can't see the writer awake when it
+		// has already missed the event and gone to sleep
+		sequence.set(slot, claimed + 1);
+		wake();
+	}
+
+	/**
+	 * Wake the writer if it's asleep
+	 */
+	private static void wake() {
+		if (sleeping) {
+			sleeping = false;
+			LockSupport.unpark(writer);
+		}
+	}
+
+	/**
+	 * Check if there's anything for the writer to do. Only called by
+	 * the writer thread.
+	 *
+	 * @return True if an event is waiting or events have been dropped
+	 */
+	private static boolean pending() {
+		return (sequence.get((int) head & MASK) == head + 1) || (dropped.get() != reported);
+	}
+
+	/**
+	 * Get the number of events dropped because the ring was full
+	 *
+	 * @return The number of events dropped
+	 */
+	public static long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Write out every event that has been published. Only called by
+	 * the writer thread or the shutdown hook, holding the class lock.
+	 *
+	 * @return True if anything was written
+	 */
+	private static boolean drain() {
+		boolean wrote = false;
+
+		while (true) {
+			int slot = (int) head & MASK;
+			if (sequence.get(slot) != head + 1) {
+				break;
+			}
+
+			write(levels[slot], events[slot], firsts[slot], seconds[slot], details[slot], times[slot]);
+			events[slot] = null;
+			details[slot] = null;
+
+			// hand the slot back to the producers for the next lap
+			sequence.lazySet(slot, head + CAPACITY);
+			head++;
+			wrote = true;
+		}
+
+		long lost = dropped.get();
+		if (lost != reported) {
+			write(WARN, DROPPED, lost - reported, 0, null, System.currentTimeMillis());
+			reported = lost;
+			wrote = true;
+		}
+
+		if (wrote) {
+			out.flush();
+		}
+		return wrote;
+	}
+
+	/**
+	 * Write a single event out as a line
+	 *
+	 * @param level The level of the event
+	 * @param event The kind of event
+	 * @param first The value of the first field
+	 * @param second The value of the second field
+	 * @param detail The text attached to the event, or null
+	 * @param time The wall clock time of the event (ms)
+	 */
+	private static void write(int level, Event event, long first, long second, String detail, long time) {
+		StringBuilder line = new StringBuilder(64);
+		line.append(time).append(' ').append(LEVEL_NAMES[level]).append(' ').append(event.name);
+		if (event.fields[0] != null) {
+			line.append(' ').append(event.fields[0]).append('=').append(first);
+		}
+		if (event.fields[1] != null) {
+			line.append(' ').append(event.fields[1]).append('=').append(second);
+		}
+		if (detail != null) {
+			line.append(" \"").append(detail).append('"');
+		}
+		out.println(line);
+	}
+}
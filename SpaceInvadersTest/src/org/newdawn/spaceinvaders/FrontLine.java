@@ -0,0 +1,143 @@
+package org.newdawn.spaceinvaders;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps track of the bottom-most living alien in each column of the
+ * formation, the only alien in a column allowed to fire. The index is
+ * kept up to date as aliens die rather than worked out each tick, so
+ * finding the aliens that may fire costs one look up per column.
+ * <p>
+ * When the alien at the front of a column dies the column is searched
+ * upwards for the next living alien. Each slot is passed over at most
+ * once in a wave, so the cost of keeping the index is spread thinly
+ * over the whole wave.
+ *
+ * @author John
+ */
+public class FrontLine {
+	/** The aliens in the formation, row by row, null once dead */
+	private AlienEntity[] slots = new AlienEntity[0];
+	/** The row of the front alien in each column, -1 if the column is empty */
+	private int[] front = new int[0];
+	/** The number of rows in the formation */
+	private int rows;
+	/** The number of columns in the formation */
+	private int columns;
+
+	/**
+	 * Empty the index ready for a new formation
+	 *
+	 * @param rows The number of rows in the formation
+	 * @param columns The number of columns in the formation
+	 */
+	public void reset(int rows, int columns) {
+		this.rows = rows;
+		this.columns = columns;
+
+		if (slots.length < rows * columns) {
+			slots = new AlienEntity[rows * columns];
+		}
+		if (front.length < columns) {
+			front = new int[columns];
+		}
+
+		for (int i=0;i<slots.length;i++) {
+			slots[i] = null;
+		}
+		for (int i=0;i<front.length;i++) {
+			front[i] = -1;
+		}
+	}
+
+	/**
+	 * Add an alien to the formation at its place in the grid
+	 *
+	 * @param alien The alien to add
+	 */
+	public void add(AlienEntity alien) {
+		int row = alien.getRow();
+		int column = alien.getColumn();
+		if ((row < 0) || (row >= rows) || (column < 0) || (column >= columns)) {
+			return;
+		}
+
+		slots[(row * columns) + column] = alien;
+		if (row > front[column]) {
+			front[column] = row;
+		}
+	}
+
+	/**
+	 * Take a dead alien out of the formation, moving the front of its
+	 * column back to the next living alien above it. Removing an alien
+	 * that has already gone does nothing.
+	 *
+	 * @param alien The alien to remove
+	 */
+	public void remove(AlienEntity alien) {
+		int row = alien.getRow();
+		int column = alien.getColumn();
+		if ((row < 0) || (row >= rows) || (column < 0) || (column >= columns)) {
+			return;
+		}
+		int slot = (row * columns) + column;
+		if (slots[slot] != alien) {
+			return;
+		}
+		slots[slot] = null;
+
+		if (front[column] == row) {
+			int next = row - 1;
+			while ((next >= 0) && (slots[(next * columns) + column] == null)) {
+				next--;
+			}
+			front[column] = next;
+		}
+	}
+
+	/**
+	 * Get the number of rows in the formation
+	 *
+	 * @return The number of rows
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * Get the number of columns in the formation
+	 *
+	 * @return The number of columns
+	 */
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Get the bottom-most living alien in a column
+	 *
+	 * @param column The column to check
+	 * @return The alien at the front of the column or null if the column is empty
+	 */
+	public AlienEntity getFront(int column) {
+		int row = front[column];
+		return row < 0 ? null : slots[(row * columns) + column];
+	}
+
+	/**
+	 * Build the index again from scratch from the aliens in a list of
+	 * entities, for when the whole game has been restored
+	 *
+	 * @param entities The entities in the game
+	 */
+	public void rebuild(ArrayList entities) {
+		reset(rows, columns);
+		for (int i=0;i<entities.size();i++) {
+			Object entity = entities.get(i);
+			if (entity instanceof AlienEntity) {
+				add((AlienEntity) entity);
+			}
+		}
+	}
+}
@@ -3,13 +3,23 @@ package org.newdawn.spaceinvaders;
 import java.awt.Canvas;
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Random;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
@@ -30,16 +40,92 @@ import javax.swing.JPanel;
  * @author Kevin Glass
  */
 public class Game extends Canvas {
-        public static Game instance;
-        
+	/** The time main() was entered, used to measure start up (ns) */
+	private static long launchTime = System.nanoTime();
+	
+	/** The wave file played unless the spaceinvaders.waves property names another */
+	public static final String DEFAULT_WAVES = "waves/default.waves";
+	
+	/** Logged as each wave of aliens comes in */
+	private static final EventLog.Event WAVE_SPAWNED = new EventLog.Event("wave.spawned", "wave", "aliens");
+	/** Logged if the run history can't be opened */
+	private static final EventLog.Event HISTORY_FAILED = new EventLog.Event("history.open_failed");
+	/** Logged if the telemetry file can't be opened */
+	private static final EventLog.Event TELEMETRY_FAILED = new EventLog.Event("telemetry.open_failed");
+	/** Logged if the world export file can't be opened */
+	private static final EventLog.Event EXPORT_FAILED = new EventLog.Event("export.open_failed");
+	/** Logged when the first frame has been shown */
+	private static final EventLog.Event FIRST_FRAME = new EventLog.Event("startup.first_frame", "fromMain", "fromJvm");
+	/** Logged if the start up time can't be written to the start up log */
+	private static final EventLog.Event STARTUP_LOG_FAILED = new EventLog.Event("startup.log_failed");
+	
+	/** The tier of entities that move every tick, like shots and the ship */
+	public static final int TIER_EVERY_TICK = 0;
+	/** The tier of the slow moving alien formation */
+	public static final int TIER_FORMATION = 1;
+	/** The number of update tiers */
+	private static final int TIER_COUNT = 2;
+	
+	/** The number of bunkers */
+	private static final int BUNKER_COUNT = 4;
+	/** The y location of the top of the bunkers */
+	private static final int BUNKER_Y = 460;
+	
+	/** The score for killing an alien */
+	private static final int POINTS_PER_ALIEN = 10;
+	/** The most ticks the game loop will run to catch up before it drops time */
+	private static final int MAX_CATCH_UP = 5;
+	/** The colour the background is cleared to */
+	private static final Color BACKGROUND = new Color(209, 238, 84);
+	
 	/** The stragey that allows us to use accelerate page flipping */
 	private BufferStrategy strategy;
+	/** True once the first frame has been shown */
+	private boolean firstFrameShown;
+	/** The still frame shown while the game is idle */
+	private BufferedImage idleFrame;
+	/** True if the still frame needs drawing again before it's shown */
+	private volatile boolean idleFrameStale = true;
 	/** True if the game is currently "running", i.e. the game loop is looping */
 	private boolean gameRunning = true;
+	/** The sprites used by this game, shared read-only between sessions */
+	private SpriteStore spriteStore;
+	/** The probes told as each phase of a tick ends */
+	private TickProbe[] probes = new TickProbe[0];
+	/** The number of pairs of entities tested for collision in the last tick */
+	private int collisionPairs;
+	/** The performance display, null for a headless game */
+	private PerfOverlay overlay;
+	/** The message shown while waiting, rendered once */
+	private CachedText messageText = new CachedText(Color.black);
+	/** The prompt shown while waiting, rendered once */
+	private CachedText pressAnyKeyText = new CachedText(Color.black);
+	/** The shields the player can hide behind */
+	private Bunker[] bunkers = new Bunker[BUNKER_COUNT];
+	/** The bottom-most living alien in each column, the only ones that may fire */
+	private FrontLine frontLine = new FrontLine();
+	/** Flies the aliens diving out of the formation along their paths */
+	private PathFollower pathFollower = new PathFollower();
+	/** The dive paths of the current wave, null if it doesn't dive */
+	private DivePaths divePaths;
+	/** The time between aliens peeling off to dive in the current wave (ms) */
+	private int diveInterval;
+	/** The collisions found this tick */
+	private ContactList contacts = new ContactList();
+	/** The aliens found by the last search for enemies in range */
+	private ArrayList enemiesInRange = new ArrayList();
+	/** The visual effects drawn over the entities, null for a headless game */
+	private ParticleSystem particles;
 	/** The list of all the entities that exist in our game */
 	private ArrayList entities = new ArrayList();
+	/** The same entities sorted by class, for the move, logic and draw passes */
+	private EntityBuckets buckets = new EntityBuckets();
+	/** The live entities listed by the part they play */
+	private EntityIndex index = new EntityIndex();
 	/** The list of entities that need to be removed from the game this loop */
 	private ArrayList removeList = new ArrayList();
+	/** The list the entities are rebuilt into when restoring a snapshot */
+	private ArrayList restoreList = new ArrayList();
 	/** The entity representing the player */ 
 	private Entity ship;
 	/** The speed at which the player's ship should move (pixels/sec) */
@@ -48,19 +134,83 @@ public class Game extends Canvas {
 	private long lastFire = 0;
 	/** The interval between our players shot (ms) */
 	private long firingInterval = 500;
+	/** The time each tick of the game loop covers (ms), set by spaceinvaders.tickRate (ticks/sec) */
+	private long tickInterval = Math.max(1, 1000 / Integer.getInteger("spaceinvaders.tickRate", 100).intValue());
+	/**
+	 * The number of ticks between moves of each update tier. The formation's
+	 * is set by spaceinvaders.formationInterval, and anything over 1 changes
+	 * how the game plays (see setFormationInterval)
+	 */
+	private int[] tierInterval = {1, Integer.getInteger("spaceinvaders.formationInterval", 1).intValue()};
+	/** The time each update tier has still to move through (ms) */
+	private long[] tierPending = new long[TIER_COUNT];
+	/** True for each update tier that moves this tick */
+	private boolean[] tierDue = new boolean[TIER_COUNT];
+	/** The number of ticks played, while not waiting for a key press */
+	private long tickCount;
+	/** The time that has passed in the game, advanced by each tick (ms) */
+	private long time;
+	/** The source of randomness for everything in this game */
+	private GameRandom random = new GameRandom();
+	/** True if the last round ended with the player winning */
+	private boolean won;
 	/** The number of aliens left on the screen */
 	private int alienCount;
+	/** The player's score this round */
+	private long score;
+	/** The number of times the player has fired each type of shot this round, by ordinal */
+	private int[] shotsFired = new int[ShotType.values().length];
+	/** The game time the current round started (ms) */
+	private long roundStart;
+	/** The wall clock time the current round started (ms since the epoch) */
+	private long roundStartedAt;
+	/** The recorder finished rounds are handed to, or null if they're not kept */
+	private RunRecorder recorder;
+	/** The JIT warm-up played while waiting for the first key press, null if there isn't one */
+	private JitWarmup warmup;
+	/** True if this game's events go to the event log */
+	private boolean logEvents;
+	/** The number of entities ever added to the game */
+	private long entitiesAdded;
+	/** The number of aliens ever killed in the game */
+	private long aliensKilled;
+	/** The number of input events ever applied to the game */
+	private long inputEvents;
+	/** The cabinet this game is running on, as recorded in the run history */
+	private int cabinet = Integer.getInteger("spaceinvaders.cabinet", 0).intValue();
+	/** The id that will be given to the next entity added to the game */
+	private int nextEntityId = 1;
+	/** The wave file the aliens are read from */
+	private String waveRef = System.getProperty("spaceinvaders.waves", DEFAULT_WAVES);
+	/** The stream of waves for the current or next round */
+	private WaveStream waves;
+	/** The number of waves taken from the current stream */
+	private int wavesTaken;
+	/** The number of the wave being played in this round, starting at 1 */
+	private int waveNumber;
+	/** True if the last alien of the current wave has been killed and the next hasn't come in yet */
+	private boolean waveCleared;
+	/** True if start has been pressed but the first wave of the round is still loading */
+	private boolean startRequested;
 	
 	/** The message to display which waiting for a key press */
 	private String message = "";
 	/** True if we're holding up game play until a key has been pressed */
-	private boolean waitingForKeyPress = true;
+	private volatile boolean waitingForKeyPress = true;
 	/** True if the left cursor key is currently pressed */
 	private boolean leftPressed = false;
 	/** True if the right cursor key is currently pressed */
 	private boolean rightPressed = false;
 	/** True if we are firing */
 	private boolean firePressed = false;
+	/** True if a fire key went down since the last tick, even if it has since been released */
+	private boolean fireRequested = false;
+	/** The queue of input events waiting to be applied by the game loop */
+	private InputQueue inputQueue = new InputQueue(256);
+	/** Applies drained input events to the key state */
+	private InputApplier inputApplier = new InputApplier();
+	/** The time between the most recent input event and the game acting on it (ns) */
+	private long lastInputLatency;
 	/** True if game logic needs to be applied this loop, normally as a result of a game event */
 	private boolean logicRequiredThisLoop = false;
 	
@@ -70,14 +220,114 @@ public class Game extends Canvas {
         
         //List of shots fired by the player this frame. Needed for multiammo types
         private ArrayList shots = new ArrayList();
+        
+        /** The compiled pattern of each of the player's shot types, by ordinal */
+        private static final BulletPattern[] SHOT_PATTERNS = compileShotPatterns();
+        /** The pattern the projectile aliens of the current wave fire */
+        private BulletPattern enemyPattern = PatternCompiler.parse("single");
 
         
 	/**
 	 * Construct our game and set it running.
 	 */
-	public Game() {   
-                initSingleton();
-                
+	public Game() {
+		this(SpriteStore.get(),false);
+	}
+	
+	/**
+	 * Construct our game, optionally without any display. A headless
+	 * game runs exactly the same logic but never creates a window,
+	 * it's driven by calling tick() directly.
+	 * <p>
+	 * Each game is a self contained session, everything it needs is
+	 * held by the game itself and passed to its entities as they're
+	 * created. The only thing sessions share is the immutable sprite
+	 * store, so any number of games can run side by side in one JVM.
+	 * 
+	 * @param spriteStore The sprites to use for the game
+	 * @param headless True if the game should not create a window
+	 */
+	public Game(SpriteStore spriteStore, boolean headless) {   
+		this(spriteStore, headless, true);
+	}
+	
+	/**
+	 * Construct our game, choosing whether its events go to the event
+	 * log. A throwaway game like the JIT warm-up is kept out of the log
+	 * so it isn't filled with rounds nobody played.
+	 * 
+	 * @param spriteStore The sprites to use for the game
+	 * @param headless True if the game should not create a window
+	 * @param logEvents True if the game's events should be logged
+	 */
+	public Game(SpriteStore spriteStore, boolean headless, boolean logEvents) {
+		this.spriteStore = spriteStore;
+		this.logEvents = logEvents;
+		
+		// space the bunkers evenly across the screen
+		for (int i=0;i<bunkers.length;i++) {
+			bunkers[i] = new Bunker(((800 * (i + 1)) / (bunkers.length + 1)) - (Bunker.WIDTH / 2), BUNKER_Y);
+		}
+		
+		if (!headless) {
+			createDisplay();
+			particles = new ParticleSystem(50000,800,800);
+			overlay = new PerfOverlay(this);
+			addProbe(overlay);
+			
+			// keep a history of the rounds played if we've been told where
+			String history = System.getProperty("spaceinvaders.history");
+			if (history != null) {
+				try {
+					recorder = new RunRecorder(new File(history));
+				} catch (IOException e) {
+					EventLog.log(EventLog.WARN, HISTORY_FAILED, 0, 0, e.getMessage());
+				}
+			}
+			
+			// and record the metrics of every tick if asked to
+			String telemetry = System.getProperty("spaceinvaders.telemetry");
+			if (telemetry != null) {
+				try {
+					addProbe(new TelemetryRecorder(this, new File(telemetry), Integer.getInteger("spaceinvaders.telemetryTicks", 65536).intValue()));
+				} catch (IOException e) {
+					EventLog.log(EventLog.WARN, TELEMETRY_FAILED, 0, 0, e.getMessage());
+				}
+			}
+			
+			// and publish the entities to other processes if asked to
+			String export = System.getProperty("spaceinvaders.export");
+			if (export != null) {
+				try {
+					addProbe(new WorldExport(this, new File(export), Integer.getInteger("spaceinvaders.exportEntities", 4096).intValue()));
+				} catch (IOException e) {
+					EventLog.log(EventLog.WARN, EXPORT_FAILED, 0, 0, e.getMessage());
+				}
+			}
+		}
+		
+		// initialise the entities in our game so there's something
+		// to see at startup. The first wave is only shown, not taken,
+		// so the stream is ready for the first round as it is. We're
+		// not on a tick yet so it's fine to wait for it here
+		openWaves(0);
+		waves.awaitReady();
+		initEntities(false);
+		
+		// warm the JIT up on a throwaway game while the player reads
+		// the start screen, if we've been asked to
+		int warmupTicks = Integer.getInteger("spaceinvaders.warmupTicks", 0).intValue();
+		if ((!headless) && (warmupTicks > 0)) {
+			warmup = new JitWarmup(spriteStore, warmupTicks);
+			warmup.start();
+		}
+	}
+	
+	/**
+	 * Create the window that displays the game and hook up the
+	 * keyboard input.
+	 */
+	private void createDisplay() {
 		// create a frame to contain our game
 		JFrame container = new JFrame("Space Invaders 101");
 		
@@ -105,6 +355,26 @@ public class Game extends Canvas {
 			public void windowClosing(WindowEvent e) {
 				System.exit(0);
 			}
+			
+			public void windowDeiconified(WindowEvent e) {
+				requestRepaint();
+			}
+			
+			public void windowActivated(WindowEvent e) {
+				requestRepaint();
+			}
+		});
+		
+		// while the game is idle nothing is drawn unless we ask, so
+		// put the frame back whenever the canvas is shown again
+		addComponentListener(new ComponentAdapter() {
+			public void componentShown(ComponentEvent e) {
+				requestRepaint();
+			}
+			
+			public void componentResized(ComponentEvent e) {
+				requestRepaint();
+			}
 		});
 		
 		// add a key input system (defined below) to our canvas
@@ -118,16 +388,8 @@ public class Game extends Canvas {
 		// to manage our accelerated graphics
 		createBufferStrategy(2);
 		strategy = getBufferStrategy();
-		
-		// initialise the entities in our game so there's something
-		// to see at startup
-		initEntities();
 	}
 	
-        private void initSingleton(){
-            if(instance == null) instance = this;
-        }
-        
         public ArrayList getShots(){
             return shots;
         }
@@ -139,42 +401,181 @@ public class Game extends Canvas {
 	private void startGame() {
 		// clear out any existing entities and intialise a new set
 		entities.clear();
-		initEntities();
+		buckets.clear();
+		index.clear();
+		initEntities(true);
 		
 		// blank out any keyboard settings we might currently have
 		leftPressed = false;
 		rightPressed = false;
 		firePressed = false;
+		fireRequested = false;
+		
+		// and start the round's tally from scratch
+		score = 0;
+		for (int i=0;i<shotsFired.length;i++) {
+			shotsFired[i] = 0;
+		}
+		roundStart = time;
+		roundStartedAt = System.currentTimeMillis();
 	}
 	
 	/**
 	 * Initialise the starting state of the entities (ship and aliens). Each
 	 * entitiy will be added to the overall list of entities in the game.
+	 * 
+	 * @param take True to take the first wave from the stream, false to
+	 * only show it, as on the start screen
 	 */
-	private void initEntities() {
+	private void initEntities(boolean take) {
 		// create the player ship and place it roughly in the center of the screen
 		ship = new ShipEntity(this,"sprites/ship.gif",370,550, 3);
-		entities.add(ship);
+		addEntity(ship);
+		
+		// put the bunkers back together
+		for (int i=0;i<bunkers.length;i++) {
+			bunkers[i].reset();
+		}
+		
+		// bring in the first wave of aliens. A round only starts
+		// once it's loaded, see startWhenReady()
+		waveNumber = 0;
+		waveCleared = false;
+		if (take) {
+			spawnNextWave();
+		} else if (waves.peek() != null) {
+			placeWave(waves.peek());
+			waveNumber = 1;
+		}
+	}
+	
+	/**
+	 * Start streaming waves from the wave file. The waves are parsed
+	 * in the background so they're ready by the time they're needed.
+	 * 
+	 * @param skip The number of waves to skip over
+	 */
+	private void openWaves(int skip) {
+		if (waves != null) {
+			waves.close();
+		}
+		waves = new WaveStream(waveRef, skip);
+		wavesTaken = skip;
+	}
+	
+	/**
+	 * Start the round that's been asked for once its first wave is
+	 * loaded. Until then the game carries on waiting and this is tried
+	 * again each tick, the game thread never waits for the loader.
+	 */
+	private void startWhenReady() {
+		// the waves are normally loading from the end of the last
+		// round, unless they've been taken from since
+		if (wavesTaken > 0) {
+			openWaves(0);
+		}
+		if (!waves.isReady()) {
+			return;
+		}
 		
-		// create a block of aliens (5 rows, by 12 aliens, spaced evenly)
+		startRequested = false;
+		if (warmup != null) {
+			warmup.cancel();
+			warmup = null;
+		}
+		waitingForKeyPress = false;
+		startGame();
+	}
+	
+	/**
+	 * Wait until the first wave of the next round is loaded, so that
+	 * pressing start begins the round on the very next tick. Headless
+	 * drivers that need every run to play out the same call this
+	 * between rounds. It blocks, so it's never called from a tick.
+	 */
+	public void awaitNextRound() {
+		if (wavesTaken > 0) {
+			openWaves(0);
+		}
+		waves.awaitReady();
+	}
+	
+	/**
+	 * Bring the next wave of aliens into play, if it's loaded
+	 * 
+	 * @return True if a wave was added, false if the next isn't ready or there are no more
+	 */
+	private boolean spawnNextWave() {
+		WaveDefinition wave = waves.take();
+		if (wave == null) {
+			return false;
+		}
+		wavesTaken++;
+		waveNumber++;
+		placeWave(wave);
+		if (logEvents) {
+			EventLog.log(EventLog.INFO, WAVE_SPAWNED, waveNumber, alienCount);
+		}
+		return true;
+	}
+	
+	/**
+	 * Create the aliens of a wave in their formation
+	 * 
+	 * @param wave The wave to create
+	 */
+	private void placeWave(WaveDefinition wave) {
+		// create the block of aliens, spaced evenly. They start with
+		// no time to catch up on
 		alienCount = 0;
-		for (int row=0;row<5;row++) {
-			for (int x=0;x<12;x++) {
+		tierPending[TIER_FORMATION] = 0;
+		frontLine.reset(wave.getRows(),wave.getColumns());
+		divePaths = wave.getDivePaths();
+		diveInterval = wave.getDiveInterval();
+		pathFollower.reset(divePaths,diveInterval);
+		enemyPattern = wave.getFirePattern();
+		for (int row=0;row<wave.getRows();row++) {
+			for (int x=0;x<wave.getColumns();x++) {
                             Entity alien = null;
-                            if(row == 0){
-                                //Adds heavy enemies to the back row
+                            switch (wave.getCell(row,x)) {
+                            case WaveDefinition.HIGH_HEALTH_ALIEN:
                                 alien = new HighHealthAlien(this,"sprites/largeAlien.gif",100+(x*50),(50)+row*30, 2);
-                            }else if (row == 1){
-                                alien = new ProjectileAlien(this, "sprites/projectileAlien.gif", 100+(x*50),(50)+row*30, 1, 6000);
-                            }else{
-                                //The rest are regular enemies
+                                break;
+                            case WaveDefinition.PROJECTILE_ALIEN:
+                                alien = new ProjectileAlien(this, "sprites/projectileAlien.gif", 100+(x*50),(50)+row*30, 1, wave.getFiringInterval());
+                                break;
+                            case WaveDefinition.ALIEN:
                                 alien = new AlienEntity(this,"sprites/alien.gif",100+(x*50),(50)+row*30, 1);
+                                break;
+                            default:
+                                continue;
                             }
-                            entities.add(alien);
+                            ((AlienEntity) alien).setGridPosition(row,x);
+                            frontLine.add((AlienEntity) alien);
+                            addEntity(alien);
                             alienCount++;
 			}
 		}
-                System.out.println(alienCount);
+	}
+	
+	/**
+	 * Set the wave file the aliens are read from. Takes effect from
+	 * the next round.
+	 * 
+	 * @param waveRef The class path reference or file name of the wave file
+	 */
+	public void setWaveFile(String waveRef) {
+		this.waveRef = waveRef;
+		openWaves(0);
+	}
+	
+	/**
+	 * Get the number of the wave being played in this round
+	 * 
+	 * @return The wave number, starting at 1
+	 */
+	public int getWaveNumber() {
+		return waveNumber;
 	}
 	
 	/**
@@ -186,22 +587,440 @@ public class Game extends Canvas {
 		logicRequiredThisLoop = true;
 	}
 	
+	/**
+	 * Add an entity to the game, giving it a unique id. Ids always
+	 * increase so the entity list stays ordered by id.
+	 * 
+	 * @param entity The entity that should be added
+	 */
+	private void addEntity(Entity entity) {
+		entity.setId(nextEntityId++);
+		entities.add(entity);
+		buckets.add(entity);
+		index.add(entity);
+		entitiesAdded++;
+	}
+	
+	/**
+	 * Throw out a burst of particles. Particles are only for show so
+	 * a headless game ignores them.
+	 * 
+	 * @param x The x position of the burst
+	 * @param y The y position of the burst
+	 * @param amount The number of particles in the burst
+	 * @param speed The fastest a particle leaves the burst (pixels/sec)
+	 * @param rgb The colour of the particles
+	 * @param time The longest a particle lives (ms)
+	 */
+	public void emitParticles(double x, double y, int amount, float speed, int rgb, int time) {
+		if (particles != null) {
+			particles.emit((float) x, (float) y, amount, speed, rgb, time);
+		}
+	}
+	
+	/**
+	 * Get the number of pairs of entities tested for collision in the
+	 * last tick
+	 * 
+	 * @return The number of pairs tested
+	 */
+	public int getCollisionPairs() {
+		return collisionPairs;
+	}
+	
+	/**
+	 * Get the number of aliens left in the current wave
+	 * 
+	 * @return The number of aliens alive
+	 */
+	public int getAlienCount() {
+		return alienCount;
+	}
+	
+	/**
+	 * Get the number of entities ever added to the game
+	 * 
+	 * @return The total number of entities added
+	 */
+	public long getEntitiesAdded() {
+		return entitiesAdded;
+	}
+	
+	/**
+	 * Get the number of aliens ever killed in the game
+	 * 
+	 * @return The total number of aliens killed
+	 */
+	public long getAliensKilled() {
+		return aliensKilled;
+	}
+	
+	/**
+	 * Get the number of input events ever applied to the game
+	 * 
+	 * @return The total number of input events
+	 */
+	public long getInputEvents() {
+		return inputEvents;
+	}
+	
+	/**
+	 * Get the index of the aliens at the front of each column
+	 * 
+	 * @return The front line of the formation
+	 */
+	public FrontLine getFrontLine() {
+		return frontLine;
+	}
+	
+	/**
+	 * Get the subsystem that flies the diving aliens
+	 * 
+	 * @return The path follower
+	 */
+	public PathFollower getPathFollower() {
+		return pathFollower;
+	}
+	
+	/**
+	 * Get the pattern the projectile aliens of the current wave fire
+	 * 
+	 * @return The compiled fire pattern
+	 */
+	public BulletPattern getEnemyPattern() {
+		return enemyPattern;
+	}
+	
+	/**
+	 * Check if this game's events go to the event log
+	 * 
+	 * @return True if events are logged
+	 */
+	public boolean isLoggingEvents() {
+		return logEvents;
+	}
+	
+	/**
+	 * Get the lists of live entities by the part they play
+	 * 
+	 * @return The index of the live entities
+	 */
+	public EntityIndex getIndex() {
+		return index;
+	}
+	
+	/**
+	 * Get the number of particles currently alive
+	 * 
+	 * @return The number of particles, always 0 for a headless game
+	 */
+	public int getParticleCount() {
+		return particles == null ? 0 : particles.getCount();
+	}
+	
+	/**
+	 * Get the entities currently in the game. The list must not be
+	 * modified by the caller.
+	 * 
+	 * @return The list of entities in the game
+	 */
+	public ArrayList getEntities() {
+		return entities;
+	}
+	
+	/**
+	 * Get the sprites used by this game
+	 * 
+	 * @return The sprite store for this game
+	 */
+	public SpriteStore getSpriteStore() {
+		return spriteStore;
+	}
+	
+	/**
+	 * Get the time that has passed in the game. This only advances
+	 * as the game ticks, so a headless game can run faster or slower
+	 * than real time and everything stays consistent.
+	 * 
+	 * @return The game time (ms)
+	 */
+	public long getTime() {
+		return time;
+	}
+	
+	/**
+	 * Get the source of randomness for this game. Seeding it makes
+	 * the game repeatable.
+	 * 
+	 * @return The random source for this game
+	 */
+	public Random getRandom() {
+		return random;
+	}
+	
+	/**
+	 * Get the entity representing the player
+	 * 
+	 * @return The player's ship
+	 */
+	public Entity getShip() {
+		return ship;
+	}
+	
+	/**
+	 * Check if the last round ended with the player winning
+	 * 
+	 * @return True if the player won the last round
+	 */
+	public boolean hasWon() {
+		return won;
+	}
+	
+	/**
+	 * Set the speed the player's ship moves at
+	 * 
+	 * @param moveSpeed The speed of the ship (pixels/sec)
+	 */
+	public void setMoveSpeed(double moveSpeed) {
+		this.moveSpeed = moveSpeed;
+	}
+	
+	/**
+	 * Set how often the game loop updates the game. Shots are swept
+	 * so a low rate doesn't lose collisions, it just moves things in
+	 * bigger steps.
+	 * 
+	 * @param rate The number of ticks per second
+	 */
+	public void setTickRate(int rate) {
+		tickInterval = Math.max(1, 1000 / rate);
+	}
+	
+	/**
+	 * Set how often the alien formation moves, 1 (the default) being
+	 * every tick. Over 1 the formation is cheaper to update, but the game
+	 * no longer plays the same: the formation only turns at the edge on
+	 * the ticks it moves, so it overshoots, and the speed up from each
+	 * alien killed applies to all the time it catches up on, including
+	 * the time before the kill. Rounds run longer and are won more often
+	 * than at 1, so only raise it where that doesn't matter.
+	 * 
+	 * @param interval The number of ticks between moves of the formation
+	 */
+	public void setFormationInterval(int interval) {
+		tierInterval[TIER_FORMATION] = Math.max(1, interval);
+	}
+	
+	/**
+	 * Set the minimum time between the player's shots
+	 * 
+	 * @param firingInterval The interval between shots (ms)
+	 */
+	public void setFiringInterval(long firingInterval) {
+		this.firingInterval = firingInterval;
+	}
+	
+	/**
+	 * Check if the game is waiting for the "any key" press, i.e.
+	 * play is currently suspended.
+	 * 
+	 * @return True if we're waiting for a key press
+	 */
+	public boolean isWaitingForKeyPress() {
+		return waitingForKeyPress;
+	}
+	
+	/**
+	 * Write the complete state of the game to a buffer. This is only
+	 * valid between ticks, when there are no pending removals.
+	 * 
+	 * @param buffer The buffer to write the state to
+	 */
+	void writeState(ByteBuffer buffer) {
+		buffer.putLong(time);
+		buffer.putLong(random.getState());
+		buffer.putLong(tickCount);
+		for (int i=0;i<TIER_COUNT;i++) {
+			buffer.putLong(tierPending[i]);
+		}
+		buffer.putInt(alienCount);
+		buffer.putInt(nextEntityId);
+		buffer.putInt(waveNumber);
+		buffer.putInt(frontLine.getRows());
+		buffer.putInt(frontLine.getColumns());
+		buffer.putInt(diveInterval);
+		buffer.putInt(divePaths == null ? 0 : divePaths.getDepth());
+		buffer.putLong(pathFollower.getLaunchTime());
+		buffer.putLong(pathFollower.getStepTime());
+		buffer.putInt(enemyPattern.getShape());
+		buffer.putInt(enemyPattern.getCount());
+		buffer.putInt((int) -enemyPattern.getMoveSpeed());
+		buffer.putInt(enemyPattern.getArc());
+		buffer.putLong(score);
+		buffer.putLong(roundStart);
+		for (int i=0;i<shotsFired.length;i++) {
+			buffer.putInt(shotsFired[i]);
+		}
+		buffer.putLong(lastFire);
+		buffer.put((byte) selectedShotType.ordinal());
+		buffer.put((byte) ((logicRequiredThisLoop ? 1 : 0)
+				| (waitingForKeyPress ? 2 : 0)
+				| (leftPressed ? 4 : 0)
+				| (rightPressed ? 8 : 0)
+				| (firePressed ? 16 : 0)
+				| (won ? 32 : 0)));
+		
+		for (int i=0;i<bunkers.length;i++) {
+			bunkers[i].writeState(buffer);
+		}
+		
+		buffer.putInt(entities.size());
+		for (int i=0;i<entities.size();i++) {
+			Entity entity = (Entity) entities.get(i);
+			
+			buffer.put(WorldSnapshot.typeOf(entity));
+			entity.writeState(buffer);
+		}
+	}
+	
+	/**
+	 * Restore the state of the game from a buffer written by writeState().
+	 * Entities that still exist with the same id and type are reused
+	 * rather than created again.
+	 * 
+	 * @param buffer The buffer to read the state from
+	 */
+	void readState(ByteBuffer buffer) {
+		time = buffer.getLong();
+		long randomState = buffer.getLong();
+		tickCount = buffer.getLong();
+		for (int i=0;i<TIER_COUNT;i++) {
+			tierPending[i] = buffer.getLong();
+		}
+		alienCount = buffer.getInt();
+		nextEntityId = buffer.getInt();
+		waveNumber = buffer.getInt();
+		int formationRows = buffer.getInt();
+		int formationColumns = buffer.getInt();
+		diveInterval = buffer.getInt();
+		int diveDepth = buffer.getInt();
+		long launchTime = buffer.getLong();
+		long stepTime = buffer.getLong();
+		int patternShape = buffer.getInt();
+		int patternShots = buffer.getInt();
+		int patternSpeed = buffer.getInt();
+		int patternArc = buffer.getInt();
+		
+		// the paths are baked again only if the restored wave dives
+		// differently to the current one
+		if (diveDepth == 0) {
+			divePaths = null;
+		} else if ((divePaths == null) || (divePaths.getDepth() != diveDepth)) {
+			divePaths = new DivePaths(diveDepth);
+		}
+		pathFollower.reset(divePaths,diveInterval);
+		pathFollower.setTimers(launchTime,stepTime);
+		
+		// likewise the fire pattern is only compiled again if it's changed
+		if ((enemyPattern.getShape() != patternShape) || (enemyPattern.getCount() != patternShots)
+				|| ((int) -enemyPattern.getMoveSpeed() != patternSpeed) || (enemyPattern.getArc() != patternArc)) {
+			enemyPattern = PatternCompiler.compile(patternShape, patternShots, patternSpeed, patternArc);
+		}
+		score = buffer.getLong();
+		roundStart = buffer.getLong();
+		for (int i=0;i<shotsFired.length;i++) {
+			shotsFired[i] = buffer.getInt();
+		}
+		lastFire = buffer.getLong();
+		selectedShotType = ShotType.values()[buffer.get()];
+		byte flags = buffer.get();
+		logicRequiredThisLoop = (flags & 1) != 0;
+		waitingForKeyPress = (flags & 2) != 0;
+		leftPressed = (flags & 4) != 0;
+		rightPressed = (flags & 8) != 0;
+		firePressed = (flags & 16) != 0;
+		won = (flags & 32) != 0;
+		
+		for (int i=0;i<bunkers.length;i++) {
+			bunkers[i].readState(buffer);
+		}
+		
+		// line the wave stream back up with the restored round. While
+		// waiting it doesn't matter, the next round starts the waves
+		// again if they've been taken from. A wave that was cleared
+		// but hadn't come in yet comes in once it's loaded
+		if ((!waitingForKeyPress) && (wavesTaken != waveNumber)) {
+			openWaves(waveNumber);
+		}
+		waveCleared = (!waitingForKeyPress) && (alienCount == 0);
+		startRequested = false;
+		
+		// both the current list and the snapshot are in id order, so
+		// walk them together looking for entities we can reuse
+		int count = buffer.getInt();
+		int current = 0;
+		
+		restoreList.clear();
+		for (int i=0;i<count;i++) {
+			byte type = buffer.get();
+			int id = buffer.getInt(buffer.position());
+			
+			while ((current < entities.size()) && (((Entity) entities.get(current)).getId() < id)) {
+				current++;
+			}
+			
+			Entity entity = null;
+			if (current < entities.size()) {
+				Entity existing = (Entity) entities.get(current);
+				if ((existing.getId() == id) && (WorldSnapshot.typeOf(existing) == type)) {
+					entity = existing;
+				}
+			}
+			if (entity == null) {
+				entity = WorldSnapshot.createEntity(this, type, buffer.getShort(buffer.position() + 4));
+			}
+			
+			entity.readState(buffer);
+			restoreList.add(entity);
+			if (entity instanceof ShipEntity) {
+				ship = entity;
+			}
+		}
+		
+		ArrayList temp = entities;
+		entities = restoreList;
+		restoreList = temp;
+		frontLine.reset(formationRows,formationColumns);
+		buckets.rebuild(entities);
+		index.rebuild(entities);
+		frontLine.rebuild(index.getAliens());
+		pathFollower.rebuild(index.getAliens());
+		restoreList.clear();
+		removeList.clear();
+		shots.clear();
+		
+		// the random state goes back last, creating the entities
+		// above may have drawn on it
+		random.setState(randomState);
+	}
+	
 	/**
 	 * Remove an entity from the game. The entity removed will
-	 * no longer move or be drawn.
+	 * no longer move or be drawn. It leaves the index straight away
+	 * but the entity list only at the end of the collision phase.
 	 * 
 	 * @param entity The entity that should be removed
 	 */
 	public void removeEntity(Entity entity) {
 		removeList.add(entity);
+		index.remove(entity);
 	}
 	
 	/**
 	 * Notification that the player has died. 
 	 */
 	public void notifyDeath() {
-		message = "Oh no! They got you, try again?";
-		waitingForKeyPress = true;
+		endRound(false, "Oh no! They got you, try again?");
 	}
 	
 	/**
@@ -209,50 +1028,100 @@ public class Game extends Canvas {
 	 * are dead.
 	 */
 	public void notifyWin() {
-		message = "Well done! You Win!";
+		endRound(true, "Well done! You Win!");
+	}
+	
+	/**
+	 * End the current round, recording it in the run history if
+	 * there is one. Only the first ending of a round counts.
+	 * 
+	 * @param won True if the player won the round
+	 * @param message The message to show while waiting for the next round
+	 */
+	private void endRound(boolean won, String message) {
+		if (waitingForKeyPress) {
+			return;
+		}
+		
+		this.won = won;
+		this.message = message;
 		waitingForKeyPress = true;
+		
+		if (recorder != null) {
+			recorder.record(new RunRecord(cabinet, roundStartedAt, time - roundStart, score, waveNumber, won, shotsFired.clone()));
+		}
+		
+		// have the waves for the next round loading while we wait
+		openWaves(0);
+	}
+	
+	/**
+	 * Set the recorder finished rounds are handed to
+	 * 
+	 * @param recorder The recorder to use, or null to stop recording
+	 */
+	public void setRunRecorder(RunRecorder recorder) {
+		this.recorder = recorder;
+	}
+	
+	/**
+	 * Get the player's score this round
+	 * 
+	 * @return The score
+	 */
+	public long getScore() {
+		return score;
 	}
 	
 	/**
 	 * Notification that an alien has been killed
 	 */
 	public void notifyAlienKilled() {
-		// reduce the alient count, if there are none left, the player has won!
+		// reduce the alient count, if there are none left the wave
+		// is over and the next one comes in at the end of the tick
 		alienCount--;
+		aliensKilled++;
+		score += POINTS_PER_ALIEN;
 		
 		if (alienCount == 0) {
-			notifyWin();
+			waveCleared = true;
 		}
 		
 		// if there are still some aliens left then they all need to get faster, so
 		// speed up all the existing aliens
-		for (int i=0;i<entities.size();i++) {
-			Entity entity = (Entity) entities.get(i);
+		ArrayList aliens = index.getAliens();
+		for (int i=0;i<aliens.size();i++) {
+			Entity alien = (Entity) aliens.get(i);
 			
-			if (entity instanceof AlienEntity) {
-				// speed up by 2%
-				entity.setHorizontalMovement(entity.getHorizontalMovement() * 1.02);
-			}
+			// speed up by 2%
+			alien.setHorizontalMovement(alien.getHorizontalMovement() * 1.02);
 		}
 	}
 	
         //Returns a list of enemies within a specified radius of the given point
+        /**
+         * Find the aliens within a radius of a point. The list returned is
+         * reused by the next search so it must be used straight away.
+         *
+         * @param x The x position of the centre
+         * @param y The y position of the centre
+         * @param r The radius to search
+         * @return The aliens in range
+         */
         public ArrayList findEnemyInRange(int x, int y, int r){
-            ArrayList enemiesInRange = new ArrayList();
+            enemiesInRange.clear();
             double dist;
             int enemyX, enemyY;
-            for(int i = 0; i < entities.size(); i++){
-                Entity entity = (Entity)entities.get(i);
-                if(entity instanceof AlienEntity){
-                    AlienEntity alien = (AlienEntity)entity;
-                    enemyX = alien.getX();
-                    enemyY = alien.getY();
-                    
-                    dist = ( (enemyX - x) * (enemyX - x)) + ((enemyY - y) * (enemyY - y));
-                    
-                    if(dist <= (r * r)){
-                        enemiesInRange.add(alien);
-                    }
+            ArrayList aliens = index.getAliens();
+            for(int i = 0; i < aliens.size(); i++){
+                AlienEntity alien = (AlienEntity)aliens.get(i);
+                enemyX = alien.getX();
+                enemyY = alien.getY();
+                
+                dist = ( (enemyX - x) * (enemyX - x)) + ((enemyY - y) * (enemyY - y));
+                
+                if(dist <= (r * r)){
+                    enemiesInRange.add(alien);
                 }
             }
             
@@ -265,105 +1134,114 @@ public class Game extends Canvas {
 	 */
 	public void tryToFire() {
 		// check that we have waiting long enough to fire
-		if (System.currentTimeMillis() - lastFire < firingInterval) {
+		if (time - lastFire < firingInterval) {
 			return;
 		}
 		                
                 //Leave this outside the swith statement for cleanliness
-                lastFire = System.currentTimeMillis();
-                int numShots = 1;
-                
-                switch(selectedShotType){
-                    case SINGLE:
-                        numShots = 1;
-                        break;
-                    case DOUBLE:
-                        numShots = 2;
-                        break;
-                    case TRIPLE:
-                        numShots = 3;
-                        break;
-                    case BOMB:
-                        numShots = 1;
-                        break;
-                }
-                
-                //Fire using defined properties
-                if(numShots % 2 == 0){
-                    fireStraight(ship.getX(), ship.getY(), numShots, selectedShotType, 1, ship);
-                } else {
-                    fireSpread(ship.getX(), ship.getY(), numShots, selectedShotType, 1, ship);
-                }
+                lastFire = time;
+                shotsFired[selectedShotType.ordinal()]++;
+                firePattern(SHOT_PATTERNS[selectedShotType.ordinal()], ship.getX(), ship.getY(), true);
+	}
+	
+	/**
+	 * Compile the patterns of the player's shot types. A single shot
+	 * and a bomb fly straight up, a double is two shots side by side
+	 * and a triple spreads out to either side.
+	 * 
+	 * @return The patterns, by shot type ordinal
+	 */
+	private static BulletPattern[] compileShotPatterns() {
+		BulletPattern[] patterns = new BulletPattern[ShotType.values().length];
+		
+		PatternCompiler single = new PatternCompiler("sprites/shot.gif", -600.0 / 6, 1);
+		single.add(10, 0, 90);
+		patterns[ShotType.SINGLE.ordinal()] = single.compile();
+		
+		PatternCompiler pair = new PatternCompiler("sprites/shot.gif", -600.0 / 6, 1);
+		pair.add(0, 0, 90);
+		pair.add(20, 0, 90);
+		patterns[ShotType.DOUBLE.ordinal()] = pair.compile();
+		
+		PatternCompiler triple = new PatternCompiler("sprites/roundShot.gif", -600.0 / 3, 1);
+		triple.add(10, 0, 90);
+		triple.add(10, 0, 78);
+		triple.add(10, 0, 102);
+		patterns[ShotType.TRIPLE.ordinal()] = triple.compile();
+		
+		PatternCompiler bomb = new PatternCompiler("sprites/roundShot.gif", -600.0 / 2, 1);
+		bomb.setBomb(10f);
+		bomb.add(10, 0, 90);
+		patterns[ShotType.BOMB.ordinal()] = bomb.compile();
+		
+		return patterns;
+	}
+	
+	/**
+	 * Fire a compiled pattern of shots. Everything about each shot was
+	 * worked out when the pattern was compiled, so this just copies the
+	 * rows out into new shots, apart from turning an aimed pattern
+	 * towards the player first.
+	 * 
+	 * @param pattern The pattern to fire
+	 * @param x The x position of the shooter
+	 * @param y The y position of the shooter
+	 * @param playerProj True if the player is firing
+	 */
+	public void firePattern(BulletPattern pattern, int x, int y, boolean playerProj) {
+		int[] offsetX = pattern.getOffsetsX();
+		int[] offsetY = pattern.getOffsetsY();
+		float[] angles = pattern.getAngles();
+		double[] velocityX = pattern.getVelocitiesX();
+		double[] velocityY = pattern.getVelocitiesY();
+		int[] spriteIds = pattern.getSpriteIds();
+		double speed = pattern.getMoveSpeed();
+		int damage = pattern.getDamage();
+		
+		// an aimed pattern points straight down, so it's turned by the
+		// angle between straight down and the player, as a rotation
+		// that's applied to every shot's velocity
+		boolean turn = false;
+		double cos = 1;
+		double sin = 0;
+		float turnAngle = 0;
+		if (pattern.isAimed() && (ship != null)) {
+			double toX = ship.getX() - x;
+			double toY = ship.getY() - y;
+			double length = Math.sqrt((toX * toX) + (toY * toY));
+			if (length > 0) {
+				turn = true;
+				cos = toY / length;
+				sin = -toX / length;
+				turnAngle = (float) Math.toDegrees(Math.atan2(sin, cos));
+			}
+		}
+		
+		int firstShot = shots.size();
+		for (int i=0;i<offsetX.length;i++) {
+			Sprite sprite = spriteStore.getSprite(spriteIds[i]);
+			float angle = angles[i];
+			double dx = velocityX[i];
+			double dy = velocityY[i];
+			if (turn) {
+				angle += turnAngle;
+				dx = (velocityX[i] * cos) - (velocityY[i] * sin);
+				dy = (velocityX[i] * sin) + (velocityY[i] * cos);
+			}
+			
+			if (pattern.isBomb()) {
+				shots.add(new BombShot(this, sprite, x + offsetX[i], y + offsetY[i], speed, angle, dx, dy, pattern.getRotation(), damage, playerProj));
+			} else {
+				shots.add(new StraightShot(this, sprite, x + offsetX[i], y + offsetY[i], speed, angle, dx, dy, damage, playerProj));
+			}
+		}
+		
+		//Sends the shots fired by this call to the entities list for updates
+		for (int i=firstShot;i<shots.size();i++) {
+			addEntity((Entity) shots.get(i));
+		}
 	}
 	
-        public void fireStraight(int x, int y, int _numShots, ShotType _shotType, int _direction, Entity _owner){
-            String shotTexture = "shot";
-            boolean playerProj = _owner instanceof ShipEntity;
-
-            for(int i = 0; i < _numShots; i++){
-                //Adds a positive angle for even numbers and a negative angle for odd numbers
-                switch(_shotType){
-                    case DOUBLE:
-                    case SINGLE:
-                        shotTexture = playerProj ? "shot" : "alienShot";
-                        shots.add(new StraightShot(this,"sprites/" + shotTexture + ".gif", x + (i * 20), y, 6, 
-                                90 * _direction, 1, playerProj));
-                        break;
-                    case TRIPLE:
-                        shotTexture = "roundShot";
-                        shots.add(new StraightShot(this,"sprites/" + shotTexture + ".gif", x + 10, y, 3,
-                                90 * _direction, 1, playerProj));
-                        break;
-                    case BOMB:
-                        shotTexture = "roundShot";
-                        shots.add(new BombShot(this,"sprites/" + shotTexture + ".gif", x + 10, y, 2, 
-                                90* _direction, 10f, 1, playerProj));
-                        break;
-                }
-            }
-                
-            //Sends all shots fired this frame to the entities list for updates
-            for(int i = 0; i < shots.size(); i++){  
-                entities.add(shots.get(i));
-            }
-        }
-        
-        /*Fires one or more shots at angles based on the number of shots requested
-          Direction signifies whether the bullet is being fired up by the player or down 
-            by an alien [-1, 1]
-        */
-        public void fireSpread(int x, int y, int _numShots, ShotType _shotType, int _direction, Entity _owner){
-            float fireAngle = 2 * _numShots;
-            String shotTexture = "shot";
-            boolean playerProj = _owner instanceof ShipEntity;
-
-            for(int i = 0; i < _numShots; i++){
-                //Adds a positive angle for even numbers and a negative angle for odd numbers
-                switch(_shotType){
-                    case SINGLE:
-                        shotTexture = playerProj ? "shot" : "alienShot";
-                        shots.add(new StraightShot(this,"sprites/" + shotTexture + ".gif", x + 10, y, 6, 
-                                (90 * _direction) + ((( i % 2 == 0) ? i : -i-1 ) * fireAngle ), 1, playerProj));
-                        break;
-                    case TRIPLE:
-                        shotTexture = "roundShot";
-                        shots.add(new StraightShot(this,"sprites/" + shotTexture + ".gif", x + 10, y, 3,
-                                (90 * _direction) + ((( i % 2 == 0) ? i : -i-1 ) * fireAngle ), 1, playerProj));
-                        break;
-                    case BOMB:
-                        shotTexture = "roundShot";
-                        shots.add(new BombShot(this,"sprites/" + shotTexture + ".gif", x + 10, y, 2, 
-                                (90* _direction) + ((( i % 2 == 0) ? i : -i-1 ) * fireAngle * _direction), 10f, 1, playerProj));
-                        break;
-                }
-            }
-                
-            //Sends all shots fired this frame to the entities list for updates
-            for(int i = 0; i < shots.size(); i++){  
-                entities.add(shots.get(i));
-            }
-            
-        }
         /**
          * Changes the type of shot the Ship fires based on
          * key presses */
@@ -371,6 +1249,35 @@ public class Game extends Canvas {
             selectedShotType = _shotType;
         }
         
+        /**
+         * Get the queue that input sources should push their events
+         * into. Events are applied once per tick by the game loop.
+         * 
+         * @return The input queue for this game
+         */
+        public InputQueue getInputQueue(){
+            return inputQueue;
+        }
+        
+        /**
+         * Get the time between the most recently applied input event
+         * being queued and the game loop acting on it.
+         * 
+         * @return The latency of the last input event (ns)
+         */
+        public long getLastInputLatency(){
+            return lastInputLatency;
+        }
+        
+        /**
+         * Drain the input queue and apply every event in the order
+         * it arrived. This is the only point in the tick at which
+         * the key state changes.
+         */
+        private void processInput(){
+            inputEvents += inputQueue.drain(inputApplier);
+        }
+        
 	/**
 	 * The main game loop. This loop is running during all game
 	 * play as is responsible for the following activities:	
@@ -384,110 +1291,496 @@ public class Game extends Canvas {
 	 */
 	public void gameLoop() {
 		long lastLoopTime = System.currentTimeMillis();
+		long pending = 0;
 		
 		// keep looping round til the game ends
 		while (gameRunning) {
-			// work out how long its been since the last update, this
-			// will be used to calculate how far the entities should
-			// move this loop
-			long delta = System.currentTimeMillis() - lastLoopTime;
-			lastLoopTime = System.currentTimeMillis();
+			// when the game is idle there's nothing to tick, so show
+			// a still frame and sleep until there's some input or the
+			// window needs painting. Play resumes with a fresh clock
+			// rather than trying to catch up on the time spent idle,
+			// with a tick straight away to apply the input
+			if (isIdle()) {
+				renderIdle();
+				if (!inputQueue.await()) {
+					continue;
+				}
+				lastLoopTime = System.currentTimeMillis() - tickInterval;
+				pending = 0;
+			}
+			
+			// work out how long its been since the last update, and
+			// play that time out in fixed length ticks. If we've fallen
+			// a long way behind, drop the time rather than trying to
+			// catch it all up
+			long now = System.currentTimeMillis();
+			pending = Math.min(pending + (now - lastLoopTime), tickInterval * MAX_CATCH_UP);
+			lastLoopTime = now;
+			
+			while (pending >= tickInterval) {
+				tick(tickInterval);
+				pending -= tickInterval;
+			}
+			render();
 			
-			// Get hold of a graphics context for the accelerated 
-			// surface and blank it out
-			Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
-			g.setColor(new Color(209, 238, 84));
-			g.fillRect(0,0,800,800);
+			// finally pause until the next tick is due. Note: on windows
+			// this might vary each loop due to a bad implementation of timer
+			try { Thread.sleep(Math.max(1, tickInterval - pending)); } catch (Exception e) {}
+		}
+	}
+	
+	/**
+	 * Run a single update of the game logic. This moves the entities,
+	 * resolves collisions and game events and applies the player's
+	 * input. No drawing is done here so a headless game can be driven
+	 * by calling this directly.
+	 * 
+	 * @param delta The time that has passed since the last tick (ms)
+	 */
+	public void tick(long delta) {
+		time += delta;
+		markProbes();
+		
+		// cycle round asking each entity to move itself, a class at
+		// a time. Entities in the slower tiers only move every few
+		// ticks, catching up on all the time since they last moved
+		if (!waitingForKeyPress) {
+			for (int t=0;t<TIER_COUNT;t++) {
+				tierPending[t] += delta;
+				tierDue[t] = (tickCount % tierInterval[t]) == 0;
+			}
+			tickCount++;
 			
-			// cycle round asking each entity to move itself
-			if (!waitingForKeyPress) {
-				for (int i=0;i<entities.size();i++) {
-					Entity entity = (Entity) entities.get(i);
-					
-					entity.move(delta);
+			buckets.move(tierDue,tierPending);
+			
+			// then the divers swoop along their paths on top of
+			// moving with the formation
+			pathFollower.update(delta,frontLine,random);
+			
+			for (int t=0;t<TIER_COUNT;t++) {
+				if (tierDue[t]) {
+					tierPending[t] = 0;
 				}
 			}
+		} else {
+			for (int t=0;t<TIER_COUNT;t++) {
+				tierDue[t] = false;
+			}
+		}
+		endPhase(TickProbe.MOVE);
+		
+		// give the projectile enemies a chance to fire, only the
+		// alien at the front of each column may fire
+		for (int i=0;i<frontLine.getColumns();i++) {
+			AlienEntity front = frontLine.getFront(i);
 			
-			// cycle round drawing all the entities we have in the game
-                        // Folding update loop for projectile enemies into this loop for effeciency
-			for (int i=0; i < entities.size(); i++) {
-				Entity entity = (Entity) entities.get(i);
-				
-				entity.draw(g);
-                                
-                                if(entity instanceof ProjectileAlien){
-                                    ProjectileAlien projAlien = (ProjectileAlien)entity;
-                                    projAlien.tryFire();
-                                }
+			if(front instanceof ProjectileAlien){
+			    ProjectileAlien projAlien = (ProjectileAlien)front;
+			    projAlien.tryFire();
 			}
+		}
+		endPhase(TickProbe.ENEMY_FIRE);
+		
+		// brute force collisions, compare every entity against
+		// every other entity. Shots are swept along their whole move
+		// so they can't skip over anything on a long tick, and
+		// collisions are resolved in the order they happened. Only
+		// the pairs actually tested are counted
+		int pairs = 0;
+		for (int p=0;p<entities.size();p++) {
+			Entity me = (Entity) entities.get(p);
+			int tier = me.getUpdateTier();
 			
-			// brute force collisions, compare every entity against
-			// every other entity. If any of them collide notify 
-			// both entities that the collision has occured
-			for (int p=0;p<entities.size();p++) {
-				for (int s=p+1;s<entities.size();s++) {
-					Entity me = (Entity) entities.get(p);
-					Entity him = (Entity) entities.get(s);
-					
-					if (me.collidesWith(him)) {
-						me.collidedWith(him);
-						him.collidedWith(me);
+			// two entities in a slow tier that hasn't moved can't
+			// have changed how they overlap, so leave them until
+			// their tier next moves
+			boolean resting = (tier != TIER_EVERY_TICK) && (!tierDue[tier]);
+			
+			for (int s=p+1;s<entities.size();s++) {
+				Entity him = (Entity) entities.get(s);
+				
+				if (resting && (tier == him.getUpdateTier())) {
+					continue;
+				}
+				pairs++;
+				
+				if (me.isSwept() || him.isSwept()) {
+					double at = me.sweep(him);
+					if (at >= 0) {
+						contacts.add(me,him,at);
 					}
+				} else if (me.collidesWith(him)) {
+					contacts.add(me,him,1);
 				}
 			}
+		}
+		collisionPairs = pairs;
+		
+		// notify both entities that the collision has occured
+		for (int i=0;i<contacts.size();i++) {
+			Entity me = contacts.getFirst(i);
+			Entity him = contacts.getSecond(i);
 			
-			// remove any entity that has been marked for clear up
-			entities.removeAll(removeList);
-			removeList.clear();
+			me.collidedWith(him);
+			him.collidedWith(me);
+		}
+		contacts.clear();
+		
+		// shots that are still flying may have run into a bunker,
+		// bunkers aren't entities so they're checked separately
+		hitBunkers(index.getPlayerShots());
+		hitBunkers(index.getEnemyShots());
+		endPhase(TickProbe.COLLIDE);
+		
+		// remove any entity that has been marked for clear up
+		entities.removeAll(removeList);
+		buckets.removeAll(removeList);
+		removeList.clear();
 
-			// if a game event has indicated that game logic should
-			// be resolved, cycle round every entity requesting that
-			// their personal logic should be considered.
-			if (logicRequiredThisLoop) {
-				for (int i=0;i<entities.size();i++) {
-					Entity entity = (Entity) entities.get(i);
-					entity.doLogic();
-				}
-				
-				logicRequiredThisLoop = false;
+		// if a game event has indicated that game logic should
+		// be resolved, cycle round every entity requesting that
+		// their personal logic should be considered.
+		if (logicRequiredThisLoop) {
+			buckets.doLogic();
+			logicRequiredThisLoop = false;
+		}
+		
+		// once a wave has been cleared bring in the next one, if
+		// there are none left the player has won! If it's still
+		// loading try again next tick rather than waiting for it
+		if (waveCleared) {
+			if ((waitingForKeyPress) || (spawnNextWave())) {
+				waveCleared = false;
+			} else if (waves.isFinished()) {
+				waveCleared = false;
+				notifyWin();
 			}
+		}
+		endPhase(TickProbe.LOGIC);
+		
+		// apply any input that has arrived since the last tick
+		processInput();
+		if (startRequested) {
+			startWhenReady();
+		}
+		
+		// resolve the movement of the ship. First assume the ship 
+		// isn't moving. If either cursor key is pressed then
+		// update the movement appropraitely
+		ship.setHorizontalMovement(0);
+		
+		if ((leftPressed) && (!rightPressed)) {
+			ship.setHorizontalMovement(-moveSpeed);
+		} else if ((rightPressed) && (!leftPressed)) {
+			ship.setHorizontalMovement(moveSpeed);
+		}
+		
+		// if we're pressing fire, attempt to fire. A tap that was
+		// pressed and released within this tick still counts
+		if (firePressed || fireRequested) {
+			tryToFire();
+		}
+		fireRequested = false;
+		
+                shots.clear();
+		endPhase(TickProbe.INPUT);
+		
+		// the particles live outside the entities, moved in one batch
+		if (particles != null) {
+			particles.update(delta);
+		}
+		endPhase(TickProbe.EFFECTS);
+		
+		for (int i=0;i<probes.length;i++) {
+			probes[i].tickEnded();
+		}
+	}
+	
+	/**
+	 * Check a list of shots against the bunkers. A shot that hits
+	 * leaves the list, so it's worked through from the end.
+	 * 
+	 * @param shots The shots to check
+	 */
+	private void hitBunkers(ArrayList shots) {
+		for (int i=shots.size()-1;i>=0;i--) {
+			ShotEntity shot = (ShotEntity) shots.get(i);
 			
-			// if we're waiting for an "any key" press then draw the 
-			// current message 
-			if (waitingForKeyPress) {
-				g.setColor(Color.black);
-				g.drawString(message,(800-g.getFontMetrics().stringWidth(message))/2,250);
-				g.drawString("Press any key",(800-g.getFontMetrics().stringWidth("Press any key"))/2,300);
+			for (int b=0;(b<bunkers.length) && (!shot.isUsed());b++) {
+				if (bunkers[b].hit(shot)) {
+					shot.hitTerrain();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Attach a probe to be told as each phase of a tick ends
+	 * 
+	 * @param probe The probe to attach
+	 */
+	public void addProbe(TickProbe probe) {
+		TickProbe[] added = new TickProbe[probes.length + 1];
+		System.arraycopy(probes, 0, added, 0, probes.length);
+		added[probes.length] = probe;
+		probes = added;
+	}
+	
+	/**
+	 * Tell the probes a stretch of work is starting
+	 */
+	private void markProbes() {
+		for (int i=0;i<probes.length;i++) {
+			probes[i].mark();
+		}
+	}
+	
+	/**
+	 * Tell the probes a phase of the tick has ended
+	 * 
+	 * @param phase The phase that ended
+	 */
+	private void endPhase(int phase) {
+		for (int i=0;i<probes.length;i++) {
+			probes[i].phaseEnded(phase);
+		}
+	}
+	
+	/**
+	 * Check if the game is idle. It's idle while waiting for a key
+	 * press once the last of the particles have gone, since nothing
+	 * on the screen can change until some input arrives.
+	 * 
+	 * @return True if the game is idle
+	 */
+	public boolean isIdle() {
+		return waitingForKeyPress && (!startRequested) && (getParticleCount() == 0);
+	}
+	
+	/**
+	 * Ask for the screen to be drawn again while the game is idle,
+	 * for instance because the window has been uncovered. May be called
+	 * from any thread.
+	 */
+	public void requestRepaint() {
+		inputQueue.wake();
+	}
+	
+	/**
+	 * Show the still frame used while the game is idle, drawing it
+	 * first if the game has changed since it was last drawn. Does
+	 * nothing for a headless game.
+	 */
+	private void renderIdle() {
+		if (strategy == null) {
+			return;
+		}
+		
+		if (idleFrameStale) {
+			idleFrameStale = false;
+			if (idleFrame == null) {
+				idleFrame = getGraphicsConfiguration().createCompatibleImage(800,800);
 			}
 			
-			// finally, we've completed drawing so clear up the graphics
-			// and flip the buffer over
+			Graphics2D g = idleFrame.createGraphics();
+			drawScene(g);
 			g.dispose();
+		}
+		
+		// copy it to the screen, again if the surface is lost on the way
+		do {
+			do {
+				Graphics g = strategy.getDrawGraphics();
+				g.drawImage(idleFrame,0,0,null);
+				g.dispose();
+			} while (strategy.contentsRestored());
 			strategy.show();
-			
-			// resolve the movement of the ship. First assume the ship 
-			// isn't moving. If either cursor key is pressed then
-			// update the movement appropraitely
-			ship.setHorizontalMovement(0);
-			
-			if ((leftPressed) && (!rightPressed)) {
-				ship.setHorizontalMovement(-moveSpeed);
-			} else if ((rightPressed) && (!leftPressed)) {
-				ship.setHorizontalMovement(moveSpeed);
+		} while (strategy.contentsLost());
+		frameShown();
+	}
+	
+	/**
+	 * Notification that a frame has been shown, reports the start up
+	 * time the first time round
+	 */
+	private void frameShown() {
+		if (!firstFrameShown) {
+			firstFrameShown = true;
+			reportFirstFrame();
+		}
+	}
+	
+	/**
+	 * Draw the current state of the game and flip the buffer over.
+	 * Does nothing for a headless game.
+	 */
+	public void render() {
+		if (strategy == null) {
+			return;
+		}
+		markProbes();
+		
+		// Get hold of a graphics context for the accelerated 
+		// surface and draw the game onto it
+		Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+		drawScene(g);
+		
+		// finally, we've completed drawing so clear up the graphics
+		// and flip the buffer over
+		g.dispose();
+		strategy.show();
+		endPhase(TickProbe.RENDER);
+		
+		// the game has moved on so the still frame is out of date
+		idleFrameStale = true;
+		frameShown();
+	}
+	
+	/**
+	 * Draw the game: the bunkers, entities, particles and messages
+	 * 
+	 * @param g The graphics context to draw onto
+	 */
+	private void drawScene(Graphics2D g) {
+		// blank out the screen
+		g.setColor(BACKGROUND);
+		g.fillRect(0,0,800,800);
+		
+		// draw the bunkers underneath everything else
+		for (int i=0;i<bunkers.length;i++) {
+			bunkers[i].draw(g);
+		}
+		
+		// cycle round drawing all the entities we have in the game
+		buckets.draw(g);
+		
+		// then all the particles over the top in one go
+		particles.draw(g);
+		
+		// if we're waiting for an "any key" press then draw the 
+		// current message 
+		if (waitingForKeyPress) {
+			messageText.setText(message);
+			messageText.drawCentred(g,400,250);
+			pressAnyKeyText.setText("Press any key");
+			pressAnyKeyText.drawCentred(g,400,300);
+		}
+		
+		// and the performance figures over the top if they're on
+		overlay.draw(g);
+	}
+	
+	/**
+	 * Report how long it took from main() being entered to the first
+	 * frame being shown. If the "spaceinvaders.startupLog" property names
+	 * a file the time is appended to it, labelled with the
+	 * "spaceinvaders.startupLabel" property, so start up can be tracked
+	 * over builds and launch modes. If "spaceinvaders.exitAfterFirstFrame" is set the game exits
+	 * straight away, which is used by the build to record which classes
+	 * start up needs.
+	 * <p>
+	 * The file is written and the game exited on a thread of their own,
+	 * the game thread only logs the event.
+	 */
+	private void reportFirstFrame() {
+		long now = System.nanoTime();
+		final long fromMain = (now - launchTime) / 1000000;
+		final long fromJvm = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+		
+		EventLog.log(EventLog.INFO, FIRST_FRAME, fromMain, fromJvm);
+		
+		final String log = System.getProperty("spaceinvaders.startupLog");
+		final boolean exit = Boolean.getBoolean("spaceinvaders.exitAfterFirstFrame");
+		if ((log == null) && (!exit)) {
+			return;
+		}
+		
+		Thread reporter = new Thread(new Runnable() {
+			public void run() {
+				if (log != null) {
+					try {
+						FileWriter out = new FileWriter(log, true);
+						try {
+							String label = System.getProperty("spaceinvaders.startupLabel", "default");
+							out.write(label+","+System.currentTimeMillis()+","+fromMain+","+fromJvm+"\n");
+						} finally {
+							out.close();
+						}
+					} catch (IOException e) {
+						EventLog.log(EventLog.WARN, STARTUP_LOG_FAILED, 0, 0, e.getMessage());
+					}
+				}
+				
+				// only once the time is safely written
+				if (exit) {
+					System.exit(0);
+				}
 			}
+		}, "startup-log");
+		reporter.setDaemon(!exit);
+		reporter.start();
+	}
+	
+	/**
+	 * Applies input events drained from the input queue to the key
+	 * state of the game. This always runs on the game loop thread.
+	 */
+	private class InputApplier implements InputQueue.Handler {
+		/**
+		 * Apply a single input event
+		 * 
+		 * @param action The action that changed
+		 * @param pressed True if the action started, false if it ended
+		 * @param time The time the event was queued (ns)
+		 */
+		public void onInput(int action, boolean pressed, long time) {
+			lastInputLatency = System.nanoTime() - time;
 			
-			// if we're pressing fire, attempt to fire
-			if (firePressed) {
-				tryToFire();
+			// while we're waiting for an "any key" press only the
+			// start action means anything
+			if (waitingForKeyPress) {
+				if ((action == InputQueue.START) && (pressed)) {
+					startRequested = true;
+				}
+				return;
 			}
 			
-                        
-                        shots.clear();
-                        
-			// finally pause for a bit. Note: this should run us at about
-			// 100 fps but on windows this might vary each loop due to
-			// a bad implementation of timer
-			try { Thread.sleep(10); } catch (Exception e) {}
+			switch (action) {
+				case InputQueue.LEFT:
+					leftPressed = pressed;
+					break;
+				case InputQueue.RIGHT:
+					rightPressed = pressed;
+					break;
+				case InputQueue.FIRE_SINGLE:
+					fire(ShotType.SINGLE, pressed);
+					break;
+				case InputQueue.FIRE_DOUBLE:
+					fire(ShotType.DOUBLE, pressed);
+					break;
+				case InputQueue.FIRE_TRIPLE:
+					fire(ShotType.TRIPLE, pressed);
+					break;
+				case InputQueue.FIRE_BOMB:
+					fire(ShotType.BOMB, pressed);
+					break;
+			}
+		}
+		
+		/**
+		 * Apply a change to one of the fire keys
+		 * 
+		 * @param shotType The shot type the key selects
+		 * @param pressed True if the key went down
+		 */
+		private void fire(ShotType shotType, boolean pressed) {
+			if (pressed) {
+				updateShotType(shotType);
+				firePressed = true;
+				fireRequested = true;
+			} else {
+				firePressed = false;
+			}
 		}
 	}
 	
@@ -497,6 +1790,11 @@ public class Game extends Canvas {
 	 * and shoot, and more static type input (i.e. press any key to
 	 * continue)
 	 * 
+	 * Key presses are not applied directly, they are turned into
+	 * timestamped events on the input queue which the game loop
+	 * drains once per tick. That way nothing is lost between ticks
+	 * and the key state is only ever touched by the game thread.
+	 * 
 	 * This has been implemented as an inner class more through 
 	 * habbit then anything else. Its perfectly normal to implement
 	 * this as seperate class if slight less convienient.
@@ -507,6 +1805,32 @@ public class Game extends Canvas {
 		/** The number of key presses we've had while waiting for an "any key" press */
 		private int pressCount = 1;
 		
+		/**
+		 * Convert a key code into an input action
+		 * 
+		 * @param keyCode The key code from AWT
+		 * @return The matching action or -1 if the key isn't used
+		 */
+		private int toAction(int keyCode) {
+			switch (keyCode) {
+				case KeyEvent.VK_LEFT:
+					return InputQueue.LEFT;
+				case KeyEvent.VK_RIGHT:
+					return InputQueue.RIGHT;
+				//Handle switching between fire modes
+				case KeyEvent.VK_SPACE:
+					return InputQueue.FIRE_SINGLE;
+				case KeyEvent.VK_CONTROL:
+					return InputQueue.FIRE_TRIPLE;
+				case KeyEvent.VK_SHIFT:
+					return InputQueue.FIRE_DOUBLE;
+				case KeyEvent.VK_Z:
+					return InputQueue.FIRE_BOMB;
+				default:
+					return -1;
+			}
+		}
+		
 		/**
 		 * Notification from AWT that a key has been pressed. Note that
 		 * a key being pressed is equal to being pushed down but *NOT*
@@ -515,41 +1839,19 @@ public class Game extends Canvas {
 		 * @param e The details of the key that was pressed 
 		 */
 		public void keyPressed(KeyEvent e) {
-			// if we're waiting for an "any key" typed then we don't 
-			// want to do anything with just a "press"
-			if (waitingForKeyPress) {
+			// F3 shows and hides the performance figures
+			if (e.getKeyCode() == KeyEvent.VK_F3) {
+				overlay.toggle();
+				idleFrameStale = true;
+				requestRepaint();
 				return;
 			}
-                        
-			if (e.getKeyCode() == KeyEvent.VK_LEFT) {
-				leftPressed = true;
-			}
-			if (e.getKeyCode() == KeyEvent.VK_RIGHT) {
-				rightPressed = true;
-			}
-                        
-			//Handle switching between fire modes
-                        if(e.getKeyCode() == KeyEvent.VK_SPACE){
-                            updateShotType(ShotType.SINGLE);
-                            firePressed = true;
-                        }
-                        
-                        if(e.getKeyCode() == KeyEvent.VK_CONTROL){
-                            updateShotType(ShotType.TRIPLE);
-                            firePressed = true;
-                        }
-                        
-                        if(e.getKeyCode() == KeyEvent.VK_SHIFT){
-                            updateShotType(ShotType.DOUBLE);
-                            firePressed = true;
-                        }
-                        
-                        if(e.getKeyCode() == KeyEvent.VK_Z){
-                            updateShotType(ShotType.BOMB);
-                            firePressed = true;
-                        }
-                        
-
+			
+			int action = toAction(e.getKeyCode());
+			
+			if (action >= 0) {
+				inputQueue.offer(action, true);
+			}
 		} 
 		
 		/**
@@ -558,20 +1860,10 @@ public class Game extends Canvas {
 		 * @param e The details of the key that was released 
 		 */
 		public void keyReleased(KeyEvent e) {
-			// if we're waiting for an "any key" typed then we don't 
-			// want to do anything with just a "released"
-			if (waitingForKeyPress) {
-				return;
-			}
+			int action = toAction(e.getKeyCode());
 			
-			if (e.getKeyCode() == KeyEvent.VK_LEFT) {
-				leftPressed = false;
-			}
-			if (e.getKeyCode() == KeyEvent.VK_RIGHT) {
-				rightPressed = false;
-			}
-			if (e.getKeyCode() == KeyEvent.VK_SPACE || e.getKeyCode() == KeyEvent.VK_CONTROL || e.getKeyCode() == KeyEvent.VK_SHIFT || e.getKeyCode() == KeyEvent.VK_Z) {
-				firePressed = false;
+			if (action >= 0) {
+				inputQueue.offer(action, false);
 			}
 		}
 
@@ -590,10 +1882,9 @@ public class Game extends Canvas {
 			if (waitingForKeyPress) {
 				if (pressCount == 1) {
 					// since we've now recieved our key typed
-					// event we can mark it as such and start 
+					// event we can ask the game loop to start
 					// our new game
-					waitingForKeyPress = false;
-					startGame();
+					inputQueue.offer(InputQueue.START, true);
 					pressCount = 0;
 				} else {
 					pressCount++;
@@ -615,6 +1906,7 @@ public class Game extends Canvas {
 	 * @param argv The arguments that are passed into our game
 	 */
 	public static void main(String argv[]) {
+		launchTime = System.nanoTime();
 		Game g = new Game();
 
 		// Start the main game loop, note: this method will not
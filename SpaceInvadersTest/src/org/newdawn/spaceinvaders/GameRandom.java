@@ -0,0 +1,76 @@
+package org.newdawn.spaceinvaders;
+
+import java.util.Random;
+
+/**
+ * The random number generator of a game. It gives exactly the same
+ * numbers as java.util.Random for the same seed, it's the same linear
+ * congruential generator, but its state can be read and set so it can
+ * be saved with the rest of the game and a restored game goes on to
+ * make the same random choices.
+ *
+ * @author John
+ */
+public class GameRandom extends Random {
+	/** The version of the serialized form */
+	private static final long serialVersionUID = 1L;
+	/** The multiplier of the generator, as used by java.util.Random */
+	private static final long MULTIPLIER = 0x5DEECE66DL;
+	/** The increment of the generator, as used by java.util.Random */
+	private static final long ADDEND = 0xBL;
+	/** The generator works in 48 bits */
+	private static final long MASK = (1L << 48) - 1;
+
+	/**
+	 * The state of the generator. There's deliberately no initialiser,
+	 * the super constructor sets it through setSeed() before this
+	 * class's initialisers would run.
+	 */
+	private long state;
+
+	/**
+	 * Create a new generator seeded from the clock
+	 */
+	public GameRandom() {
+		super(System.nanoTime());
+	}
+
+	/**
+	 * Seed the generator, scrambling the seed as java.util.Random does
+	 *
+	 * @param seed The seed
+	 */
+	public synchronized void setSeed(long seed) {
+		state = (seed ^ MULTIPLIER) & MASK;
+		super.setSeed(seed);
+	}
+
+	/**
+	 * Generate the next random bits
+	 *
+	 * @param bits The number of bits wanted
+	 * @return The random bits
+	 */
+	protected synchronized int next(int bits) {
+		state = ((state * MULTIPLIER) + ADDEND) & MASK;
+		return (int) (state >>> (48 - bits));
+	}
+
+	/**
+	 * Get the state of the generator, to save with the game
+	 *
+	 * @return The state of the generator
+	 */
+	public synchronized long getState() {
+		return state;
+	}
+
+	/**
+	 * Put the generator back into a saved state
+	 *
+	 * @param state The state to restore
+	 */
+	public synchronized void setState(long state) {
+		this.state = state & MASK;
+	}
+}
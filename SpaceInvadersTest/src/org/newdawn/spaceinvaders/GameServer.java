@@ -0,0 +1,407 @@
+package org.newdawn.spaceinvaders;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * An authoritative game server. The game logic runs headlessly on
+ * the server thread at a fixed tick rate while any number of thin
+ * renderers connect over a local socket, send their input and receive
+ * a delta compressed snapshot of the entities after every tick.
+ * <p>
+ * Everything runs on the one thread using non-blocking NIO channels,
+ * so client input goes straight into the game's input queue and each
+ * snapshot is encoded once and copied to every client.
+ * <p>
+ * Messages in both directions are framed with a 4 byte length. Clients
+ * send fixed size input messages: the action, whether it was pressed
+ * and the client's time stamp, which is echoed back in the next
+ * snapshot so the client can measure end to end latency.
+ *
+ * @author John
+ */
+public class GameServer {
+	/** The size of an input message from a client: action, pressed, time */
+	public static final int INPUT_MESSAGE_SIZE = 10;
+	/** The size of the outgoing buffer kept for each client */
+	private static final int CLIENT_BUFFER_SIZE = 256 * 1024;
+
+	/** The game being served */
+	private Game game;
+	/** The time each tick simulates (ms) */
+	private long tickInterval;
+	/** The channel accepting new clients */
+	private ServerSocketChannel serverChannel;
+	/** The selector used to poll all the channels without blocking */
+	private Selector selector;
+	/** The clients currently connected */
+	private ArrayList clients = new ArrayList();
+	/** The encoder building snapshots of the game */
+	private SnapshotEncoder encoder = new SnapshotEncoder();
+	/** The body of the delta snapshot shared by every client */
+	private ByteBuffer deltaBody = ByteBuffer.allocateDirect(CLIENT_BUFFER_SIZE);
+	/** The body of the full snapshot sent to clients that have just joined */
+	private ByteBuffer fullBody = ByteBuffer.allocateDirect(CLIENT_BUFFER_SIZE);
+	/** True while the server should keep running */
+	private volatile boolean running = true;
+
+	/** The number of ticks run so far */
+	private int tick;
+	/** The total time spent on ticks, including encoding and sending (ns) */
+	private long totalTickTime;
+	/** The longest tick seen (ns) */
+	private long maxTickTime;
+	/** The number of delta snapshots sent */
+	private long deltaSnapshots;
+	/** The total size of the delta snapshots sent (bytes) */
+	private long deltaBytes;
+
+	/**
+	 * Create a new server listening on the loopback interface
+	 *
+	 * @param port The port to listen on, or zero to pick a free one
+	 * @param tickInterval The time each tick simulates (ms)
+	 * @throws IOException Indicates the server socket couldn't be opened
+	 */
+	public GameServer(int port, long tickInterval) throws IOException {
+		this.tickInterval = tickInterval;
+
+		game = new Game(SpriteStore.get(), true);
+
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress("127.0.0.1", port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * Get the port the server is listening on
+	 *
+	 * @return The local port of the server socket
+	 * @throws IOException Indicates the socket has been closed
+	 */
+	public int getPort() throws IOException {
+		return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+	}
+
+	/**
+	 * Run the server at a fixed tick rate until stop() is called
+	 *
+	 * @throws IOException Indicates a failure in the server socket
+	 */
+	public void run() throws IOException {
+		long tickNanos = tickInterval * 1000000L;
+		long nextTick = System.nanoTime();
+
+		while (running) {
+			step();
+
+			// wait for the next tick, keeping to the fixed rate rather
+			// than drifting by however long the tick took
+			nextTick += tickNanos;
+			long wait = nextTick - System.nanoTime();
+			if (wait > 0) {
+				try { Thread.sleep(wait / 1000000L, (int) (wait % 1000000L)); } catch (InterruptedException e) {}
+			} else {
+				nextTick = System.nanoTime();
+			}
+		}
+
+		close();
+	}
+
+	/**
+	 * Ask the server to stop after the current tick
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	/**
+	 * Run one tick: take in input from the clients, update the game and
+	 * send every client the resulting snapshot.
+	 *
+	 * @throws IOException Indicates a failure in the server socket
+	 */
+	public void step() throws IOException {
+		long start = System.nanoTime();
+
+		pollClients();
+		game.tick(tickInterval);
+		tick++;
+
+		encoder.capture(game.getEntities());
+		deltaBody.clear();
+		encoder.encodeDelta(deltaBody);
+		deltaBody.flip();
+
+		// only build the full snapshot if someone needs it
+		boolean fullBuilt = false;
+		int flags = game.isWaitingForKeyPress() ? SnapshotEncoder.FLAG_WAITING : 0;
+
+		for (Iterator i=clients.iterator();i.hasNext();) {
+			Client client = (Client) i.next();
+			ByteBuffer body = deltaBody;
+			int clientFlags = flags;
+
+			if (!client.synced) {
+				if (!fullBuilt) {
+					fullBody.clear();
+					encoder.encodeFull(fullBody);
+					fullBody.flip();
+					fullBuilt = true;
+				}
+				body = fullBody;
+				clientFlags |= SnapshotEncoder.FLAG_KEYFRAME;
+			} else {
+				deltaSnapshots++;
+				deltaBytes += body.remaining();
+			}
+
+			if (!client.send(body, clientFlags)) {
+				client.close();
+				i.remove();
+			} else {
+				client.synced = true;
+			}
+		}
+		encoder.commit();
+
+		long time = System.nanoTime() - start;
+		totalTickTime += time;
+		maxTickTime = Math.max(maxTickTime, time);
+	}
+
+	/**
+	 * Accept any new clients and read any input they have sent
+	 *
+	 * @throws IOException Indicates a failure in the server socket
+	 */
+	private void pollClients() throws IOException {
+		if (selector.selectNow() == 0) {
+			return;
+		}
+
+		for (Iterator i=selector.selectedKeys().iterator();i.hasNext();) {
+			SelectionKey key = (SelectionKey) i.next();
+			i.remove();
+
+			if (!key.isValid()) {
+				continue;
+			}
+			if (key.isAcceptable()) {
+				SocketChannel channel = serverChannel.accept();
+				if (channel != null) {
+					channel.configureBlocking(false);
+					channel.socket().setTcpNoDelay(true);
+					Client client = new Client(channel);
+					channel.register(selector, SelectionKey.OP_READ, client);
+					clients.add(client);
+				}
+			} else if (key.isReadable()) {
+				Client client = (Client) key.attachment();
+				if (!client.read()) {
+					client.close();
+					clients.remove(client);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Close the server socket and every client
+	 */
+	private void close() {
+		for (int i=0;i<clients.size();i++) {
+			((Client) clients.get(i)).close();
+		}
+		clients.clear();
+		try {
+			selector.close();
+			serverChannel.close();
+		} catch (IOException e) {
+			// nothing more we can do, we're shutting down anyway
+		}
+	}
+
+	/**
+	 * Get the number of ticks run so far
+	 *
+	 * @return The number of ticks
+	 */
+	public int getTickCount() {
+		return tick;
+	}
+
+	/**
+	 * Get the average time spent on each tick, including encoding
+	 * and sending the snapshots
+	 *
+	 * @return The average tick time (ns)
+	 */
+	public long getAverageTickTime() {
+		return tick == 0 ? 0 : totalTickTime / tick;
+	}
+
+	/**
+	 * Get the longest time spent on a single tick
+	 *
+	 * @return The longest tick time (ns)
+	 */
+	public long getMaxTickTime() {
+		return maxTickTime;
+	}
+
+	/**
+	 * Get the average size of the delta snapshots sent to clients,
+	 * not counting the framing or the first full snapshot
+	 *
+	 * @return The average number of bytes per snapshot
+	 */
+	public double getAverageSnapshotBytes() {
+		return deltaSnapshots == 0 ? 0 : (double) deltaBytes / deltaSnapshots;
+	}
+
+	/**
+	 * A connected client, with its buffers and the time stamp of the
+	 * last input it sent.
+	 */
+	private class Client {
+		/** The channel to the client */
+		private SocketChannel channel;
+		/** The buffer partially received input messages are held in */
+		private ByteBuffer in = ByteBuffer.allocate(INPUT_MESSAGE_SIZE * 64);
+		/** The buffer messages wait in until the socket will take them */
+		private ByteBuffer out = ByteBuffer.allocateDirect(CLIENT_BUFFER_SIZE);
+		/** The client time stamp of the last input received */
+		private long ack;
+		/** True once the client has been sent a full snapshot */
+		private boolean synced;
+		/** The number of sprite references sent to this client */
+		private int spritesSent;
+
+		/**
+		 * Create a new client
+		 *
+		 * @param channel The channel to the client
+		 */
+		private Client(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Read any complete input messages and queue them in the game
+		 *
+		 * @return False if the client has disconnected
+		 */
+		private boolean read() {
+			try {
+				if (channel.read(in) < 0) {
+					return false;
+				}
+			} catch (IOException e) {
+				return false;
+			}
+
+			in.flip();
+			while (in.remaining() >= INPUT_MESSAGE_SIZE) {
+				int action = in.get();
+				boolean pressed = in.get() != 0;
+				ack = in.getLong();
+
+				if ((action >= 0) && (action < InputQueue.ACTION_COUNT)) {
+					game.getInputQueue().offer(action, pressed);
+				}
+			}
+			in.compact();
+			return true;
+		}
+
+		/**
+		 * Queue a snapshot for the client, preceded by any sprite
+		 * references it hasn't seen yet, and send as much as the
+		 * socket will take.
+		 *
+		 * @param body The snapshot records
+		 * @param flags The snapshot flags
+		 * @return False if the client couldn't keep up or has disconnected
+		 */
+		private boolean send(ByteBuffer body, int flags) {
+			SpriteStore store = game.getSpriteStore();
+			int spriteCount = store.getSpriteCount();
+
+			try {
+				if (spritesSent < spriteCount) {
+					int start = out.position();
+					out.putInt(0);
+					out.put(SnapshotEncoder.MSG_SPRITES);
+					out.putShort((short) spritesSent);
+					out.putShort((short) (spriteCount - spritesSent));
+					for (int i=spritesSent;i<spriteCount;i++) {
+						byte[] ref = store.getSprite(i).getRef().getBytes(StandardCharsets.UTF_8);
+						out.putShort((short) ref.length);
+						out.put(ref);
+					}
+					out.putInt(start, out.position() - start - 4);
+					spritesSent = spriteCount;
+				}
+
+				out.putInt(1 + 4 + 1 + 8 + body.remaining());
+				out.put(SnapshotEncoder.MSG_SNAPSHOT);
+				out.putInt(tick);
+				out.put((byte) flags);
+				out.putLong(ack);
+				out.put(body.duplicate());
+			} catch (BufferOverflowException e) {
+				// the buffer has filled up, the client isn't keeping up
+				return false;
+			}
+
+			out.flip();
+			try {
+				channel.write(out);
+			} catch (IOException e) {
+				return false;
+			}
+			out.compact();
+			return true;
+		}
+
+		/**
+		 * Close the connection to the client
+		 */
+		private void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// the client is going away anyway
+			}
+		}
+	}
+
+	/**
+	 * The entry point for running a dedicated server
+	 *
+	 * @param argv The arguments, optionally the port to listen on
+	 * @throws IOException Indicates the server couldn't be started
+	 */
+	public static void main(String argv[]) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+
+		int port = argv.length > 0 ? Integer.parseInt(argv[0]) : 4057;
+		GameServer server = new GameServer(port, 10);
+
+		System.out.println("Space Invaders server listening on port "+server.getPort());
+		server.run();
+	}
+}
@@ -0,0 +1,100 @@
+package org.newdawn.spaceinvaders;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Acceptance check for the idle game. Runs the game loop headlessly on
+ * the waiting screen, where nothing can change until a key is pressed,
+ * and measures the CPU used by the whole process while it sits there.
+ * It's the whole process that counts, not just the loop thread, since
+ * any thread waking on a timer (a log writer, a loader) keeps the
+ * machine awake just the same. The threads that used any CPU are
+ * listed, and the check fails if the process used more than the
+ * allowed share of one core.
+ * <p>
+ * Usage: IdleCheck [seconds] [limit] where limit is the most CPU the
+ * process may use, as a percentage of one core (default 1)
+ *
+ * @author John
+ */
+public class IdleCheck {
+	/** How long the game is left to settle before measuring (ms) */
+	private static final long SETTLE = 1000;
+
+	/**
+	 * The entry point for the check
+	 *
+	 * @param argv The arguments, optionally how long to measure for (seconds) and the limit (%)
+	 * @throws Exception Indicates the check failed to run
+	 */
+	public static void main(String argv[]) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		int seconds = argv.length > 0 ? Integer.parseInt(argv[0]) : 5;
+		double limit = argv.length > 1 ? Double.parseDouble(argv[1]) : 1;
+
+		OperatingSystemMXBean system = ManagementFactory.getOperatingSystemMXBean();
+		if (!(system instanceof com.sun.management.OperatingSystemMXBean)) {
+			System.err.println("Process CPU time isn't available on this JVM");
+			System.exit(1);
+		}
+		com.sun.management.OperatingSystemMXBean process = (com.sun.management.OperatingSystemMXBean) system;
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+		final Game game = new Game(SpriteStore.get(), true);
+		Thread loop = new Thread(new Runnable() {
+			public void run() {
+				game.gameLoop();
+			}
+		}, "game-loop");
+		loop.setDaemon(true);
+		loop.start();
+		Thread.sleep(SETTLE);
+
+		HashMap before = threadTimes(threads);
+		long start = System.nanoTime();
+		long cpuStart = process.getProcessCpuTime();
+		Thread.sleep(seconds * 1000L);
+		long cpu = process.getProcessCpuTime() - cpuStart;
+		long wall = System.nanoTime() - start;
+		HashMap after = threadTimes(threads);
+
+		double used = (cpu * 100.0) / wall;
+		System.out.println("Idle for "+seconds+" s: process used "+(cpu / 1000000)+" ms of CPU, "+String.format(Locale.ROOT, "%.2f", used)+"% of one core");
+		for (Object name : after.keySet()) {
+			Long was = (Long) before.get(name);
+			long threadCpu = ((Long) after.get(name)).longValue() - (was == null ? 0 : was.longValue());
+			if (threadCpu > 0) {
+				System.out.println("  "+name+": "+(threadCpu / 1000)+" us");
+			}
+		}
+
+		if (used > limit) {
+			System.out.println("Idle CPU is over the limit of "+limit+"%");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Get the CPU time used so far by every live thread
+	 *
+	 * @param threads The thread management bean
+	 * @return The CPU time of each thread (ns), by thread name
+	 */
+	private static HashMap threadTimes(ThreadMXBean threads) {
+		HashMap times = new HashMap();
+		long[] ids = threads.getAllThreadIds();
+		for (int i=0;i<ids.length;i++) {
+			ThreadInfo info = threads.getThreadInfo(ids[i]);
+			long time = threads.getThreadCpuTime(ids[i]);
+			if ((info != null) && (time >= 0)) {
+				times.put(info.getThreadName()+" #"+ids[i], Long.valueOf(time));
+			}
+		}
+		return times;
+	}
+}
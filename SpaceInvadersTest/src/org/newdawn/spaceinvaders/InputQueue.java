@@ -0,0 +1,194 @@
+package org.newdawn.spaceinvaders;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single-producer/single-consumer ring of timestamped input events.
+ * <p>
+ * The producer (normally the AWT event thread) offers events as they
+ * happen and the consumer (the game loop) drains everything queued at
+ * a fixed point in each tick. Events are stored in primitive arrays so
+ * nothing is allocated once the queue has been created, and the head
+ * and tail counters are published with ordered writes so no locking
+ * is required between the two threads.
+ * <p>
+ * The same event format is used for keyboard input, network clients,
+ * bots and replays, so anything that can produce a stream of actions
+ * can drive the game.
+ * <p>
+ * When there's nothing for it to do the consumer can park in await()
+ * until the next event arrives, rather than polling the queue.
+ *
+ * @author John
+ */
+public class InputQueue {
+	/** Move the ship left */
+	public static final int LEFT = 0;
+	/** Move the ship right */
+	public static final int RIGHT = 1;
+	/** Fire using the single shot type */
+	public static final int FIRE_SINGLE = 2;
+	/** Fire using the double shot type */
+	public static final int FIRE_DOUBLE = 3;
+	/** Fire using the triple shot type */
+	public static final int FIRE_TRIPLE = 4;
+	/** Fire using the bomb shot type */
+	public static final int FIRE_BOMB = 5;
+	/** The "any key" press used to start a new game */
+	public static final int START = 6;
+	/** The number of distinct actions */
+	public static final int ACTION_COUNT = 7;
+
+	/**
+	 * Receives events as they are drained from the queue
+	 */
+	public interface Handler {
+		/**
+		 * Notification of a single input event
+		 *
+		 * @param action The action (one of the constants above)
+		 * @param pressed True if the action started, false if it ended
+		 * @param time The time the event was queued (System.nanoTime())
+		 */
+		public void onInput(int action, boolean pressed, long time);
+	}
+
+	/** The action and pressed state of each slot, packed as (action << 1) | pressed */
+	private final int[] events;
+	/** The time each slot was queued at */
+	private final long[] times;
+	/** The mask used to wrap sequence numbers onto slots */
+	private final int mask;
+	/** The next sequence number to be written, only written by the producer */
+	private final AtomicLong tail = new AtomicLong();
+	/** The next sequence number to be read, only written by the consumer */
+	private final AtomicLong head = new AtomicLong();
+	/** The number of events dropped because the queue was full */
+	private final AtomicLong dropped = new AtomicLong();
+	/** The consumer thread parked in await(), or null if it isn't parked */
+	private volatile Thread waiter;
+	/** True if the consumer has been woken without an event being queued */
+	private volatile boolean woken;
+
+	/**
+	 * Create a new queue
+	 *
+	 * @param capacity The number of events that can be held, rounded up to a power of two
+	 */
+	public InputQueue(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+
+		events = new int[size];
+		times = new long[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Queue an event stamped with the current time. Must only be called
+	 * from the single producer thread.
+	 *
+	 * @param action The action that has changed
+	 * @param pressed True if the action has started, false if it has ended
+	 * @return True if the event was queued, false if the queue was full
+	 */
+	public boolean offer(int action, boolean pressed) {
+		return offer(action, pressed, System.nanoTime());
+	}
+
+	/**
+	 * Queue an event with an explicit time stamp. Must only be called
+	 * from the single producer thread.
+	 *
+	 * @param action The action that has changed
+	 * @param pressed True if the action has started, false if it has ended
+	 * @param time The time at which the event happened (System.nanoTime())
+	 * @return True if the event was queued, false if the queue was full
+	 */
+	public boolean offer(int action, boolean pressed, long time) {
+		long t = tail.get();
+
+		if (t - head.get() > mask) {
+			dropped.incrementAndGet();
+			return false;
+		}
+
+		int slot = (int) t & mask;
+		events[slot] = (action << 1) | (pressed ? 1 : 0);
+		times[slot] = time;
+
+		// publish the slot. This has to be a full volatile write, not
+		// just an ordered one, so that a consumer about to park either
+		// sees the new tail or is seen here as the waiter
+		tail.set(t + 1);
+		
+		Thread consumer = waiter;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+		return true;
+	}
+
+	/**
+	 * Hand every queued event to the given handler in the order they
+	 * were queued. Must only be called from the single consumer thread.
+	 *
+	 * @param handler The handler to receive the events
+	 * @return The number of events drained
+	 */
+	public int drain(Handler handler) {
+		long h = head.get();
+		long t = tail.get();
+
+		for (long i=h;i<t;i++) {
+			int slot = (int) i & mask;
+			int event = events[slot];
+
+			handler.onInput(event >> 1, (event & 1) != 0, times[slot]);
+		}
+
+		// release the slots back to the producer
+		head.lazySet(t);
+		return (int) (t - h);
+	}
+
+	/**
+	 * Park the consumer until an event is queued or wake() is called.
+	 * Returns straight away if events are already waiting. Must only be
+	 * called from the single consumer thread.
+	 *
+	 * @return True if there are events waiting to be drained
+	 */
+	public boolean await() {
+		waiter = Thread.currentThread();
+		while ((!woken) && (tail.get() == head.get())) {
+			LockSupport.park(this);
+		}
+		waiter = null;
+		woken = false;
+		
+		return tail.get() != head.get();
+	}
+
+	/**
+	 * Wake the consumer from await() without queuing an event. May be
+	 * called from any thread.
+	 */
+	public void wake() {
+		woken = true;
+		
+		Thread consumer = waiter;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * Get the number of events dropped because the queue was full
+	 *
+	 * @return The number of dropped events
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+}
@@ -0,0 +1,186 @@
+package org.newdawn.spaceinvaders;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Plays a throwaway headless game while the real one is waiting for a
+ * key press, so the hot paths of a tick (moving, collisions, firing)
+ * are already compiled by the time the player starts rather than
+ * running interpreted through the first waves.
+ * <p>
+ * The warm-up game belongs to its own low priority thread and shares
+ * nothing with the real game but the immutable sprite store. It's
+ * played in windows of ticks, rotating through the shot types round by
+ * round so every fire path gets used, and stops once a whole window
+ * goes by without the JIT compiling anything, once it's played the
+ * most ticks it's allowed or as soon as the real game starts.
+ * <p>
+ * When it stops it logs how long the JIT spent compiling and how the
+ * tick time of the last window was spread, the median against the
+ * 99th percentile, as a measure of how settled the code had become.
+ *
+ * @author John
+ */
+public class JitWarmup implements Runnable {
+	/** Logged when the warm-up stops */
+	private static final EventLog.Event DONE = new EventLog.Event("warmup.done", "ticks", "compileMs");
+	/** Logged with the tick time of the last window of the warm-up */
+	private static final EventLog.Event TICK_TIME = new EventLog.Event("warmup.tick_time", "p50Ns", "p99Ns");
+
+	/** The game time played each tick (ms) */
+	private static final long TICK = 10;
+	/** The number of ticks in each window */
+	private static final int WINDOW = 2000;
+	/** The shot types used round by round */
+	private static final Game.ShotType[] SHOT_TYPES = Game.ShotType.values();
+
+	/** The sprites the warm-up game uses */
+	private SpriteStore spriteStore;
+	/** The most ticks to play */
+	private int maxTicks;
+	/** True once the warm-up has been told to stop */
+	private volatile boolean cancelled;
+	/** The JIT, null if it can't be watched */
+	private CompilationMXBean compiler;
+
+	/** The number of ticks played */
+	private volatile int ticks;
+	/** The time the JIT spent compiling while warming up (ms), -1 if unknown */
+	private volatile long compileTime = -1;
+	/** The median tick time of the last window (ns) */
+	private volatile long p50;
+	/** The 99th percentile tick time of the last window (ns) */
+	private volatile long p99;
+	/** True if the warm-up stopped because the JIT had settled */
+	private volatile boolean settled;
+
+	/**
+	 * Create a new warm-up
+	 *
+	 * @param spriteStore The sprites to use for the warm-up game
+	 * @param maxTicks The most ticks to play
+	 */
+	public JitWarmup(SpriteStore spriteStore, int maxTicks) {
+		this.spriteStore = spriteStore;
+		this.maxTicks = maxTicks;
+
+		compiler = ManagementFactory.getCompilationMXBean();
+		if ((compiler != null) && (!compiler.isCompilationTimeMonitoringSupported())) {
+			compiler = null;
+		}
+	}
+
+	/**
+	 * Start warming up on a thread of its own
+	 */
+	public void start() {
+		Thread thread = new Thread(this, "jit-warmup");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/**
+	 * Stop warming up, for when the real game starts. The warm-up
+	 * finishes the tick it's on and then reports.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Play the warm-up game and report
+	 */
+	public void run() {
+		Game game = new Game(spriteStore, true, false);
+		InputQueue input = game.getInputQueue();
+		Agent agent = null;
+		int round = 0;
+
+		long[] times = new long[WINDOW];
+		long compileStart = compiler == null ? 0 : compiler.getTotalCompilationTime();
+
+		while ((!cancelled) && (ticks < maxTicks)) {
+			long windowStart = compiler == null ? 0 : compiler.getTotalCompilationTime();
+
+			int played = 0;
+			while ((played < WINDOW) && (!cancelled) && (ticks < maxTicks)) {
+				long start = System.nanoTime();
+				if (game.isWaitingForKeyPress()) {
+					agent = new SweepAgent(SHOT_TYPES[round++ % SHOT_TYPES.length]);
+					input.offer(InputQueue.START, true);
+					game.tick(TICK);
+					agent.startRound(game);
+				} else {
+					agent.act(game, input);
+					game.tick(TICK);
+				}
+				times[played++] = System.nanoTime() - start;
+				ticks++;
+			}
+
+			if (played == WINDOW) {
+				Arrays.sort(times);
+				p50 = times[WINDOW / 2];
+				p99 = times[(WINDOW * 99) / 100];
+			}
+			if (compiler != null) {
+				compileTime = compiler.getTotalCompilationTime() - compileStart;
+				if ((played == WINDOW) && (compiler.getTotalCompilationTime() == windowStart)) {
+					settled = true;
+					break;
+				}
+			}
+		}
+
+		EventLog.log(EventLog.INFO, DONE, ticks, compileTime, settled ? "settled" : (cancelled ? "cancelled" : "limit"));
+		EventLog.log(EventLog.INFO, TICK_TIME, p50, p99);
+	}
+
+	/**
+	 * Get the number of ticks played so far
+	 *
+	 * @return The number of ticks played
+	 */
+	public int getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Get the time the JIT has spent compiling since the warm-up started
+	 *
+	 * @return The compile time (ms), -1 if it can't be measured
+	 */
+	public long getCompileTime() {
+		return compileTime;
+	}
+
+	/**
+	 * Get the median tick time of the last whole window played
+	 *
+	 * @return The median tick time (ns), 0 if no window was finished
+	 */
+	public long getMedianTickTime() {
+		return p50;
+	}
+
+	/**
+	 * Get the 99th percentile tick time of the last whole window played
+	 *
+	 * @return The 99th percentile tick time (ns), 0 if no window was finished
+	 */
+	public long getP99TickTime() {
+		return p99;
+	}
+
+	/**
+	 * Check if the warm-up stopped because the JIT had settled
+	 *
+	 * @return True if a whole window went by without any compiling
+	 */
+	public boolean isSettled() {
+		return settled;
+	}
+}
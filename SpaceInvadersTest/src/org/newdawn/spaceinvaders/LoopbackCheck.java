@@ -0,0 +1,82 @@
+package org.newdawn.spaceinvaders;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Acceptance check for the game server. Starts a server and a client
+ * in the same process connected over loopback, has the client play
+ * for a while and reports the server tick time, the size of each
+ * snapshot and the end to end input latency.
+ * <p>
+ * Usage: LoopbackCheck [seconds]
+ *
+ * @author John
+ */
+public class LoopbackCheck {
+	/**
+	 * The entry point for the check
+	 *
+	 * @param argv The arguments, optionally how long to run for (seconds)
+	 * @throws Exception Indicates the check failed to run
+	 */
+	public static void main(String argv[]) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		int seconds = argv.length > 0 ? Integer.parseInt(argv[0]) : 5;
+
+		final GameServer server = new GameServer(0, 10);
+		Thread serverThread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					server.run();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}, "server");
+		serverThread.start();
+
+		SnapshotClient client = new SnapshotClient("127.0.0.1", server.getPort());
+		client.sendInput(InputQueue.START, true);
+
+		// play a simple pattern: sweep left and right, firing as we go
+		long end = System.currentTimeMillis() + (seconds * 1000L);
+		int snapshots = 0;
+		boolean left = true;
+
+		while (System.currentTimeMillis() < end) {
+			client.readSnapshot();
+			snapshots++;
+
+			if (snapshots % 50 == 0) {
+				client.sendInput(left ? InputQueue.LEFT : InputQueue.RIGHT, false);
+				left = !left;
+				client.sendInput(left ? InputQueue.LEFT : InputQueue.RIGHT, true);
+			}
+			if (snapshots % 25 == 0) {
+				client.sendInput(InputQueue.FIRE_SINGLE, true);
+			} else if (snapshots % 25 == 1) {
+				client.sendInput(InputQueue.FIRE_SINGLE, false);
+			}
+		}
+
+		server.stop();
+		serverThread.join();
+		client.close();
+
+		long[] latencies = client.getLatencies();
+		Arrays.sort(latencies);
+
+		System.out.println("Snapshots received: "+snapshots);
+		System.out.println("Server ticks: "+server.getTickCount());
+		System.out.printf("Server tick time: avg %.1f us, max %.1f us%n",
+				server.getAverageTickTime() / 1000.0, server.getMaxTickTime() / 1000.0);
+		System.out.printf("Delta snapshot size: avg %.1f bytes%n", server.getAverageSnapshotBytes());
+		if (latencies.length > 0) {
+			System.out.printf("End to end latency: median %.2f ms, p99 %.2f ms (%d samples)%n",
+					latencies[latencies.length / 2] / 1000000.0,
+					latencies[(int) ((latencies.length - 1) * 0.99)] / 1000000.0,
+					latencies.length);
+		}
+	}
+}
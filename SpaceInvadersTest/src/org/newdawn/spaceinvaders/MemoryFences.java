@@ -0,0 +1,106 @@
+package org.newdawn.spaceinvaders;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * Memory fences for data shared with other processes through a mapped
+ * file, where the usual Java rules about volatile fields don't reach.
+ * <p>
+ * The fences are sun.misc.Unsafe's, found reflectively so nothing
+ * depends on it at compile time. If it can't be found each fence falls
+ * back to writing and then reading a volatile field, which the memory
+ * model doesn't let anything before be moved after or anything after
+ * be moved before, so it's a full fence, just a slower one.
+ *
+ * @author John
+ */
+final class MemoryFences {
+	/** Unsafe.storeFence() bound to the Unsafe instance, null if it isn't available */
+	private static final MethodHandle STORE_FENCE;
+	/** Unsafe.loadFence() bound to the Unsafe instance, null if it isn't available */
+	private static final MethodHandle LOAD_FENCE;
+	/** Written and read back by the fallback fence */
+	private static volatile int fallback;
+
+	static {
+		MethodHandle store = null;
+		MethodHandle load = null;
+		try {
+			Class unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			Object unsafe = field.get(null);
+
+			MethodType type = MethodType.methodType(void.class);
+			store = MethodHandles.lookup().findVirtual(unsafeClass, "storeFence", type).bindTo(unsafe);
+			load = MethodHandles.lookup().findVirtual(unsafeClass, "loadFence", type).bindTo(unsafe);
+		} catch (Throwable e) {
+			store = null;
+			load = null;
+		}
+		STORE_FENCE = store;
+		LOAD_FENCE = load;
+	}
+
+	/**
+	 * Not to be created, the fences are static
+	 */
+	private MemoryFences() {
+	}
+
+	/**
+	 * Make sure every store before the fence is seen before any store
+	 * after it
+	 */
+	static void storeFence() {
+		if (STORE_FENCE == null) {
+			fullFence();
+			return;
+		}
+		try {
+			STORE_FENCE.invokeExact();
+		} catch (Throwable e) {
+			throw new IllegalStateException("Store fence failed", e);
+		}
+	}
+
+	/**
+	 * Make sure every load before the fence is done before any load
+	 * after it
+	 */
+	static void loadFence() {
+		if (LOAD_FENCE == null) {
+			fullFence();
+			return;
+		}
+		try {
+			LOAD_FENCE.invokeExact();
+		} catch (Throwable e) {
+			throw new IllegalStateException("Load fence failed", e);
+		}
+	}
+
+	/**
+	 * The fallback fence, a volatile write followed by a volatile read.
+	 * It has to be that way round, nothing before the write can move
+	 * after it and nothing after the read can move before it.
+	 *
+	 * @return The value read, which is of no interest
+	 */
+	private static int fullFence() {
+		fallback = 0;
+		return fallback;
+	}
+
+	/**
+	 * Check if the fences are Unsafe's rather than the fallback
+	 *
+	 * @return True if Unsafe's fences are used
+	 */
+	static boolean isIntrinsic() {
+		return STORE_FENCE != null;
+	}
+}
@@ -0,0 +1,256 @@
+package org.newdawn.spaceinvaders;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * A batch of short lived particles used for purely visual effects,
+ * like the debris when an alien dies or the splash of a bomb.
+ * <p>
+ * Particles aren't entities. Each one is just a slot in a set of
+ * primitive arrays, so emitting, updating and drawing them never
+ * allocates and they never take part in collisions. Dead particles
+ * are removed by moving the last live particle into their slot, which
+ * keeps the live particles packed at the front of the arrays.
+ * <p>
+ * Rather than issuing a draw call per particle they're written
+ * straight into the pixels of a transparent overlay the size of the
+ * screen, which is then drawn in one go. Only the pixels written in
+ * the previous frame are cleared, so the cost follows the number of
+ * particles rather than the size of the screen.
+ *
+ * @author John
+ */
+public class ParticleSystem {
+	/** The size of each particle (pixels) */
+	private static final int SIZE = 2;
+	/** The pull downwards on the particles (pixels/sec/sec) */
+	private static final float GRAVITY = 200;
+
+	/** The width of the area particles are drawn in */
+	private int width;
+	/** The height of the area particles are drawn in */
+	private int height;
+	/** The x position of each particle */
+	private float[] x;
+	/** The y position of each particle */
+	private float[] y;
+	/** The horizontal speed of each particle (pixels/sec) */
+	private float[] vx;
+	/** The vertical speed of each particle (pixels/sec) */
+	private float[] vy;
+	/** The time each particle has left to live (ms) */
+	private int[] life;
+	/** The time each particle lived for in total (ms) */
+	private int[] lifetime;
+	/** The RGB colour of each particle */
+	private int[] colour;
+	/** The number of live particles */
+	private int count;
+	/** The state of the random number generator used to scatter particles */
+	private int seed = 0x2545F491;
+
+	/** The overlay the particles are drawn onto */
+	private BufferedImage overlay;
+	/** The pixels of the overlay */
+	private int[] pixels;
+	/** The offset of each pixel written in the last frame */
+	private int[] written;
+	/** The number of pixels written in the last frame */
+	private int writtenCount;
+
+	/**
+	 * Create a new particle system
+	 *
+	 * @param capacity The most particles that can be alive at once
+	 * @param width The width of the area particles are drawn in
+	 * @param height The height of the area particles are drawn in
+	 */
+	public ParticleSystem(int capacity, int width, int height) {
+		this.width = width;
+		this.height = height;
+
+		x = new float[capacity];
+		y = new float[capacity];
+		vx = new float[capacity];
+		vy = new float[capacity];
+		life = new int[capacity];
+		lifetime = new int[capacity];
+		colour = new int[capacity];
+
+		overlay = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		pixels = ((DataBufferInt) overlay.getRaster().getDataBuffer()).getData();
+		written = new int[capacity * SIZE * SIZE];
+	}
+
+	/**
+	 * Throw out a burst of particles from a point. If the system is
+	 * full the burst is cut short rather than growing the arrays.
+	 *
+	 * @param px The x position of the burst
+	 * @param py The y position of the burst
+	 * @param amount The number of particles in the burst
+	 * @param speed The fastest a particle leaves the burst (pixels/sec)
+	 * @param rgb The colour of the particles
+	 * @param time The longest a particle lives (ms)
+	 */
+	public void emit(float px, float py, int amount, float speed, int rgb, int time) {
+		int end = Math.min(count + amount, x.length);
+
+		for (int i=count;i<end;i++) {
+			// pick a random point in the unit square and stretch it
+			// to the speed, close enough to round for a splash
+			float rx = nextFloat() * 2 - 1;
+			float ry = nextFloat() * 2 - 1;
+			float scale = speed * nextFloat();
+
+			x[i] = px;
+			y[i] = py;
+			vx[i] = rx * scale;
+			vy[i] = ry * scale;
+			lifetime[i] = (time / 2) + (int) (nextFloat() * (time / 2));
+			life[i] = lifetime[i];
+			colour[i] = rgb & 0xFFFFFF;
+		}
+
+		count = end;
+	}
+
+	/**
+	 * Move all the particles on and remove those that have expired
+	 * or left the screen
+	 *
+	 * @param delta The time that has passed since the last update (ms)
+	 */
+	public void update(long delta) {
+		float seconds = delta / 1000f;
+		int elapsed = (int) delta;
+
+		int i = 0;
+		while (i < count) {
+			life[i] -= elapsed;
+			x[i] += vx[i] * seconds;
+			y[i] += vy[i] * seconds;
+			vy[i] += GRAVITY * seconds;
+
+			if ((life[i] <= 0) || (x[i] < 0) || (y[i] < 0) || (x[i] >= width - SIZE) || (y[i] >= height - SIZE)) {
+				// move the last particle into this slot and look at
+				// this slot again
+				count--;
+				x[i] = x[count];
+				y[i] = y[count];
+				vx[i] = vx[count];
+				vy[i] = vy[count];
+				life[i] = life[count];
+				lifetime[i] = lifetime[count];
+				colour[i] = colour[count];
+			} else {
+				i++;
+			}
+		}
+	}
+
+	/**
+	 * Draw all the particles, fading each one out as it ages
+	 *
+	 * @param g The graphics context to draw onto
+	 */
+	public void draw(Graphics g) {
+		if ((count == 0) && (writtenCount == 0)) {
+			return;
+		}
+
+		// clear what was drawn last frame
+		for (int i=0;i<writtenCount;i++) {
+			pixels[written[i]] = 0;
+		}
+		writtenCount = 0;
+
+		for (int i=0;i<count;i++) {
+			int alpha = (life[i] * 255) / lifetime[i];
+			int argb = (alpha << 24) | colour[i];
+			int offset = ((int) y[i] * width) + (int) x[i];
+
+			for (int row=0;row<SIZE;row++) {
+				for (int col=0;col<SIZE;col++) {
+					pixels[offset + col] = argb;
+					written[writtenCount++] = offset + col;
+				}
+				offset += width;
+			}
+		}
+
+		g.drawImage(overlay, 0, 0, null);
+	}
+
+	/**
+	 * Get the number of live particles
+	 *
+	 * @return The number of live particles
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Remove every particle
+	 */
+	public void clear() {
+		count = 0;
+	}
+
+	/**
+	 * Get a random number between 0 and 1 from a simple xorshift
+	 * generator, which is all the scattering needs
+	 *
+	 * @return A random number between 0 and 1
+	 */
+	private float nextFloat() {
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		return (seed >>> 8) / (float) (1 << 24);
+	}
+
+	/**
+	 * Measure how long it takes to update and draw a full system, to
+	 * check it fits in the frame budget
+	 *
+	 * @param argv The arguments: number of particles, number of frames
+	 */
+	public static void main(String argv[]) {
+		System.setProperty("java.awt.headless", "true");
+
+		int particles = argv.length > 0 ? Integer.parseInt(argv[0]) : 50000;
+		int frames = argv.length > 1 ? Integer.parseInt(argv[1]) : 1000;
+
+		ParticleSystem system = new ParticleSystem(particles, 800, 800);
+		BufferedImage screen = new BufferedImage(800, 800, BufferedImage.TYPE_INT_RGB);
+		Graphics g = screen.getGraphics();
+
+		long total = 0;
+		long worst = 0;
+		for (int frame=0;frame<frames;frame++) {
+			// keep the system topped up with long lived particles
+			while (system.getCount() < particles) {
+				system.emit(400, 400, 1000, 300, 0xFF8000, 100000);
+			}
+
+			long start = System.nanoTime();
+			system.update(10);
+			system.draw(g);
+			long time = System.nanoTime() - start;
+
+			// skip the first frames while the code warms up
+			if (frame >= frames / 10) {
+				total += time;
+				worst = Math.max(worst, time);
+			}
+		}
+
+		int measured = frames - (frames / 10);
+		System.out.printf("%d particles: %.3f ms/frame average, %.3f ms worst%n",
+				particles, total / 1000000.0 / measured, worst / 1000000.0);
+	}
+}
@@ -0,0 +1,200 @@
+package org.newdawn.spaceinvaders;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Sends aliens from the front of the formation diving at the player
+ * and flies all the divers along their paths in one batch each tick.
+ * <p>
+ * Diving aliens keep moving with the formation as normal, the follower
+ * just adds the next step of their path on top, so when the path ends
+ * they're back in their place however far the formation has moved.
+ * Each step is one look up in the baked tables and one add, with
+ * the offset kept on the alien so the formation logic can still tell
+ * where its place is.
+ *
+ * @author John
+ */
+public class PathFollower {
+	/** The most aliens diving at once */
+	public static final int MAX_DIVERS = 32;
+
+	/** The aliens currently diving */
+	private AlienEntity[] divers = new AlienEntity[MAX_DIVERS];
+	/** The number of aliens currently diving */
+	private int count;
+	/** The paths of the current wave, null if it doesn't dive */
+	private DivePaths paths;
+	/** The time between aliens peeling off to dive (ms), 0 for none */
+	private int interval;
+	/** The time since the last alien peeled off (ms) */
+	private long launchTime;
+	/** The time not yet covered by a step of the paths (ms) */
+	private long stepTime;
+
+	/**
+	 * Get ready for a new wave, dropping any divers from the last one
+	 *
+	 * @param paths The paths of the wave, null if it doesn't dive
+	 * @param interval The time between aliens peeling off to dive (ms), 0 for none
+	 */
+	public void reset(DivePaths paths, int interval) {
+		this.paths = paths;
+		this.interval = paths == null ? 0 : interval;
+		for (int i=0;i<count;i++) {
+			divers[i] = null;
+		}
+		count = 0;
+		launchTime = 0;
+		stepTime = 0;
+	}
+
+	/**
+	 * Launch any dives that are due and fly every diver on along its
+	 * path
+	 *
+	 * @param delta The time that has passed since the last update (ms)
+	 * @param frontLine The front of the formation, where divers come from
+	 * @param random The game's random number generator
+	 */
+	public void update(long delta, FrontLine frontLine, Random random) {
+		if (interval > 0) {
+			launchTime += delta;
+			while (launchTime >= interval) {
+				launchTime -= interval;
+				launch(frontLine, random);
+			}
+		}
+
+		stepTime += delta;
+		while (stepTime >= DivePaths.STEP_TIME) {
+			stepTime -= DivePaths.STEP_TIME;
+			step();
+		}
+	}
+
+	/**
+	 * Move every diver one step along its path, dropping those that
+	 * have made it back to the formation
+	 */
+	private void step() {
+		int i = 0;
+		while (i < count) {
+			AlienEntity alien = divers[i];
+			int[] stepsX = paths.getStepsX(alien.divePath);
+			int[] stepsY = paths.getStepsY(alien.divePath);
+			int s = alien.diveStep++;
+
+			alien.diveX += stepsX[s];
+			alien.diveY += stepsY[s];
+			alien.x += stepsX[s] * DivePaths.FIXED_SCALE;
+			alien.y += stepsY[s] * DivePaths.FIXED_SCALE;
+
+			if (alien.diveStep == stepsX.length) {
+				alien.divePath = -1;
+				count--;
+				divers[i] = divers[count];
+				divers[count] = null;
+			} else {
+				i++;
+			}
+		}
+	}
+
+	/**
+	 * Send the alien at the front of a random column diving, if it
+	 * isn't already
+	 *
+	 * @param frontLine The front of the formation
+	 * @param random The game's random number generator
+	 */
+	private void launch(FrontLine frontLine, Random random) {
+		if ((count == MAX_DIVERS) || (frontLine.getColumns() == 0)) {
+			return;
+		}
+
+		AlienEntity alien = frontLine.getFront(random.nextInt(frontLine.getColumns()));
+		if ((alien == null) || (alien.isDiving())) {
+			return;
+		}
+
+		alien.divePath = DivePaths.choosePath(alien.getFormationX(), random.nextInt());
+		alien.diveStep = 0;
+		divers[count++] = alien;
+	}
+
+	/**
+	 * Take an alien out of the dive, for when it dies. Removing an alien
+	 * that isn't diving does nothing.
+	 *
+	 * @param alien The alien to remove
+	 */
+	public void remove(AlienEntity alien) {
+		for (int i=0;i<count;i++) {
+			if (divers[i] == alien) {
+				count--;
+				divers[i] = divers[count];
+				divers[count] = null;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Get the number of aliens currently diving
+	 *
+	 * @return The number of divers
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Find the divers again from a list of aliens, for when the whole
+	 * game has been restored
+	 *
+	 * @param aliens The live aliens in the game
+	 */
+	public void rebuild(ArrayList aliens) {
+		for (int i=0;i<count;i++) {
+			divers[i] = null;
+		}
+		count = 0;
+		for (int i=0;(i<aliens.size()) && (count<MAX_DIVERS);i++) {
+			AlienEntity alien = (AlienEntity) aliens.get(i);
+			if (alien.isDiving()) {
+				divers[count++] = alien;
+			}
+		}
+	}
+
+	/**
+	 * Get the time since the last alien peeled off
+	 *
+	 * @return The time since the last launch (ms)
+	 */
+	long getLaunchTime() {
+		return launchTime;
+	}
+
+	/**
+	 * Get the time not yet covered by a step of the paths
+	 *
+	 * @return The time left over (ms)
+	 */
+	long getStepTime() {
+		return stepTime;
+	}
+
+	/**
+	 * Restore the timers, for when the whole game has been restored
+	 *
+	 * @param launchTime The time since the last launch (ms)
+	 * @param stepTime The time not yet covered by a step (ms)
+	 */
+	void setTimers(long launchTime, long stepTime) {
+		this.launchTime = launchTime;
+		this.stepTime = stepTime;
+	}
+}
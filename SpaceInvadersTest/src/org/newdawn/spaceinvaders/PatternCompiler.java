@@ -0,0 +1,206 @@
+package org.newdawn.spaceinvaders;
+
+import java.util.Locale;
+
+/**
+ * Compiles bullet patterns. A pattern is either built up a shot at a
+ * time, as the player's shot types are, or given as a one line
+ * definition, as the aliens' fire is in the wave file:
+ * <pre>
+ *   shape [count] [speed] [arc]
+ * </pre>
+ * where shape is one of
+ * <ul>
+ * <li>single - one shot straight down, the classic alien shot</li>
+ * <li>fan - count shots spread evenly across arc degrees, centred on straight down</li>
+ * <li>ring - count shots spread evenly all the way round</li>
+ * <li>aimed - a fan turned towards the player as it's fired</li>
+ * </ul>
+ * count defaults to 1, speed to 100 pixels/sec and arc to 30 degrees.
+ * <p>
+ * All the trig is done here, once, so the game only ever copies the
+ * compiled rows out into shots.
+ *
+ * @author John
+ */
+public class PatternCompiler {
+	/** A pattern built up a shot at a time rather than from a shape */
+	public static final int CUSTOM = -1;
+	/** Shots spread evenly across an arc */
+	public static final int FAN = 0;
+	/** Shots spread evenly all the way round */
+	public static final int RING = 1;
+	/** A fan turned towards the player when fired */
+	public static final int AIMED = 2;
+
+	/** The most shots in one pattern */
+	public static final int MAX_SHOTS = 128;
+	/** The speed of alien shots when a definition doesn't give one (pixels/sec) */
+	public static final int DEFAULT_SPEED = 100;
+	/** The arc of fans when a definition doesn't give one (degrees) */
+	public static final int DEFAULT_ARC = 30;
+	/** The angle of a shot flying straight down, shots fly away from their angle */
+	private static final float DOWN = -90;
+	/** Alien shots leave from the middle of the alien */
+	private static final int ENEMY_OFFSET_X = 10;
+
+	/** The x offset of each shot added so far */
+	private int[] offsetX = new int[MAX_SHOTS];
+	/** The y offset of each shot added so far */
+	private int[] offsetY = new int[MAX_SHOTS];
+	/** The angle of each shot added so far (degrees) */
+	private float[] angle = new float[MAX_SHOTS];
+	/** The number of shots added so far */
+	private int count;
+	/** The sprite id of the shots */
+	private int spriteId;
+	/** The speed of the shots along their angle (pixels/sec) */
+	private double moveSpeed;
+	/** The damage each shot does */
+	private int damage;
+	/** True if the shots are bombs */
+	private boolean bomb;
+	/** The rotation given to bombs (degrees) */
+	private float rotation;
+
+	/**
+	 * Start a new pattern
+	 *
+	 * @param sprite The reference to the sprite of the shots
+	 * @param moveSpeed The speed of the shots along their angle, negative as for ShotEntity (pixels/sec)
+	 * @param damage The damage each shot does
+	 */
+	public PatternCompiler(String sprite, double moveSpeed, int damage) {
+		this.spriteId = SpriteStore.getDefaultId(sprite);
+		this.moveSpeed = moveSpeed;
+		this.damage = damage;
+	}
+
+	/**
+	 * Make the shots of the pattern bombs
+	 *
+	 * @param rotation The rotation given to each bomb (degrees)
+	 */
+	public void setBomb(float rotation) {
+		this.bomb = true;
+		this.rotation = rotation;
+	}
+
+	/**
+	 * Add a shot to the pattern
+	 *
+	 * @param x The x offset of the shot from the shooter
+	 * @param y The y offset of the shot from the shooter
+	 * @param shotAngle The angle the shot flies at (degrees)
+	 */
+	public void add(int x, int y, float shotAngle) {
+		if (count == MAX_SHOTS) {
+			throw new IllegalStateException("Too many shots in pattern, the most is "+MAX_SHOTS);
+		}
+		offsetX[count] = x;
+		offsetY[count] = y;
+		angle[count] = shotAngle;
+		count++;
+	}
+
+	/**
+	 * Compile the shots added into a pattern
+	 *
+	 * @return The compiled pattern
+	 */
+	public BulletPattern compile() {
+		return compile(false, CUSTOM, 0);
+	}
+
+	/**
+	 * Compile the shots added into a pattern, working out each shot's
+	 * velocity the same way a shot does from its angle
+	 *
+	 * @param aimed True if the pattern is turned towards the player
+	 * @param shape The shape the shots were added from
+	 * @param arc The angle the shape was spread over (degrees)
+	 * @return The compiled pattern
+	 */
+	private BulletPattern compile(boolean aimed, int shape, int arc) {
+		int[] x = new int[count];
+		int[] y = new int[count];
+		float[] angles = new float[count];
+		double[] velocityX = new double[count];
+		double[] velocityY = new double[count];
+		int[] sprites = new int[count];
+
+		for (int i=0;i<count;i++) {
+			x[i] = offsetX[i];
+			y[i] = offsetY[i];
+			angles[i] = angle[i];
+			velocityX[i] = Math.cos(Math.toRadians(angle[i])) * moveSpeed;
+			velocityY[i] = Math.sin(Math.toRadians(angle[i])) * moveSpeed;
+			sprites[i] = spriteId;
+		}
+
+		return new BulletPattern(x, y, angles, velocityX, velocityY, sprites, moveSpeed, damage, bomb, rotation, aimed, shape, arc);
+	}
+
+	/**
+	 * Compile one of the shapes of alien fire
+	 *
+	 * @param shape The shape, FAN, RING or AIMED
+	 * @param shots The number of shots
+	 * @param speed The speed of the shots (pixels/sec)
+	 * @param arc The angle a fan is spread over (degrees), unused for a ring
+	 * @return The compiled pattern
+	 */
+	public static BulletPattern compile(int shape, int shots, int speed, int arc) {
+		if ((shots < 1) || (shots > MAX_SHOTS)) {
+			throw new IllegalArgumentException("Patterns have from 1 to "+MAX_SHOTS+" shots: "+shots);
+		}
+		if ((shape != FAN) && (shape != RING) && (shape != AIMED)) {
+			throw new IllegalArgumentException("Unknown pattern shape: "+shape);
+		}
+
+		PatternCompiler compiler = new PatternCompiler("sprites/alienShot.gif", -speed, 1);
+		for (int i=0;i<shots;i++) {
+			float offset = 0;
+			if (shape == RING) {
+				offset = (360f * i) / shots;
+			} else if (shots > 1) {
+				offset = ((arc * (float) i) / (shots - 1)) - (arc / 2f);
+			}
+			compiler.add(ENEMY_OFFSET_X, 0, DOWN + offset);
+		}
+
+		return compiler.compile(shape == AIMED, shape, arc);
+	}
+
+	/**
+	 * Compile a one line pattern definition, see above for the format
+	 *
+	 * @param definition The definition of the pattern
+	 * @return The compiled pattern
+	 * @throws IllegalArgumentException Indicates the definition is malformed
+	 */
+	public static BulletPattern parse(String definition) {
+		String[] parts = definition.trim().split("\\s+");
+		String name = parts[0].toLowerCase(Locale.ROOT);
+
+		int shape;
+		if (name.equals("single") || name.equals("fan")) {
+			shape = FAN;
+		} else if (name.equals("ring")) {
+			shape = RING;
+		} else if (name.equals("aimed")) {
+			shape = AIMED;
+		} else {
+			throw new IllegalArgumentException("Unknown pattern shape: "+parts[0]);
+		}
+
+		try {
+			int shots = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+			int speed = parts.length > 2 ? Integer.parseInt(parts[2]) : DEFAULT_SPEED;
+			int arc = parts.length > 3 ? Integer.parseInt(parts[3]) : DEFAULT_ARC;
+			return compile(shape, shots, speed, arc);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Malformed pattern: "+definition, e);
+		}
+	}
+}
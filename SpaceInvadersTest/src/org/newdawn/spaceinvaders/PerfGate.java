@@ -0,0 +1,602 @@
+package org.newdawn.spaceinvaders;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Guards against whole-game slowdowns and leaks. A set of scenarios are
+ * played headlessly for a fixed number of ticks and measured for the
+ * mean and 99th percentile tick time, bytes allocated per tick and the
+ * heap left after a full GC. The results are compared against a stored
+ * baseline and the run fails if any has got worse by more than the
+ * tolerance, so the build can be failed on it.
+ * <p>
+ * Timings only mean anything against the same machine, so the baseline
+ * is recorded locally with update=true. A run with no baseline to check
+ * against fails rather than passing on nothing.
+ * <p>
+ * Each scenario is an agent playing rounds back to back from a fixed
+ * seed, so every run of a scenario plays exactly the same game. The
+ * scenario is measured over many short trials, and since the game is
+ * the same each trial plays the same stretch of it as the trial of the
+ * same number in the baseline. A fixed piece of work unrelated to the
+ * game is timed alongside each trial, and each trial's timings are taken
+ * relative to it, so a machine that's running slower as a whole (the
+ * clock, or something else sharing the cores) isn't mistaken for a
+ * slower game. The timings are checked trial against trial, and it's
+ * the median of how much slower each trial was that
+ * has to stay within the tolerance. A trial or two hit by something
+ * else on the machine, in this run or when the baseline was recorded,
+ * can't fail the build or hide a slowdown, while a tick time that has
+ * really doubled shows up in every trial and fails it. The tolerance
+ * has to be under 1 for that to hold. The allocation only ever gets
+ * worse from noise, so the best trial counts for it.
+ * <p>
+ * The soak variant plays one long scenario instead and checks that the
+ * number of entities and the heap stay bounded, and that nothing is left
+ * stranded far off the screen, which catches things like shots that are
+ * never removed.
+ * <p>
+ * Usage: PerfGate [name=value ...] where the settings are baseline (the
+ * baseline file), tolerance (the fraction a result may get worse by),
+ * ticks, trials, warmup, update (true to write the baseline rather than check
+ * it), soak (true for the soak variant), maxEntities and maxHeapGrowth
+ * (MB, for the soak).
+ *
+ * @author John
+ */
+public class PerfGate {
+	/** The time each tick simulates (ms) */
+	private static final long TICK = 10;
+	/** The bytes/tick a scenario may go over its baseline by, whatever the tolerance */
+	private static final double BYTES_SLACK = 16;
+	/** The heap a scenario may go over its baseline by, whatever the tolerance (MB) */
+	private static final double HEAP_SLACK = 2;
+	/** The most rounds of warming up every scenario before the JIT is taken to have settled */
+	private static final int MAX_WARMUP_ROUNDS = 10;
+	/** The number of ints sorted by each run of the calibration */
+	private static final int CALIBRATION_SIZE = 1 << 14;
+	/** The number of runs of the calibration timed alongside each trial */
+	private static final int CALIBRATION_RUNS = 10;
+	/** The JIT has settled once a round of warming up is this many times longer than its compiling */
+	private static final int SETTLED = 100;
+	/** The number of ticks between samples in the soak */
+	private static final int SOAK_SAMPLE = 1000;
+	/** How far outside the screen an entity must be to count as stranded (pixels) */
+	private static final int STRAY_MARGIN = 200;
+
+	/** The file the baseline is kept in */
+	private File baseline = new File("perf-baseline.properties");
+	/** The fraction a result may get worse by before the gate fails */
+	private double tolerance = 0.5;
+	/** The number of ticks measured in each trial of a scenario */
+	private int ticks = 5000;
+	/** The number of times each scenario is measured */
+	private int trials = 20;
+	/** The number of ticks of each scenario played in each round of warming up */
+	private int warmup = 20000;
+	/** The ints sorted by the calibration */
+	private int[] calibrationData = new int[CALIBRATION_SIZE];
+	/** Something made of the calibration's results, so it can't be optimised away */
+	private long calibrationSink;
+	/** True if the baseline should be written rather than checked */
+	private boolean update;
+	/** True to run the soak rather than the scenarios */
+	private boolean soak;
+	/** The most entities allowed in play at once during the soak */
+	private int maxEntities = 500;
+	/** The most the heap may grow over the soak (MB) */
+	private double maxHeapGrowth = 16;
+
+	/**
+	 * A scripted game to measure
+	 */
+	private static class Scenario {
+		/** The name the scenario's results are kept under */
+		private String name;
+		/** The type of shot the agent fires */
+		private Game.ShotType shotType;
+		/** The seed of the first round */
+		private long seed;
+
+		/**
+		 * Create a new scenario
+		 *
+		 * @param name The name the scenario's results are kept under
+		 * @param shotType The type of shot the agent fires
+		 * @param seed The seed of the first round
+		 */
+		private Scenario(String name, Game.ShotType shotType, long seed) {
+			this.name = name;
+			this.shotType = shotType;
+			this.seed = seed;
+		}
+	}
+
+	/** The scenarios the gate plays */
+	private static final Scenario[] SCENARIOS = {
+		new Scenario("single", Game.ShotType.SINGLE, 1),
+		new Scenario("triple", Game.ShotType.TRIPLE, 2),
+		new Scenario("bomb", Game.ShotType.BOMB, 3),
+	};
+
+	/**
+	 * The measurements taken from one scenario
+	 */
+	private static class Result {
+		/** The mean tick time of each trial (us) */
+		private double[] tickTimes;
+		/** The time the calibration took alongside each trial (us) */
+		private double[] calibrations;
+		/** The 99th percentile tick time of each trial (us) */
+		private double[] p99s;
+		/** The ticks played per second over all the trials */
+		private double ticksPerSec;
+		/** The bytes allocated per tick, or -1 if they can't be counted */
+		private double bytesPerTick;
+		/** The heap in use after a full GC (MB) */
+		private double heap;
+	}
+
+	/**
+	 * A game being played by an agent, round after round
+	 */
+	private static class Player {
+		/** The game being played */
+		private Game game;
+		/** The agent playing it */
+		private Agent agent;
+		/** The seed of the next round */
+		private long seed;
+
+		/**
+		 * Create a new game for a scenario
+		 *
+		 * @param scenario The scenario to play
+		 */
+		private Player(Scenario scenario) {
+			game = new Game(SpriteStore.get(), true);
+			agent = new SweepAgent(scenario.shotType);
+			seed = scenario.seed;
+		}
+
+		/**
+		 * Play one tick, starting a new round first if the last has ended
+		 */
+		private void tick() {
+			InputQueue input = game.getInputQueue();
+
+			if (game.isWaitingForKeyPress()) {
+				game.getRandom().setSeed(seed++);
+				game.awaitNextRound();
+				input.offer(InputQueue.START, true);
+				game.tick(TICK);
+				agent.startRound(game);
+			} else {
+				agent.act(game, input);
+				game.tick(TICK);
+			}
+		}
+	}
+
+	/**
+	 * Warm the JIT up by playing every scenario round after round,
+	 * until the JIT spends next to none of a round compiling. On a
+	 * machine with few cores the compiler competes with the game for
+	 * time, so measuring before it has settled measures how far it had
+	 * got more than the game, and that differs from run to run.
+	 */
+	private void warmUp() {
+		CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+		if ((compiler != null) && (!compiler.isCompilationTimeMonitoringSupported())) {
+			compiler = null;
+		}
+
+		for (int round=0;round<MAX_WARMUP_ROUNDS;round++) {
+			long start = System.currentTimeMillis();
+			long compileTime = compiler == null ? 0 : compiler.getTotalCompilationTime();
+			for (int i=0;i<SCENARIOS.length;i++) {
+				Player player = new Player(SCENARIOS[i]);
+				for (int t=0;t<warmup;t++) {
+					player.tick();
+				}
+			}
+			if (compiler == null) {
+				return;
+			}
+			long compiling = compiler.getTotalCompilationTime() - compileTime;
+			if (compiling * SETTLED < System.currentTimeMillis() - start) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Play and measure a scenario
+	 *
+	 * @param scenario The scenario to play
+	 * @return The measurements
+	 */
+	private Result measure(Scenario scenario) {
+		Player player = new Player(scenario);
+		AllocationMonitor monitor = AllocationMonitor.isSupported() ? new AllocationMonitor() : null;
+		if (monitor != null) {
+			player.game.addProbe(monitor);
+		}
+
+		Result result = new Result();
+		result.tickTimes = new double[trials];
+		result.calibrations = new double[trials];
+		result.p99s = new double[trials];
+		result.bytesPerTick = monitor == null ? -1 : Double.MAX_VALUE;
+
+		long[] times = new long[ticks];
+		long allTrials = 0;
+		for (int trial=0;trial<trials;trial++) {
+			result.calibrations[trial] = calibrate();
+			if (monitor != null) {
+				monitor.reset();
+			}
+			long start = System.nanoTime();
+			for (int i=0;i<ticks;i++) {
+				long tickStart = System.nanoTime();
+				player.tick();
+				times[i] = System.nanoTime() - tickStart;
+			}
+			long total = System.nanoTime() - start;
+
+			allTrials += total;
+
+			Arrays.sort(times);
+			result.tickTimes[trial] = total / (ticks * 1000.0);
+			result.p99s[trial] = times[(int) (ticks * 0.99)] / 1000.0;
+			if (monitor != null) {
+				result.bytesPerTick = Math.min(result.bytesPerTick, monitor.getBytesPerTick());
+			}
+		}
+		result.ticksPerSec = (trials * (double) ticks) / (allTrials / 1000000000.0);
+		result.heap = heapAfterGC();
+
+		// keep the game reachable until the heap has been measured
+		player.game.getEntities();
+		return result;
+	}
+
+	/**
+	 * Time a fixed piece of work that has nothing to do with the game,
+	 * filling an array from a generator and sorting it. The speed of the
+	 * machine as a whole changes from run to run, with the clock and
+	 * with whatever else shares the cores, and the time taken by this
+	 * changes with it. Dividing the tick time by it leaves how fast the
+	 * game is for the machine it ran on.
+	 *
+	 * @return The time taken (us)
+	 */
+	private double calibrate() {
+		long start = System.nanoTime();
+		for (int run=0;run<CALIBRATION_RUNS;run++) {
+			int seed = run;
+			for (int i=0;i<calibrationData.length;i++) {
+				seed = (seed * 1103515245) + 12345;
+				calibrationData[i] = seed >>> 8;
+			}
+			Arrays.sort(calibrationData);
+			calibrationSink += calibrationData[calibrationData.length / 2];
+		}
+		return (System.nanoTime() - start) / 1000.0;
+	}
+
+	/**
+	 * Run a full GC and get the heap left in use
+	 *
+	 * @return The heap in use (MB)
+	 */
+	private static double heapAfterGC() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		for (int i=0;i<3;i++) {
+			System.gc();
+		}
+		return memory.getHeapMemoryUsage().getUsed() / (1024.0 * 1024.0);
+	}
+
+	/**
+	 * Play every scenario and check it against the baseline, or write
+	 * the baseline
+	 *
+	 * @throws IOException Indicates the baseline couldn't be read or written
+	 */
+	private void runScenarios() throws IOException {
+		Properties stored = new Properties();
+		if (!update) {
+			if (!baseline.exists()) {
+				throw new IOException("No performance baseline at "+baseline+", record one on this machine first with \"ant perf-baseline\"");
+			}
+			InputStream in = new FileInputStream(baseline);
+			try {
+				stored.load(in);
+			} finally {
+				in.close();
+			}
+
+			// the timings are compared trial by trial, which only
+			// works if the trials are the same
+			String settings = settings();
+			if (!settings.equals(stored.getProperty("settings"))) {
+				throw new IOException("The performance baseline at "+baseline+" was recorded with different settings ("
+						+stored.getProperty("settings")+" against "+settings+"), record it again with \"ant perf-baseline\"");
+			}
+		}
+
+		warmUp();
+
+		Properties results = new Properties();
+		results.setProperty("settings", settings());
+		ArrayList failures = new ArrayList();
+		for (int i=0;i<SCENARIOS.length;i++) {
+			Scenario scenario = SCENARIOS[i];
+			Result result = measure(scenario);
+
+			System.out.printf("%-8s %9.0f ticks/sec  median p99 %7.1f us  %7.1f bytes/tick  heap %6.1f MB%n",
+					scenario.name, result.ticksPerSec, median(result.p99s), result.bytesPerTick, result.heap);
+
+			results.setProperty(scenario.name+".tickTime", format(result.tickTimes));
+			results.setProperty(scenario.name+".calibration", format(result.calibrations));
+			results.setProperty(scenario.name+".p99", format(result.p99s));
+			results.setProperty(scenario.name+".bytesPerTick", format(result.bytesPerTick));
+			results.setProperty(scenario.name+".heap", format(result.heap));
+
+			if (!update) {
+				String[] calibrations = stored.getProperty(scenario.name+".calibration", "").split(" ");
+				if (calibrations.length != trials) {
+					throw new IOException("The performance baseline at "+baseline+" has no calibration for "+scenario.name+", record it again with \"ant perf-baseline\"");
+				}
+				double tickTime = checkTrials(failures, stored, scenario.name+".tickTime", result.tickTimes, result.calibrations, calibrations);
+				double p99 = checkTrials(failures, stored, scenario.name+".p99", result.p99s, result.calibrations, calibrations);
+				System.out.printf(Locale.ROOT, "%-8s tick time %.2f, p99 %.2f times the baseline%n", "", tickTime, p99);
+				if (result.bytesPerTick >= 0) {
+					check(failures, stored, scenario.name+".bytesPerTick", result.bytesPerTick, BYTES_SLACK);
+				}
+				check(failures, stored, scenario.name+".heap", result.heap, HEAP_SLACK);
+			}
+		}
+
+		if (update) {
+			OutputStream out = new FileOutputStream(baseline);
+			try {
+				results.store(out, "Performance baseline for this machine, timings are per trial");
+			} finally {
+				out.close();
+			}
+			System.out.println("Baseline written to "+baseline);
+			return;
+		}
+
+		if (!failures.isEmpty()) {
+			StringBuilder message = new StringBuilder("Performance regressed past "+(int) (tolerance * 100)+"%:");
+			for (int i=0;i<failures.size();i++) {
+				message.append("\n  ").append(failures.get(i));
+			}
+			throw new AssertionError(message.toString());
+		}
+		System.out.println("Performance within "+(int) (tolerance * 100)+"% of baseline");
+	}
+
+	/**
+	 * Check a timing against its baseline trial by trial. Each trial is
+	 * compared with the baseline's trial of the same number, which
+	 * played the same stretch of the game, and the median of how many
+	 * times slower they were has to be within the tolerance.
+	 *
+	 * @param failures The list to add a description of any failure to
+	 * @param stored The baseline
+	 * @param key The name of the timing
+	 * @param values The timing of each trial
+	 * @param calibrations The time the calibration took alongside each trial
+	 * @param storedCalibrations The time the calibration took alongside each trial of the baseline
+	 * @return The median of how many times slower the trials were, 0 if there's no baseline
+	 */
+	private double checkTrials(ArrayList failures, Properties stored, String key, double[] values, double[] calibrations, String[] storedCalibrations) {
+		String base = stored.getProperty(key);
+		if (base == null) {
+			failures.add(key+" has no baseline, record it again with update=true");
+			return 0;
+		}
+
+		String[] expected = base.split(" ");
+		double[] ratios = new double[values.length];
+		for (int i=0;i<values.length;i++) {
+			// each side is taken relative to how fast the machine was
+			// at the time. The baseline is only kept to a tenth, don't
+			// divide by 0
+			double machine = Double.parseDouble(storedCalibrations[i]) / calibrations[i];
+			ratios[i] = (values[i] / Math.max(Double.parseDouble(expected[i]), 0.1)) * machine;
+		}
+		double ratio = median(ratios);
+		if (ratio > 1 + tolerance) {
+			failures.add(key+" was "+String.format(Locale.ROOT, "%.2f", ratio)+" times the baseline (median of "+values.length+" trials)");
+		}
+		return ratio;
+	}
+
+	/**
+	 * Check one result against its baseline, every result being one
+	 * that should be no higher than its baseline
+	 *
+	 * @param failures The list to add a description of any failure to
+	 * @param stored The baseline
+	 * @param key The name of the result
+	 * @param value The result
+	 * @param slack An amount the result may go over by whatever the tolerance
+	 */
+	private void check(ArrayList failures, Properties stored, String key, double value, double slack) {
+		String base = stored.getProperty(key);
+		if (base == null) {
+			failures.add(key+" has no baseline, record it again with update=true");
+			return;
+		}
+
+		double expected = Double.parseDouble(base);
+		if (value > (expected * (1 + tolerance)) + slack) {
+			failures.add(key+" was "+format(value)+", baseline "+base);
+		}
+	}
+
+	/**
+	 * Play one long scenario checking the game stays bounded
+	 */
+	private void runSoak() {
+		Player player = new Player(SCENARIOS[0]);
+
+		for (int i=0;i<warmup;i++) {
+			player.tick();
+		}
+		double startHeap = heapAfterGC();
+
+		int mostEntities = 0;
+		double mostHeap = startHeap;
+		for (int i=0;i<ticks;i++) {
+			player.tick();
+			ArrayList entities = player.game.getEntities();
+			mostEntities = Math.max(mostEntities, entities.size());
+
+			// check the entities often so a leak fails early, the
+			// heap only now and again since it takes a full GC
+			if ((i % SOAK_SAMPLE) == 0) {
+				if (mostEntities > maxEntities) {
+					throw new AssertionError("Soak reached "+mostEntities+" entities after "+i+" ticks, the limit is "+maxEntities);
+				}
+				for (int e=0;e<entities.size();e++) {
+					Entity entity = (Entity) entities.get(e);
+					if ((entity.getX() < -STRAY_MARGIN) || (entity.getX() > 800 + STRAY_MARGIN)
+							|| (entity.getY() < -STRAY_MARGIN) || (entity.getY() > 800 + STRAY_MARGIN)) {
+						throw new AssertionError("Soak found "+entity.getClass().getSimpleName()+" stranded at "
+								+entity.getX()+","+entity.getY()+" after "+i+" ticks");
+					}
+				}
+			}
+			if ((i % (SOAK_SAMPLE * 100)) == 0) {
+				mostHeap = Math.max(mostHeap, heapAfterGC());
+			}
+		}
+		double endHeap = heapAfterGC();
+		mostHeap = Math.max(mostHeap, endHeap);
+
+		System.out.printf("Soak of %d ticks: at most %d entities, heap %.1f MB at the start, %.1f MB at most, %.1f MB at the end%n",
+				ticks, mostEntities, startHeap, mostHeap, endHeap);
+
+		if (mostEntities > maxEntities) {
+			throw new AssertionError("Soak reached "+mostEntities+" entities, the limit is "+maxEntities);
+		}
+		if (mostHeap - startHeap > maxHeapGrowth) {
+			throw new AssertionError("Soak heap grew by "+format(mostHeap - startHeap)+" MB, the limit is "+maxHeapGrowth+" MB");
+		}
+	}
+
+	/**
+	 * Format a result for the baseline file
+	 *
+	 * @param value The result
+	 * @return The result to one decimal place
+	 */
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.1f", value);
+	}
+
+	/**
+	 * Format the results of each trial for the baseline file
+	 *
+	 * @param values The result of each trial
+	 * @return The results to one decimal place, separated by spaces
+	 */
+	private static String format(double[] values) {
+		StringBuilder text = new StringBuilder();
+		for (int i=0;i<values.length;i++) {
+			if (i > 0) {
+				text.append(' ');
+			}
+			text.append(format(values[i]));
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Get the median of some values
+	 *
+	 * @param values The values, left as they were
+	 * @return The median value
+	 */
+	private static double median(double[] values) {
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		int middle = sorted.length / 2;
+		return (sorted.length % 2) == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+	}
+
+	/**
+	 * Describe the settings that decide what each trial plays
+	 *
+	 * @return The settings, as kept in the baseline
+	 */
+	private String settings() {
+		return "trials="+trials+" ticks="+ticks;
+	}
+
+	/**
+	 * The entry point for the gate
+	 *
+	 * @param argv The settings for the run as name=value pairs
+	 * @throws IOException Indicates the baseline couldn't be read or written
+	 */
+	public static void main(String argv[]) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+
+		PerfGate gate = new PerfGate();
+		for (int i=0;i<argv.length;i++) {
+			String name = argv[i].substring(0, argv[i].indexOf('='));
+			String value = argv[i].substring(argv[i].indexOf('=') + 1);
+
+			if (name.equals("baseline")) {
+				gate.baseline = new File(value);
+			} else if (name.equals("tolerance")) {
+				gate.tolerance = Double.parseDouble(value);
+			} else if (name.equals("ticks")) {
+				gate.ticks = Integer.parseInt(value);
+			} else if (name.equals("trials")) {
+				gate.trials = Integer.parseInt(value);
+			} else if (name.equals("warmup")) {
+				gate.warmup = Integer.parseInt(value);
+			} else if (name.equals("update")) {
+				gate.update = Boolean.parseBoolean(value);
+			} else if (name.equals("soak")) {
+				gate.soak = Boolean.parseBoolean(value);
+			} else if (name.equals("maxEntities")) {
+				gate.maxEntities = Integer.parseInt(value);
+			} else if (name.equals("maxHeapGrowth")) {
+				gate.maxHeapGrowth = Double.parseDouble(value);
+			} else {
+				throw new IllegalArgumentException("Unknown setting: "+name);
+			}
+		}
+
+		if ((!gate.soak) && (gate.tolerance >= 1)) {
+			throw new IllegalArgumentException("The tolerance has to be under 1, or a doubled tick time would pass");
+		}
+
+		if (gate.soak) {
+			gate.runSoak();
+		} else {
+			gate.runScenarios();
+		}
+	}
+}
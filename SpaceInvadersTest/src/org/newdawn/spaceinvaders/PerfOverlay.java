@@ -0,0 +1,228 @@
+package org.newdawn.spaceinvaders;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A heads up display of how the game is performing, drawn over the
+ * top of the playfield: frame rate, tick time, the cost of each phase,
+ * how many entities of each kind are alive, how many collision pairs
+ * are tested and how much time garbage collection is taking.
+ * <p>
+ * The overlay is a probe on the game so it sees each phase as it ends.
+ * The figures are gathered into totals and only turned into text a
+ * couple of times a second. Each line is cached as an image and only
+ * rendered again when its text changes, so between updates drawing the
+ * overlay is just a handful of image copies. While hidden it does no
+ * work at all.
+ *
+ * @author John
+ */
+public class PerfOverlay implements TickProbe {
+	/** The time between updates of the figures shown (ns) */
+	private static final long UPDATE_INTERVAL = 500000000L;
+	/** The number of lines of figures that aren't phases */
+	private static final int SUMMARY_LINES = 4;
+
+	/** The game being measured */
+	private Game game;
+	/** True if the overlay is being shown */
+	private volatile boolean visible;
+
+	/** The time at the last mark (ns) */
+	private long last;
+	/** The time spent in each phase since the last update (ns) */
+	private long[] phaseTime = new long[PHASE_COUNT];
+	/** The number of ticks since the last update */
+	private int ticks;
+	/** The number of frames drawn since the last update */
+	private int frames;
+	/** The number of collision pairs tested since the last update */
+	private long pairs;
+	/** The time of the last update (ns) */
+	private long lastUpdate;
+
+	/** The garbage collectors, to read pause counts and times from */
+	private List collectors = ManagementFactory.getGarbageCollectorMXBeans();
+	/** The total number of collections at the last update */
+	private long lastGcCount;
+	/** The total time spent collecting at the last update (ms) */
+	private long lastGcTime;
+
+	/** The cached lines of text */
+	private CachedText[] lines = new CachedText[SUMMARY_LINES + PHASE_COUNT];
+
+	/**
+	 * Create a new overlay, hidden to start with
+	 *
+	 * @param game The game to measure
+	 */
+	public PerfOverlay(Game game) {
+		this.game = game;
+		for (int i=0;i<lines.length;i++) {
+			lines[i] = new CachedText(Color.black);
+		}
+	}
+
+	/**
+	 * Show the overlay if it's hidden or hide it if it's shown. Can be
+	 * called from any thread.
+	 */
+	public void toggle() {
+		visible = !visible;
+	}
+
+	/**
+	 * Check if the overlay is being shown
+	 *
+	 * @return True if the overlay is being shown
+	 */
+	public boolean isVisible() {
+		return visible;
+	}
+
+	/**
+	 * @see org.newdawn.spaceinvaders.TickProbe#mark()
+	 */
+	public void mark() {
+		if (visible) {
+			last = System.nanoTime();
+		}
+	}
+
+	/**
+	 * @see org.newdawn.spaceinvaders.TickProbe#phaseEnded(int)
+	 */
+	public void phaseEnded(int phase) {
+		if (!visible) {
+			return;
+		}
+
+		long now = System.nanoTime();
+		phaseTime[phase] += now - last;
+		last = now;
+
+		if (phase == RENDER) {
+			frames++;
+		}
+	}
+
+	/**
+	 * @see org.newdawn.spaceinvaders.TickProbe#tickEnded()
+	 */
+	public void tickEnded() {
+		if (visible) {
+			ticks++;
+			pairs += game.getCollisionPairs();
+		}
+	}
+
+	/**
+	 * Draw the overlay if it's shown, updating the figures if it's
+	 * time to
+	 *
+	 * @param g The graphics context to draw on
+	 */
+	public void draw(Graphics g) {
+		if (!visible) {
+			lastUpdate = 0;
+			return;
+		}
+
+		long now = System.nanoTime();
+		if (lastUpdate == 0) {
+			// just been shown, start gathering from here
+			lastUpdate = now;
+			resetTotals();
+			resetGc();
+		} else if (now - lastUpdate >= UPDATE_INTERVAL) {
+			update(now - lastUpdate);
+			lastUpdate = now;
+		}
+
+		int y = 20;
+		for (int i=0;i<lines.length;i++) {
+			lines[i].draw(g, 10, y);
+			y += CachedText.getLineHeight();
+		}
+	}
+
+	/**
+	 * Turn the totals gathered since the last update into text and
+	 * start gathering again
+	 *
+	 * @param elapsed The time since the last update (ns)
+	 */
+	private void update(long elapsed) {
+		double seconds = elapsed / 1000000000.0;
+		int perTick = Math.max(1, ticks);
+
+		long tickTime = 0;
+		for (int i=0;i<PHASE_COUNT;i++) {
+			if (i != RENDER) {
+				tickTime += phaseTime[i];
+			}
+		}
+
+		// count the entities by kind
+		ArrayList entities = game.getEntities();
+		EntityIndex index = game.getIndex();
+		int aliens = index.getAliens().size();
+		int playerShots = index.getPlayerShots().size();
+		int enemyShots = index.getEnemyShots().size();
+
+		// and see what the garbage collectors have been up to
+		long gcCount = 0;
+		long gcTime = 0;
+		for (int i=0;i<collectors.size();i++) {
+			GarbageCollectorMXBean collector = (GarbageCollectorMXBean) collectors.get(i);
+			gcCount += Math.max(0, collector.getCollectionCount());
+			gcTime += Math.max(0, collector.getCollectionTime());
+		}
+
+		lines[0].setText(String.format("FPS %.0f  ticks/sec %.0f  tick %.3f ms",
+				frames / seconds, ticks / seconds, tickTime / 1000000.0 / perTick));
+		lines[1].setText("Entities "+entities.size()+": aliens "+aliens+", player shots "+playerShots
+				+", enemy shots "+enemyShots+", particles "+game.getParticleCount());
+		lines[2].setText("Collision pairs "+(pairs / perTick)+"/tick");
+		lines[3].setText(String.format("GC %d pauses, %d ms in last %.1f s",
+				gcCount - lastGcCount, gcTime - lastGcTime, seconds));
+		for (int i=0;i<PHASE_COUNT;i++) {
+			long cost = i == RENDER ? phaseTime[i] / Math.max(1, frames) : phaseTime[i] / perTick;
+			lines[SUMMARY_LINES + i].setText(String.format("  %-10s %.3f ms", PHASE_NAMES[i], cost / 1000000.0));
+		}
+
+		resetTotals();
+		lastGcCount = gcCount;
+		lastGcTime = gcTime;
+	}
+
+	/**
+	 * Start gathering the totals again from nothing
+	 */
+	private void resetTotals() {
+		for (int i=0;i<PHASE_COUNT;i++) {
+			phaseTime[i] = 0;
+		}
+		ticks = 0;
+		frames = 0;
+		pairs = 0;
+	}
+
+	/**
+	 * Start counting garbage collections from now
+	 */
+	private void resetGc() {
+		lastGcCount = 0;
+		lastGcTime = 0;
+		for (int i=0;i<collectors.size();i++) {
+			GarbageCollectorMXBean collector = (GarbageCollectorMXBean) collectors.get(i);
+			lastGcCount += Math.max(0, collector.getCollectionCount());
+			lastGcTime += Math.max(0, collector.getCollectionTime());
+		}
+	}
+}
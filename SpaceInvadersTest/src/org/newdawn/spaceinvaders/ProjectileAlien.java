@@ -5,7 +5,7 @@
  */
 package org.newdawn.spaceinvaders;
 
-import java.util.Random;
+import java.nio.ByteBuffer;
 
 /**
  *
@@ -16,19 +16,32 @@ public class ProjectileAlien extends AlienEntity{
     private float firingInterval;
     private long lastFire;
     private String shotTexture = "roundShot";
-    private Random random;
     
     public ProjectileAlien(Game game, String ref, int x, int y, int _health, float _firingInterval) {
         super(game, ref, x, y, _health);
-        random = new Random();
-        firingInterval = _firingInterval + random.nextInt(10000);
+        //Uses the game's own random source so a seeded game plays out the same way every time
+        firingInterval = _firingInterval + game.getRandom().nextInt(10000);
 
-        lastFire = System.currentTimeMillis();
+        lastFire = game.getTime();
+    }
+    
+    @Override
+    void writeState(ByteBuffer buffer){
+        super.writeState(buffer);
+        buffer.putFloat(firingInterval);
+        buffer.putLong(lastFire);
+    }
+    
+    @Override
+    void readState(ByteBuffer buffer){
+        super.readState(buffer);
+        firingInterval = buffer.getFloat();
+        lastFire = buffer.getLong();
     }
     
     private void fire(){
-        lastFire = System.currentTimeMillis();
-        Game.instance.fireSpread(getX(), getY(), 1, Game.ShotType.SINGLE, -1, this);
+        lastFire = game.getTime();
+        game.firePattern(game.getEnemyPattern(), getX(), getY(), false);
     }
     
     public void tryFire(){
@@ -36,7 +49,7 @@ public class ProjectileAlien extends AlienEntity{
         /*if (System.currentTimeMillis() > lastFire + firingInterval) {
             fire();
         }   */
-        if (System.currentTimeMillis() - lastFire > firingInterval) {
+        if (game.getTime() - lastFire > firingInterval) {
             fire();
         }
     }
@@ -0,0 +1,354 @@
+package org.newdawn.spaceinvaders;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of every round played, kept in a memory-mapped
+ * file of fixed size records, with a leaderboard of the best scores
+ * kept alongside it.
+ * <p>
+ * The file starts with a header holding the number of records and the
+ * top scores, as record indices ordered best first. Each record ends
+ * with a checksum of the rest of it. A record is written completely,
+ * then added to the leaderboard, and only then counted in the header.
+ * If the process dies part way through, on opening the records after
+ * the counted ones are checked and any complete ones are taken back in
+ * while the first broken one and everything after it is wiped. So the
+ * log never has to be scanned as a whole, not even on opening.
+ * <p>
+ * The file grows by remapping it at double the size when it fills up.
+ * A history isn't safe to use from more than one thread, the game
+ * writes to it through a RunRecorder.
+ * <p>
+ * Usage: RunHistory &lt;file&gt; [count] lists the best scores.
+ *
+ * @author John
+ */
+public class RunHistory {
+	/** The magic number at the start of a history file */
+	private static final int MAGIC = 0x52554E48;
+	/** The version of the file layout */
+	private static final int VERSION = 1;
+	/** The number of scores kept on the leaderboard */
+	public static final int LEADERBOARD_SIZE = 16;
+	/** The size of the header (bytes) */
+	private static final int HEADER_SIZE = 128;
+	/** The size of each record (bytes) */
+	private static final int RECORD_SIZE = 64;
+	/** The number of shot types each record has room for */
+	private static final int SHOT_TYPES = 4;
+	/** The number of records room is made for in a new file */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/** The offset of the record count in the header */
+	private static final int COUNT = 16;
+	/** The offset of the leaderboard size in the header */
+	private static final int LEADERS = 24;
+	/** The offset of the leaderboard in the header */
+	private static final int LEADERBOARD = 28;
+	/** The offset of the checksum in a record */
+	private static final int CHECKSUM = RECORD_SIZE - 4;
+
+	/** The file the history is kept in */
+	private RandomAccessFile file;
+	/** The mapping of the file */
+	private MappedByteBuffer buffer;
+	/** The number of records there's room for in the current mapping */
+	private long capacity;
+	/** The number of records in the history */
+	private long count;
+	/** The number of records on the leaderboard */
+	private int leaders;
+	/** The indices of the records on the leaderboard, best first */
+	private int[] leaderboard = new int[LEADERBOARD_SIZE];
+	/** Used to work out the checksum of each record */
+	private CRC32 crc = new CRC32();
+
+	/**
+	 * Open a history, creating it if it doesn't exist and recovering
+	 * any records left half written
+	 *
+	 * @param path The file the history is kept in
+	 * @throws IOException Indicates the file couldn't be opened or isn't a history
+	 */
+	public RunHistory(File path) throws IOException {
+		if (Game.ShotType.values().length > SHOT_TYPES) {
+			throw new IllegalStateException("Run records only have room for "+SHOT_TYPES+" shot types");
+		}
+
+		file = new RandomAccessFile(path, "rw");
+		boolean created = file.length() == 0;
+		capacity = Math.max(INITIAL_CAPACITY, (file.length() - HEADER_SIZE) / RECORD_SIZE);
+		map();
+
+		if (created) {
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putInt(8, RECORD_SIZE);
+			buffer.putInt(12, LEADERBOARD_SIZE);
+			buffer.putLong(COUNT, 0);
+			buffer.putInt(LEADERS, 0);
+		} else if ((buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION) || (buffer.getInt(8) != RECORD_SIZE)) {
+			file.close();
+			throw new IOException("Not a run history: "+path);
+		}
+
+		count = buffer.getLong(COUNT);
+		leaders = buffer.getInt(LEADERS);
+		for (int i=0;i<leaders;i++) {
+			leaderboard[i] = buffer.getInt(LEADERBOARD + (i * 4));
+		}
+
+		recover();
+	}
+
+	/**
+	 * Map the file at the current capacity, growing it if need be
+	 *
+	 * @throws IOException Indicates the file couldn't be mapped
+	 */
+	private void map() throws IOException {
+		buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (capacity * RECORD_SIZE));
+	}
+
+	/**
+	 * Take back in any complete records written after the count in the
+	 * header was last updated, and wipe whatever follows them
+	 */
+	private void recover() {
+		while ((count < capacity) && (isValid(count))) {
+			offerToLeaderboard((int) count);
+			count++;
+			writeHeader();
+		}
+
+		// anything after the last good record is a half written one,
+		// clear it out so it can't be mistaken for a record later
+		for (long i=count;(i < capacity) && (!isClear(i));i++) {
+			int offset = offset(i);
+			for (int b=0;b<RECORD_SIZE;b++) {
+				buffer.put(offset + b, (byte) 0);
+			}
+		}
+	}
+
+	/**
+	 * Get the position of a record in the file
+	 *
+	 * @param index The index of the record
+	 * @return The offset of the record in the mapping
+	 */
+	private int offset(long index) {
+		return (int) (HEADER_SIZE + (index * RECORD_SIZE));
+	}
+
+	/**
+	 * Work out the checksum of a record
+	 *
+	 * @param index The index of the record
+	 * @return The checksum of everything in the record but the checksum
+	 */
+	private int checksum(long index) {
+		ByteBuffer record = buffer.duplicate();
+		record.position(offset(index));
+		record.limit(offset(index) + CHECKSUM);
+
+		crc.reset();
+		crc.update(record);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Check if a record was written completely
+	 *
+	 * @param index The index of the record
+	 * @return True if the record's checksum matches
+	 */
+	private boolean isValid(long index) {
+		return buffer.getInt(offset(index) + CHECKSUM) == checksum(index);
+	}
+
+	/**
+	 * Check if a record's slot has never been written
+	 *
+	 * @param index The index of the record
+	 * @return True if the slot is all zeros
+	 */
+	private boolean isClear(long index) {
+		int offset = offset(index);
+		for (int b=0;b<RECORD_SIZE;b+=8) {
+			if (buffer.getLong(offset + b) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Add a record to the end of the history
+	 *
+	 * @param record The record to add
+	 * @throws IOException Indicates the file couldn't be grown
+	 */
+	public void append(RunRecord record) throws IOException {
+		if (count == capacity) {
+			capacity *= 2;
+			map();
+		}
+
+		// the record goes in first with its checksum last, so a
+		// record is either all there or fails its check
+		int offset = offset(count);
+		buffer.putLong(offset, record.getStartTime());
+		buffer.putLong(offset + 8, record.getDuration());
+		buffer.putLong(offset + 16, record.getScore());
+		buffer.putInt(offset + 24, record.getWave());
+		buffer.putInt(offset + 28, record.getCabinet());
+		Game.ShotType[] types = Game.ShotType.values();
+		for (int i=0;i<SHOT_TYPES;i++) {
+			buffer.putInt(offset + 32 + (i * 4), i < types.length ? record.getShotsFired(types[i]) : 0);
+		}
+		buffer.put(offset + 48, (byte) (record.isWon() ? 1 : 0));
+		buffer.putInt(offset + CHECKSUM, checksum(count));
+
+		// then the leaderboard and finally the count that commits it
+		offerToLeaderboard((int) count);
+		count++;
+		writeHeader();
+	}
+
+	/**
+	 * Consider a record for the leaderboard, keeping it in score order
+	 *
+	 * @param index The index of the record
+	 */
+	private void offerToLeaderboard(int index) {
+		long score = getScore(index);
+
+		// a record recovered after a crash may already have made it
+		for (int i=0;i<leaders;i++) {
+			if (leaderboard[i] == index) {
+				return;
+			}
+		}
+
+		int position = leaders;
+		while ((position > 0) && (getScore(leaderboard[position - 1]) < score)) {
+			position--;
+		}
+		if (position >= LEADERBOARD_SIZE) {
+			return;
+		}
+
+		int end = Math.min(leaders, LEADERBOARD_SIZE - 1);
+		System.arraycopy(leaderboard, position, leaderboard, position + 1, end - position);
+		leaderboard[position] = index;
+		leaders = end + 1;
+	}
+
+	/**
+	 * Write the count and leaderboard to the header, leaderboard first
+	 * so the count is the last thing to change
+	 */
+	private void writeHeader() {
+		for (int i=0;i<leaders;i++) {
+			buffer.putInt(LEADERBOARD + (i * 4), leaderboard[i]);
+		}
+		buffer.putInt(LEADERS, leaders);
+		buffer.putLong(COUNT, count);
+	}
+
+	/**
+	 * Get the score of a record without reading the rest of it
+	 *
+	 * @param index The index of the record
+	 * @return The score in the record
+	 */
+	private long getScore(long index) {
+		return buffer.getLong(offset(index) + 16);
+	}
+
+	/**
+	 * Get the number of records in the history
+	 *
+	 * @return The number of records
+	 */
+	public long size() {
+		return count;
+	}
+
+	/**
+	 * Read a record from the history
+	 *
+	 * @param index The index of the record, in the order they were added
+	 * @return The record
+	 */
+	public RunRecord get(long index) {
+		if ((index < 0) || (index >= count)) {
+			throw new IndexOutOfBoundsException("No record "+index+" in a history of "+count);
+		}
+
+		int offset = offset(index);
+		int[] shots = new int[Game.ShotType.values().length];
+		for (int i=0;i<shots.length;i++) {
+			shots[i] = buffer.getInt(offset + 32 + (i * 4));
+		}
+
+		return new RunRecord(buffer.getInt(offset + 28), buffer.getLong(offset), buffer.getLong(offset + 8),
+				buffer.getLong(offset + 16), buffer.getInt(offset + 24), buffer.get(offset + 48) != 0, shots);
+	}
+
+	/**
+	 * Get the best rounds from the leaderboard
+	 *
+	 * @param n The number of rounds wanted, at most LEADERBOARD_SIZE
+	 * @return The best rounds, best first
+	 */
+	public RunRecord[] getTop(int n) {
+		RunRecord[] top = new RunRecord[Math.min(n, leaders)];
+		for (int i=0;i<top.length;i++) {
+			top[i] = get(leaderboard[i]);
+		}
+		return top;
+	}
+
+	/**
+	 * Make sure everything written has reached the disk
+	 */
+	public void force() {
+		buffer.force();
+	}
+
+	/**
+	 * Close the history
+	 *
+	 * @throws IOException Indicates the file couldn't be closed
+	 */
+	public void close() throws IOException {
+		force();
+		file.close();
+	}
+
+	/**
+	 * List the best scores in a history
+	 *
+	 * @param argv The arguments: the history file, how many scores to list
+	 * @throws IOException Indicates the history couldn't be read
+	 */
+	public static void main(String argv[]) throws IOException {
+		RunHistory history = new RunHistory(new File(argv[0]));
+		RunRecord[] top = history.getTop(argv.length > 1 ? Integer.parseInt(argv[1]) : 10);
+
+		System.out.println(history.size()+" rounds recorded");
+		for (int i=0;i<top.length;i++) {
+			System.out.println((i + 1)+". "+top[i]);
+		}
+		history.close();
+	}
+}
@@ -0,0 +1,122 @@
+package org.newdawn.spaceinvaders;
+
+/**
+ * The summary of a single round, as kept in the run history.
+ *
+ * @author John
+ */
+public class RunRecord {
+	/** The cabinet the round was played on */
+	private int cabinet;
+	/** The wall clock time the round started (ms since the epoch) */
+	private long startTime;
+	/** The length of the round in game time (ms) */
+	private long duration;
+	/** The score reached */
+	private long score;
+	/** The wave reached */
+	private int wave;
+	/** True if the player won the round */
+	private boolean won;
+	/** The number of times the player fired each type of shot, by ordinal */
+	private int[] shotsFired;
+
+	/**
+	 * Create a new record
+	 *
+	 * @param cabinet The cabinet the round was played on
+	 * @param startTime The wall clock time the round started (ms since the epoch)
+	 * @param duration The length of the round in game time (ms)
+	 * @param score The score reached
+	 * @param wave The wave reached
+	 * @param won True if the player won the round
+	 * @param shotsFired The number of times each type of shot was fired, by ordinal
+	 */
+	public RunRecord(int cabinet, long startTime, long duration, long score, int wave, boolean won, int[] shotsFired) {
+		this.cabinet = cabinet;
+		this.startTime = startTime;
+		this.duration = duration;
+		this.score = score;
+		this.wave = wave;
+		this.won = won;
+		this.shotsFired = shotsFired;
+	}
+
+	/**
+	 * Get the cabinet the round was played on
+	 *
+	 * @return The cabinet id
+	 */
+	public int getCabinet() {
+		return cabinet;
+	}
+
+	/**
+	 * Get the wall clock time the round started
+	 *
+	 * @return The start time (ms since the epoch)
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * Get the length of the round
+	 *
+	 * @return The length of the round in game time (ms)
+	 */
+	public long getDuration() {
+		return duration;
+	}
+
+	/**
+	 * Get the score reached
+	 *
+	 * @return The score
+	 */
+	public long getScore() {
+		return score;
+	}
+
+	/**
+	 * Get the wave reached
+	 *
+	 * @return The wave number, starting at 1
+	 */
+	public int getWave() {
+		return wave;
+	}
+
+	/**
+	 * Check if the player won the round
+	 *
+	 * @return True if the player won
+	 */
+	public boolean isWon() {
+		return won;
+	}
+
+	/**
+	 * Get the number of times a type of shot was fired
+	 *
+	 * @param type The type of shot
+	 * @return The number of times it was fired
+	 */
+	public int getShotsFired(Game.ShotType type) {
+		return shotsFired[type.ordinal()];
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		text.append(String.format("score %d, wave %d, %s in %.1f s on cabinet %d, shots",
+				score, wave, won ? "won" : "lost", duration / 1000.0, cabinet));
+		Game.ShotType[] types = Game.ShotType.values();
+		for (int i=0;i<types.length;i++) {
+			text.append(' ').append(types[i]).append('=').append(shotsFired[i]);
+		}
+		return text.toString();
+	}
+}
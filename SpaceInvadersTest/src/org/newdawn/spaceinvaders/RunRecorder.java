@@ -0,0 +1,125 @@
+package org.newdawn.spaceinvaders;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes finished rounds to a run history on a background thread, so
+ * the game loop never waits on the file. Recording a round just hands
+ * it over; if the writer has fallen so far behind that its queue is
+ * full the round is dropped and counted rather than holding up play.
+ * Whatever is still waiting when the JVM exits is written and the
+ * history forced to disk, unless the recorder was closed before.
+ *
+ * @author John
+ */
+public class RunRecorder implements Runnable {
+	/** The most rounds waiting to be written before new ones are dropped */
+	private static final int QUEUE_SIZE = 256;
+	/** Logged if the history can't be written */
+	private static final EventLog.Event WRITE_FAILED = new EventLog.Event("history.write_failed");
+	/** Tells the writer thread to stop */
+	private static final RunRecord STOP = new RunRecord(0, 0, 0, 0, 0, false, new int[0]);
+
+	/** The history being written to */
+	private RunHistory history;
+	/** The rounds waiting to be written */
+	private ArrayBlockingQueue queue = new ArrayBlockingQueue(QUEUE_SIZE);
+	/** The thread writing the rounds */
+	private Thread writer;
+	/** The number of rounds dropped because the queue was full */
+	private AtomicLong dropped = new AtomicLong();
+	/** True once the recorder has been closed */
+	private AtomicBoolean closed = new AtomicBoolean();
+
+	/**
+	 * Open a history and start writing to it
+	 *
+	 * @param file The file the history is kept in
+	 * @throws IOException Indicates the history couldn't be opened
+	 */
+	public RunRecorder(File file) throws IOException {
+		history = new RunHistory(file);
+		writer = new Thread(this, "run-recorder");
+		writer.setDaemon(true);
+		writer.start();
+
+		// the writer is a daemon, so finish its work when the JVM exits
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			public void run() {
+				try {
+					close();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, "run-recorder-close"));
+	}
+
+	/**
+	 * Hand over a finished round to be written. Never blocks.
+	 *
+	 * @param record The round to write
+	 */
+	public void record(RunRecord record) {
+		if (!queue.offer(record)) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Get the number of rounds that couldn't be recorded
+	 *
+	 * @return The number of rounds dropped
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Write rounds as they arrive, flushing to disk whenever the queue
+	 * runs dry
+	 */
+	public void run() {
+		try {
+			while (true) {
+				RunRecord record = (RunRecord) queue.take();
+				if (record == STOP) {
+					break;
+				}
+				history.append(record);
+
+				if (queue.isEmpty()) {
+					history.force();
+				}
+			}
+			history.close();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			// the game carries on without its history
+			EventLog.log(EventLog.ERROR, WRITE_FAILED, 0, 0, e.getMessage());
+		}
+	}
+
+	/**
+	 * Write any rounds still waiting and close the history. Closing
+	 * again does nothing.
+	 *
+	 * @throws InterruptedException Indicates we were interrupted waiting for the writer
+	 */
+	public void close() throws InterruptedException {
+		if (!closed.compareAndSet(false, true)) {
+			return;
+		}
+
+		// a writer that's died on an error will never take the stop
+		if (writer.isAlive()) {
+			queue.put(STOP);
+		}
+		writer.join();
+	}
+}
@@ -0,0 +1,198 @@
+package org.newdawn.spaceinvaders;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs large numbers of headless games in parallel with agents in
+ * place of the player, for tuning the balance of the game.
+ * <p>
+ * Each worker thread owns its own game and agent and plays round after
+ * round until the requested number have been played. Nothing is shared
+ * between the workers except the immutable sprite store. Each round is seeded from
+ * its index so a run can be repeated exactly.
+ * <p>
+ * Usage: SelfPlayHarness [name=value ...] where the settings are
+ * rounds, threads, maxTicks, tick (ms), firingInterval (ms),
+ * moveSpeed (pixels/sec), shotType (SINGLE, DOUBLE, TRIPLE, BOMB),
+ * seed and history (a run history file to record every round in).
+ *
+ * @author John
+ */
+public class SelfPlayHarness {
+	/** The number of rounds to play */
+	private int rounds = 1000;
+	/** The number of worker threads */
+	private int threads = Runtime.getRuntime().availableProcessors();
+	/** The number of ticks after which a round is abandoned */
+	private int maxTicks = 100000;
+	/** The time each tick simulates (ms) */
+	private long tick = 10;
+	/** The interval between the player's shots (ms) */
+	private long firingInterval = 500;
+	/** The speed the player's ship moves at (pixels/sec) */
+	private double moveSpeed = 300;
+	/** The type of shot the agents use */
+	private Game.ShotType shotType = Game.ShotType.SINGLE;
+	/** The seed the round seeds are derived from */
+	private long seed = 1;
+	/** The recorder every round is written to, or null if they're not kept */
+	private RunRecorder recorder;
+
+	/** The index of the next round to be played */
+	private AtomicInteger nextRound = new AtomicInteger();
+
+	/**
+	 * The results of a batch of rounds. Each worker collects its own
+	 * and they're added together at the end.
+	 */
+	private static class Results {
+		/** The number of rounds played */
+		private int rounds;
+		/** The number of rounds the player won */
+		private int wins;
+		/** The number of rounds abandoned for running too long */
+		private int timeouts;
+		/** The total number of ticks played */
+		private long ticks;
+
+		/**
+		 * Add another set of results to this one
+		 *
+		 * @param other The results to add
+		 */
+		private void add(Results other) {
+			rounds += other.rounds;
+			wins += other.wins;
+			timeouts += other.timeouts;
+			ticks += other.ticks;
+		}
+	}
+
+	/**
+	 * Play all the rounds and print the aggregated results
+	 *
+	 * @throws Exception Indicates a worker failed
+	 */
+	public void run() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayList futures = new ArrayList();
+		long start = System.nanoTime();
+
+		for (int i=0;i<threads;i++) {
+			futures.add(pool.submit(new Callable() {
+				public Object call() {
+					return playRounds();
+				}
+			}));
+		}
+
+		Results total = new Results();
+		for (int i=0;i<futures.size();i++) {
+			total.add((Results) ((Future) futures.get(i)).get());
+		}
+		pool.shutdown();
+		if (recorder != null) {
+			recorder.close();
+		}
+
+		double seconds = (System.nanoTime() - start) / 1000000000.0;
+
+		System.out.printf("Rounds: %d on %d threads in %.2f s%n", total.rounds, threads, seconds);
+		System.out.printf("Win rate: %.2f%% (%d timeouts)%n", 100.0 * total.wins / total.rounds, total.timeouts);
+		System.out.printf("Average round: %.0f ticks (%.1f s game time)%n",
+				(double) total.ticks / total.rounds, (double) total.ticks * tick / total.rounds / 1000.0);
+		System.out.printf("Throughput: %.1f games/sec, %.0f ticks/sec%n",
+				total.rounds / seconds, total.ticks / seconds);
+	}
+
+	/**
+	 * Play rounds on the current thread until there are none left
+	 *
+	 * @return The results of the rounds played
+	 */
+	private Results playRounds() {
+		Game game = new Game(SpriteStore.get(), true);
+		game.setFiringInterval(firingInterval);
+		game.setMoveSpeed(moveSpeed);
+		game.setRunRecorder(recorder);
+
+		Agent agent = new SweepAgent(shotType);
+		InputQueue input = game.getInputQueue();
+		Results results = new Results();
+
+		for (int round=nextRound.getAndIncrement();round<rounds;round=nextRound.getAndIncrement()) {
+			// start a fresh round, seeded so it can be replayed. The
+			// waves are given time to load so the round starts on
+			// this tick however busy the loader is
+			game.getRandom().setSeed(seed + round);
+			game.awaitNextRound();
+			input.offer(InputQueue.START, true);
+			game.tick(tick);
+			agent.startRound(game);
+
+			int ticks = 0;
+			while ((!game.isWaitingForKeyPress()) && (ticks < maxTicks)) {
+				agent.act(game, input);
+				game.tick(tick);
+				ticks++;
+			}
+
+			results.rounds++;
+			results.ticks += ticks;
+			if (ticks >= maxTicks) {
+				results.timeouts++;
+				game.notifyDeath();
+			} else if (game.hasWon()) {
+				results.wins++;
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * The entry point for a self-play run
+	 *
+	 * @param argv The settings for the run as name=value pairs
+	 * @throws Exception Indicates the run failed
+	 */
+	public static void main(String argv[]) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+
+		SelfPlayHarness harness = new SelfPlayHarness();
+		for (int i=0;i<argv.length;i++) {
+			String name = argv[i].substring(0, argv[i].indexOf('='));
+			String value = argv[i].substring(argv[i].indexOf('=') + 1);
+
+			if (name.equals("rounds")) {
+				harness.rounds = Integer.parseInt(value);
+			} else if (name.equals("threads")) {
+				harness.threads = Integer.parseInt(value);
+			} else if (name.equals("maxTicks")) {
+				harness.maxTicks = Integer.parseInt(value);
+			} else if (name.equals("tick")) {
+				harness.tick = Long.parseLong(value);
+			} else if (name.equals("firingInterval")) {
+				harness.firingInterval = Long.parseLong(value);
+			} else if (name.equals("moveSpeed")) {
+				harness.moveSpeed = Double.parseDouble(value);
+			} else if (name.equals("shotType")) {
+				harness.shotType = Game.ShotType.valueOf(value);
+			} else if (name.equals("seed")) {
+				harness.seed = Long.parseLong(value);
+			} else if (name.equals("history")) {
+				harness.recorder = new RunRecorder(new File(value));
+			} else {
+				throw new IllegalArgumentException("Unknown setting: "+name);
+			}
+		}
+
+		harness.run();
+	}
+}
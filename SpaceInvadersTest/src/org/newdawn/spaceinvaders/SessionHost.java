@@ -0,0 +1,136 @@
+package org.newdawn.spaceinvaders;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Hosts many independent game sessions in one JVM and reports how much
+ * memory each one costs and how many ticks per second the host manages.
+ * <p>
+ * Each session is a headless game with its own agent. Sessions run as
+ * small tasks that play a slice of ticks and then hand the thread back,
+ * so a small pool of threads can carry thousands of sessions, much as
+ * virtual threads would on a newer runtime.
+ * <p>
+ * Usage: SessionHost [sessions] [ticks per session] [threads]
+ *
+ * @author John
+ */
+public class SessionHost {
+	/** The number of ticks a session plays before giving up its thread */
+	private static final int SLICE = 20;
+	/** The time each tick simulates (ms) */
+	private static final long TICK = 10;
+
+	/** The pool the sessions run on */
+	private ExecutorService pool;
+	/** Counts down as each session finishes */
+	private CountDownLatch finished;
+
+	/**
+	 * A single hosted game session
+	 */
+	private class Session implements Runnable {
+		/** The game being played in this session */
+		private Game game;
+		/** The agent playing the game */
+		private Agent agent = new SweepAgent(Game.ShotType.SINGLE);
+		/** The number of ticks left to play */
+		private int ticksLeft;
+
+		/**
+		 * Create a new session
+		 *
+		 * @param store The sprite store shared by every session
+		 * @param seed The seed for the session's game
+		 * @param ticks The number of ticks to play
+		 */
+		private Session(SpriteStore store, long seed, int ticks) {
+			game = new Game(store, true);
+			game.getRandom().setSeed(seed);
+			ticksLeft = ticks;
+		}
+
+		/**
+		 * Play the next slice of ticks, then either reschedule the
+		 * session or report that it has finished
+		 */
+		public void run() {
+			InputQueue input = game.getInputQueue();
+
+			for (int i=0;(i<SLICE) && (ticksLeft > 0);i++,ticksLeft--) {
+				if (game.isWaitingForKeyPress()) {
+					input.offer(InputQueue.START, true);
+					game.tick(TICK);
+					agent.startRound(game);
+				} else {
+					agent.act(game, input);
+					game.tick(TICK);
+				}
+			}
+
+			if (ticksLeft > 0) {
+				pool.execute(this);
+			} else {
+				finished.countDown();
+			}
+		}
+	}
+
+	/**
+	 * Measure the heap in use after collecting as much garbage as we can
+	 *
+	 * @param memory The memory bean to query
+	 * @return The heap in use (bytes)
+	 */
+	private static long usedHeap(MemoryMXBean memory) {
+		for (int i=0;i<3;i++) {
+			System.gc();
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * The entry point for the session host
+	 *
+	 * @param argv The arguments: sessions, ticks per session, threads
+	 * @throws Exception Indicates the run failed
+	 */
+	public static void main(String argv[]) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+
+		int sessions = argv.length > 0 ? Integer.parseInt(argv[0]) : 1000;
+		int ticks = argv.length > 1 ? Integer.parseInt(argv[1]) : 1000;
+		int threads = argv.length > 2 ? Integer.parseInt(argv[2]) : Runtime.getRuntime().availableProcessors();
+
+		SessionHost host = new SessionHost();
+		SpriteStore store = SpriteStore.get();
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+		long before = usedHeap(memory);
+		Session[] all = new Session[sessions];
+		for (int i=0;i<sessions;i++) {
+			all[i] = host.new Session(store, i, ticks);
+		}
+		long after = usedHeap(memory);
+
+		host.pool = Executors.newFixedThreadPool(threads);
+		host.finished = new CountDownLatch(sessions);
+
+		long start = System.nanoTime();
+		for (int i=0;i<sessions;i++) {
+			host.pool.execute(all[i]);
+		}
+		host.finished.await();
+		double seconds = (System.nanoTime() - start) / 1000000000.0;
+		host.pool.shutdown();
+
+		System.out.printf("Sessions: %d on %d threads%n", sessions, threads);
+		System.out.printf("Memory per session: %.1f KB%n", (after - before) / 1024.0 / sessions);
+		System.out.printf("Ran %d ticks in %.2f s: %.0f ticks/sec%n",
+				(long) sessions * ticks, seconds, sessions * (double) ticks / seconds);
+	}
+}
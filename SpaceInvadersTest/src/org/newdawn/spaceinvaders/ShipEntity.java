@@ -1,13 +1,16 @@
 package org.newdawn.spaceinvaders;
 
+import java.nio.ByteBuffer;
+
 /**
  * The entity that represents the players ship
  * 
  * @author Kevin Glass
  */
 public class ShipEntity extends Entity implements Damageable{
-	/** The game in which the ship exists */
-	private Game game;
+        /** Logged each time the ship is hit */
+        private static final EventLog.Event DAMAGED = new EventLog.Event("ship.damaged", "damage", "health");
+        
         private int health;
 	
 	/**
@@ -19,9 +22,8 @@ public class ShipEntity extends Entity implements Damageable{
 	 * @param y The initial y location of the player's ship
 	 */
 	public ShipEntity(Game game,String ref,int x,int y, int _health) {
-		super(ref,x,y);
+		super(game,ref,x,y);
 		health = _health;
-		this.game = game;
 	}
 	
 	/**
@@ -58,10 +60,29 @@ public class ShipEntity extends Entity implements Damageable{
 		}
 	}
 
+        @Override
+        void writeState(ByteBuffer buffer){
+            super.writeState(buffer);
+            buffer.putInt(health);
+        }
+        
+        @Override
+        void readState(ByteBuffer buffer){
+            super.readState(buffer);
+            health = buffer.getInt();
+        }
+        
+        @Override
+        public int getHealth(){
+            return health;
+        }
+        
         @Override
         public void takeDamage(int _damage) {
             health -= _damage;
-            System.out.println("Ship damage");
+            if (game.isLoggingEvents()) {
+                EventLog.log(EventLog.INFO, DAMAGED, _damage, health);
+            }
             if(health <= 0){
                 die();
             }
@@ -1,5 +1,7 @@
 package org.newdawn.spaceinvaders;
 
+import java.nio.ByteBuffer;
+
 /**
  * An entity representing a shot fired by the player's ship
  * 
@@ -8,8 +10,6 @@ package org.newdawn.spaceinvaders;
 public class ShotEntity extends Entity {
 	/** The vertical speed at which the players shot moves */
 	private double moveSpeed = -600;
-	/** The game in which this entity exists */
-	protected Game game;
 	/** True if this shot has been "used", i.e. its hit something */
 	private boolean used = false;
         
@@ -28,13 +28,47 @@ public class ShotEntity extends Entity {
 	 * @param y The initial y location of the shot
 	 */
 	public ShotEntity(Game game,String sprite,int x,int y, double _speedMod, float _angle, int _damage, boolean _playerProj) {
-		super(sprite,x,y);
+		super(game,sprite,x,y);
 		
-		this.game = game;
 		playerProj = _playerProj;
                 damage = _damage;
                 moveSpeed /= _speedMod;
                 angle = _angle;
+                aim();
+	}
+	
+	/**
+	 * Create a new shot from a row of a bullet pattern, with its
+	 * velocity already worked out when the pattern was compiled
+	 * 
+	 * @param game The game in which the shot has been created
+	 * @param sprite The sprite representing this shot
+	 * @param x The initial x location of the shot
+	 * @param y The initial y location of the shot
+	 * @param _moveSpeed The speed of the shot along its angle (pixels/sec)
+	 * @param _angle The angle the shot was fired at (degrees)
+	 * @param _dx The horizontal speed of the shot (pixels/sec)
+	 * @param _dy The vertical speed of the shot (pixels/sec)
+	 * @param _damage The damage the shot does
+	 * @param _playerProj True if the player fired the shot
+	 */
+	public ShotEntity(Game game,Sprite sprite,int x,int y, double _moveSpeed, float _angle, double _dx, double _dy, int _damage, boolean _playerProj) {
+		super(game,sprite,x,y);
+		
+		playerProj = _playerProj;
+                damage = _damage;
+                moveSpeed = _moveSpeed;
+                angle = _angle;
+                dx = _dx;
+                dy = _dy;
+	}
+	
+	/**
+	 * Point the shot's velocity along its angle. Shots fly straight,
+	 * so this is only needed when the angle changes, not every move.
+	 */
+	private void aim() {
+                super.translate(Math.cos(Math.toRadians(angle)) * moveSpeed, Math.sin(Math.toRadians(angle)) * moveSpeed);
 	}
 
 	/**
@@ -43,17 +77,27 @@ public class ShotEntity extends Entity {
 	 * @param delta The time that has elapsed since last move
 	 */
 	public void move(long delta) {
-                super.translate((double)Math.cos(Math.toRadians(angle)) * moveSpeed, (double)Math.sin(Math.toRadians(angle)) * moveSpeed);
                 super.move(delta);
                 
-                // if we shot off the screen, remove ourselfs
-		if (y < -100) {
+                // if we shot off the screen, remove ourselfs. Alien shots
+                // leave through the bottom and spread shots out the sides
+		if ((y < -100) || (y > 900) || (x < -100) || (x > 900)) {
 			game.removeEntity(this);
 		}
 	}
 	
+        /**
+         * Check who fired this shot
+         *
+         * @return True if the player fired this shot, false if an alien did
+         */
+        public boolean isPlayerProjectile(){
+            return playerProj;
+        }
+        
         public void rotate(float _angle){
             angle += _angle;
+            aim();
         }
         
         public float getAngle(){
@@ -61,6 +105,57 @@ public class ShotEntity extends Entity {
         }
         public void setAngle(float _angle){
             angle = _angle;
+            aim();
+        }
+        
+        @Override
+        void writeState(ByteBuffer buffer){
+            super.writeState(buffer);
+            buffer.putDouble(moveSpeed);
+            buffer.put((byte) ((used ? 1 : 0) | (playerProj ? 2 : 0)));
+            buffer.putFloat(angle);
+            buffer.putInt(damage);
+        }
+        
+        @Override
+        void readState(ByteBuffer buffer){
+            super.readState(buffer);
+            moveSpeed = buffer.getDouble();
+            byte flags = buffer.get();
+            used = (flags & 1) != 0;
+            playerProj = (flags & 2) != 0;
+            angle = buffer.getFloat();
+            damage = buffer.getInt();
+        }
+        
+        /**
+         * Check if this shot has already hit something
+         *
+         * @return True if the shot has been used up
+         */
+        public boolean isUsed(){
+            return used;
+        }
+        
+        /**
+         * Notification that this shot has hit a bunker. The shot is
+         * spent just as if it had hit an entity.
+         */
+        public void hitTerrain(){
+            used = true;
+            onDestroy();
+            game.removeEntity(this);
+        }
+        
+        /**
+         * Shots move far enough in a tick to skip over an alien, so
+         * their collisions are always swept
+         *
+         * @return True, always
+         */
+        @Override
+        public boolean isSwept(){
+            return true;
         }
         
         @Override
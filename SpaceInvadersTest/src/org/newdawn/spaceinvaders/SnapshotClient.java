@@ -0,0 +1,362 @@
+package org.newdawn.spaceinvaders;
+
+import java.awt.Canvas;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferStrategy;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+
+/**
+ * A thin renderer for a game running in a GameServer. The client
+ * holds no game logic at all, it forwards key presses to the server
+ * and draws whatever the latest snapshot says is there.
+ * <p>
+ * The network side can also be used without a window, which is how
+ * the loopback check drives it.
+ *
+ * @author John
+ */
+public class SnapshotClient extends Canvas {
+	/** The version of the serialized form */
+	private static final long serialVersionUID = 1L;
+	/** The longest message the incoming buffer will grow to hold, anything longer is taken as a broken stream */
+	private static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+	/** The channel to the server */
+	private SocketChannel channel;
+	/** The buffer incoming messages are assembled in */
+	private ByteBuffer in = ByteBuffer.allocateDirect(256 * 1024);
+	/** The buffer outgoing input messages are built in */
+	private ByteBuffer out = ByteBuffer.allocate(GameServer.INPUT_MESSAGE_SIZE);
+	/** The table of entities rebuilt from the snapshots */
+	private SnapshotDecoder decoder = new SnapshotDecoder();
+	/** The sprite references sent by the server, indexed by sprite id */
+	private ArrayList spriteRefs = new ArrayList();
+	/** The sprites resolved locally, indexed by sprite id */
+	private ArrayList sprites = new ArrayList();
+	/** The server tick of the latest snapshot */
+	private int tick;
+	/** The flags of the latest snapshot */
+	private int flags;
+	/** The time stamp of the last input the server has acknowledged */
+	private long lastAck;
+	/** The stratagy used to draw the window, null if there isn't one */
+	private BufferStrategy strategy;
+
+	/** The number of latency samples taken */
+	private int latencySamples;
+	/** The latency samples taken, in the order they were taken (ns) */
+	private long[] latencies = new long[4096];
+
+	/**
+	 * Connect to a server
+	 *
+	 * @param host The host the server is running on
+	 * @param port The port the server is listening on
+	 * @throws IOException Indicates the connection failed
+	 */
+	public SnapshotClient(String host, int port) throws IOException {
+		channel = SocketChannel.open(new InetSocketAddress(host, port));
+		channel.socket().setTcpNoDelay(true);
+		in.flip();
+	}
+
+	/**
+	 * Send an input event to the server. This may be called from any
+	 * thread.
+	 *
+	 * @param action The action (one of the InputQueue constants)
+	 * @param pressed True if the action started, false if it ended
+	 * @throws IOException Indicates the connection failed
+	 */
+	public synchronized void sendInput(int action, boolean pressed) throws IOException {
+		out.clear();
+		out.put((byte) action);
+		out.put((byte) (pressed ? 1 : 0));
+		out.putLong(System.nanoTime());
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+	}
+
+	/**
+	 * Block until the next snapshot has been received and applied
+	 *
+	 * @throws IOException Indicates the connection failed
+	 */
+	public void readSnapshot() throws IOException {
+		while (readMessage() != SnapshotEncoder.MSG_SNAPSHOT) {
+			// sprite tables are handled as they arrive
+		}
+	}
+
+	/**
+	 * Block until the next message has been received and process it
+	 *
+	 * @return The type of the message
+	 * @throws IOException Indicates the connection failed
+	 */
+	private byte readMessage() throws IOException {
+		fill(4);
+		int length = in.getInt();
+		if ((length < 1) || (length > MAX_MESSAGE_SIZE)) {
+			throw new IOException("Bad message length from server: "+length);
+		}
+		fill(length);
+
+		int end = in.position() + length;
+		byte type = in.get();
+
+		if (type == SnapshotEncoder.MSG_SPRITES) {
+			int first = in.getShort();
+			int count = in.getShort();
+			for (int i=0;i<count;i++) {
+				byte[] ref = new byte[in.getShort()];
+				in.get(ref);
+				spriteRefs.add(first + i, new String(ref, StandardCharsets.UTF_8));
+			}
+		} else if (type == SnapshotEncoder.MSG_SNAPSHOT) {
+			tick = in.getInt();
+			flags = in.get();
+			long ack = in.getLong();
+			decoder.apply(in, (flags & SnapshotEncoder.FLAG_KEYFRAME) != 0);
+
+			// the first snapshot to echo a new time stamp is the first
+			// one that reflects that input
+			if ((ack != 0) && (ack != lastAck)) {
+				lastAck = ack;
+				latencies[latencySamples++ % latencies.length] = System.nanoTime() - ack;
+			}
+		}
+
+		in.position(end);
+		return type;
+	}
+
+	/**
+	 * Make sure the given number of bytes are waiting in the buffer,
+	 * growing it first if they wouldn't fit
+	 *
+	 * @param bytes The number of bytes required
+	 * @throws IOException Indicates the connection failed
+	 */
+	private void fill(int bytes) throws IOException {
+		if (in.remaining() >= bytes) {
+			return;
+		}
+		if (bytes > in.capacity()) {
+			ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(bytes, in.capacity() * 2));
+			bigger.put(in);
+			bigger.flip();
+			in = bigger;
+		}
+		in.compact();
+		while (in.position() < bytes) {
+			if (channel.read(in) < 0) {
+				throw new EOFException("Server closed the connection");
+			}
+		}
+		in.flip();
+	}
+
+	/**
+	 * Get the table of entities from the latest snapshot
+	 *
+	 * @return The decoded entity table
+	 */
+	public SnapshotDecoder getEntities() {
+		return decoder;
+	}
+
+	/**
+	 * Get the server tick of the latest snapshot
+	 *
+	 * @return The server tick
+	 */
+	public int getTick() {
+		return tick;
+	}
+
+	/**
+	 * Get the end to end latency samples taken so far, from an input
+	 * being sent to the first snapshot that reflects it arriving
+	 *
+	 * @return A copy of the latency samples (ns)
+	 */
+	public long[] getLatencies() {
+		long[] result = new long[Math.min(latencySamples, latencies.length)];
+		System.arraycopy(latencies, 0, result, 0, result.length);
+		return result;
+	}
+
+	/**
+	 * Close the connection to the server
+	 */
+	public void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// we're going away anyway
+		}
+	}
+
+	/**
+	 * Create a window for the client to draw into and forward the
+	 * keyboard to the server.
+	 */
+	private void createDisplay() {
+		JFrame container = new JFrame("Space Invaders 101 - Spectator");
+
+		JPanel panel = (JPanel) container.getContentPane();
+		panel.setPreferredSize(new Dimension(800,800));
+		panel.setLayout(null);
+
+		setBounds(0,0,800,800);
+		panel.add(this);
+		setIgnoreRepaint(true);
+
+		container.pack();
+		container.setResizable(false);
+		container.setVisible(true);
+		container.addWindowListener(new WindowAdapter() {
+			public void windowClosing(WindowEvent e) {
+				System.exit(0);
+			}
+		});
+
+		addKeyListener(new KeyForwarder());
+		requestFocus();
+
+		createBufferStrategy(2);
+		strategy = getBufferStrategy();
+	}
+
+	/**
+	 * Draw the latest snapshot
+	 */
+	private void render() {
+		Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+		g.setColor(new Color(209, 238, 84));
+		g.fillRect(0,0,800,800);
+
+		for (int i=0;i<decoder.getCount();i++) {
+			Sprite sprite = getSprite(decoder.getSprite(i));
+			if (sprite != null) {
+				sprite.draw(g, decoder.getX(i), decoder.getY(i));
+			}
+		}
+
+		if ((flags & SnapshotEncoder.FLAG_WAITING) != 0) {
+			g.setColor(Color.black);
+			g.drawString("Press any key",(800-g.getFontMetrics().stringWidth("Press any key"))/2,300);
+		}
+
+		g.dispose();
+		strategy.show();
+	}
+
+	/**
+	 * Resolve a sprite id from the server to a locally loaded sprite
+	 *
+	 * @param id The server's id for the sprite
+	 * @return The local sprite or null if the id hasn't been seen
+	 */
+	private Sprite getSprite(int id) {
+		while (sprites.size() < spriteRefs.size()) {
+			sprites.add(SpriteStore.get().getSprite((String) spriteRefs.get(sprites.size())));
+		}
+		return id < sprites.size() ? (Sprite) sprites.get(id) : null;
+	}
+
+	/**
+	 * Forwards key presses to the server as input events
+	 */
+	private class KeyForwarder extends KeyAdapter {
+		/**
+		 * Convert a key code into an input action
+		 *
+		 * @param keyCode The key code from AWT
+		 * @return The matching action or -1 if the key isn't used
+		 */
+		private int toAction(int keyCode) {
+			switch (keyCode) {
+				case KeyEvent.VK_LEFT: return InputQueue.LEFT;
+				case KeyEvent.VK_RIGHT: return InputQueue.RIGHT;
+				case KeyEvent.VK_SPACE: return InputQueue.FIRE_SINGLE;
+				case KeyEvent.VK_CONTROL: return InputQueue.FIRE_TRIPLE;
+				case KeyEvent.VK_SHIFT: return InputQueue.FIRE_DOUBLE;
+				case KeyEvent.VK_Z: return InputQueue.FIRE_BOMB;
+				default: return -1;
+			}
+		}
+
+		public void keyPressed(KeyEvent e) {
+			send(toAction(e.getKeyCode()), true);
+		}
+
+		public void keyReleased(KeyEvent e) {
+			send(toAction(e.getKeyCode()), false);
+		}
+
+		public void keyTyped(KeyEvent e) {
+			if ((flags & SnapshotEncoder.FLAG_WAITING) != 0) {
+				send(InputQueue.START, true);
+			}
+			if (e.getKeyChar() == 27) {
+				System.exit(0);
+			}
+		}
+
+		/**
+		 * Send an action to the server, ignoring unused keys
+		 *
+		 * @param action The action or -1 for none
+		 * @param pressed True if the key went down
+		 */
+		private void send(int action, boolean pressed) {
+			if (action < 0) {
+				return;
+			}
+			try {
+				sendInput(action, pressed);
+			} catch (IOException ex) {
+				System.err.println("Lost connection to server: "+ex.getMessage());
+				System.exit(0);
+			}
+		}
+	}
+
+	/**
+	 * The entry point for a spectator/coop renderer
+	 *
+	 * @param argv The arguments, optionally the host and port of the server
+	 * @throws IOException Indicates the connection failed
+	 */
+	public static void main(String argv[]) throws IOException {
+		String host = argv.length > 0 ? argv[0] : "127.0.0.1";
+		int port = argv.length > 1 ? Integer.parseInt(argv[1]) : 4057;
+
+		SnapshotClient client = new SnapshotClient(host, port);
+		client.createDisplay();
+
+		// the server paces us, so just draw every snapshot as it arrives
+		while (true) {
+			client.readSnapshot();
+			client.render();
+		}
+	}
+}
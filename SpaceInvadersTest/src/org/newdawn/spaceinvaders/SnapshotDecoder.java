@@ -0,0 +1,175 @@
+package org.newdawn.spaceinvaders;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Rebuilds the entity table on the renderer side from the snapshots
+ * written by a SnapshotEncoder. The table is kept ordered by id so
+ * each delta can be merged into it in a single pass.
+ *
+ * @author John
+ */
+public class SnapshotDecoder {
+	/** The ids of the entities currently known */
+	private int[] ids = new int[64];
+	/** The sprite ids of the entities currently known */
+	private int[] sprites = new int[64];
+	/** The x positions of the entities currently known */
+	private int[] xs = new int[64];
+	/** The y positions of the entities currently known */
+	private int[] ys = new int[64];
+	/** The number of entities currently known */
+	private int count;
+
+	/** The ids of the table being merged, swapped in once complete */
+	private int[] nextIds = new int[64];
+	/** The sprite ids of the table being merged */
+	private int[] nextSprites = new int[64];
+	/** The x positions of the table being merged */
+	private int[] nextXs = new int[64];
+	/** The y positions of the table being merged */
+	private int[] nextYs = new int[64];
+
+	/**
+	 * Apply a block of snapshot records to the table
+	 *
+	 * @param in The buffer holding the records, positioned at the record count
+	 * @param keyframe True if the records replace the table rather than update it
+	 */
+	public void apply(ByteBuffer in, boolean keyframe) {
+		if (keyframe) {
+			count = 0;
+		}
+
+		int records = in.getInt();
+		int lastId = 0;
+		int p = 0;
+		int n = 0;
+
+		for (int r=0;r<records;r++) {
+			int id = lastId + SnapshotEncoder.getVarInt(in);
+			lastId = id;
+			byte op = in.get();
+
+			// carry over everything before this record untouched
+			while ((p < count) && (ids[p] < id)) {
+				n = copy(p++, n);
+			}
+
+			switch (op) {
+				case SnapshotEncoder.OP_NEW:
+					n = put(n, id, in.getShort(), in.getShort(), in.getShort());
+					break;
+				case SnapshotEncoder.OP_REMOVE:
+					p++;
+					break;
+				case SnapshotEncoder.OP_MOVE_SMALL:
+					n = put(n, id, sprites[p], xs[p] + in.get(), ys[p] + in.get());
+					p++;
+					break;
+				case SnapshotEncoder.OP_MOVE:
+					n = put(n, id, sprites[p], in.getShort(), in.getShort());
+					p++;
+					break;
+				default:
+					throw new IllegalStateException("Unknown snapshot record: "+op);
+			}
+		}
+
+		while (p < count) {
+			n = copy(p++, n);
+		}
+
+		int[] t = ids; ids = nextIds; nextIds = t;
+		t = sprites; sprites = nextSprites; nextSprites = t;
+		t = xs; xs = nextXs; nextXs = t;
+		t = ys; ys = nextYs; nextYs = t;
+		count = n;
+	}
+
+	/**
+	 * Copy an entry from the current table into the next one
+	 *
+	 * @param p The index in the current table
+	 * @param n The index in the next table
+	 * @return The index of the next free slot in the next table
+	 */
+	private int copy(int p, int n) {
+		return put(n, ids[p], sprites[p], xs[p], ys[p]);
+	}
+
+	/**
+	 * Write an entry into the next table, growing it if needed
+	 *
+	 * @param n The index in the next table
+	 * @param id The id of the entity
+	 * @param sprite The sprite id of the entity
+	 * @param x The x position of the entity
+	 * @param y The y position of the entity
+	 * @return The index of the next free slot in the next table
+	 */
+	private int put(int n, int id, int sprite, int x, int y) {
+		if (n == nextIds.length) {
+			int size = n * 2;
+			nextIds = Arrays.copyOf(nextIds, size);
+			nextSprites = Arrays.copyOf(nextSprites, size);
+			nextXs = Arrays.copyOf(nextXs, size);
+			nextYs = Arrays.copyOf(nextYs, size);
+		}
+		nextIds[n] = id;
+		nextSprites[n] = sprite;
+		nextXs[n] = x;
+		nextYs[n] = y;
+		return n + 1;
+	}
+
+	/**
+	 * Get the number of entities currently known
+	 *
+	 * @return The number of entities
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Get the id of an entity in the table
+	 *
+	 * @param index The index of the entity in the table
+	 * @return The id of the entity
+	 */
+	public int getId(int index) {
+		return ids[index];
+	}
+
+	/**
+	 * Get the sprite id of an entity in the table
+	 *
+	 * @param index The index of the entity in the table
+	 * @return The sprite id of the entity
+	 */
+	public int getSprite(int index) {
+		return sprites[index];
+	}
+
+	/**
+	 * Get the x position of an entity in the table
+	 *
+	 * @param index The index of the entity in the table
+	 * @return The x position of the entity
+	 */
+	public int getX(int index) {
+		return xs[index];
+	}
+
+	/**
+	 * Get the y position of an entity in the table
+	 *
+	 * @param index The index of the entity in the table
+	 * @return The y position of the entity
+	 */
+	public int getY(int index) {
+		return ys[index];
+	}
+}
@@ -0,0 +1,266 @@
+package org.newdawn.spaceinvaders;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Builds compact snapshots of the entities in a game for sending to
+ * remote renderers.
+ * <p>
+ * Each entity is reduced to its id, sprite id and position quantized
+ * to whole pixels. Snapshots are delta compressed against the previous
+ * one, so an entity that hasn't moved costs nothing, a small move
+ * costs a couple of bytes and only new entities carry their sprite.
+ * Records are written in increasing id order with the id stored as a
+ * variable length difference from the previous record.
+ * <p>
+ * The capture arrays are reused between ticks so encoding doesn't
+ * allocate once the arrays have grown to the size of the world.
+ *
+ * @author John
+ */
+public class SnapshotEncoder {
+	/** Message type for the table of sprite references */
+	public static final byte MSG_SPRITES = 1;
+	/** Message type for an entity snapshot */
+	public static final byte MSG_SNAPSHOT = 2;
+
+	/** Snapshot flag set while the game is waiting for a key press */
+	public static final int FLAG_WAITING = 1;
+	/** Snapshot flag set when the snapshot isn't relative to the previous one */
+	public static final int FLAG_KEYFRAME = 2;
+
+	/** Record for an entity that has just appeared: sprite, x, y as shorts */
+	public static final byte OP_NEW = 1;
+	/** Record for an entity that has been removed */
+	public static final byte OP_REMOVE = 2;
+	/** Record for an entity that moved a little: dx, dy as bytes */
+	public static final byte OP_MOVE_SMALL = 3;
+	/** Record for an entity that moved a long way: x, y as shorts */
+	public static final byte OP_MOVE = 4;
+
+	/** The ids of the entities in the last committed snapshot */
+	private int[] prevIds = new int[0];
+	/** The x positions of the entities in the last committed snapshot */
+	private int[] prevX = new int[0];
+	/** The y positions of the entities in the last committed snapshot */
+	private int[] prevY = new int[0];
+	/** The number of entities in the last committed snapshot */
+	private int prevCount;
+
+	/** The ids of the entities captured this tick */
+	private int[] ids = new int[0];
+	/** The sprite ids of the entities captured this tick */
+	private int[] sprites = new int[0];
+	/** The x positions of the entities captured this tick */
+	private int[] xs = new int[0];
+	/** The y positions of the entities captured this tick */
+	private int[] ys = new int[0];
+	/** The number of entities captured this tick */
+	private int count;
+
+	/**
+	 * Capture the current state of the given entities
+	 *
+	 * @param entities The entities to capture
+	 */
+	public void capture(List entities) {
+		count = entities.size();
+		ids = ensureCapacity(ids, count);
+		sprites = ensureCapacity(sprites, count);
+		xs = ensureCapacity(xs, count);
+		ys = ensureCapacity(ys, count);
+
+		for (int i=0;i<count;i++) {
+			Entity entity = (Entity) entities.get(i);
+
+			ids[i] = entity.getId();
+			sprites[i] = entity.getSprite().getId();
+			xs[i] = quantize(entity.getX());
+			ys[i] = quantize(entity.getY());
+		}
+
+		// the game keeps its entities in id order, but make sure of it
+		// since the delta relies on it. This is linear on sorted input
+		for (int i=1;i<count;i++) {
+			int id = ids[i];
+			if (ids[i-1] <= id) {
+				continue;
+			}
+			int sprite = sprites[i], x = xs[i], y = ys[i];
+			int j = i - 1;
+			while ((j >= 0) && (ids[j] > id)) {
+				ids[j+1] = ids[j];
+				sprites[j+1] = sprites[j];
+				xs[j+1] = xs[j];
+				ys[j+1] = ys[j];
+				j--;
+			}
+			ids[j+1] = id;
+			sprites[j+1] = sprite;
+			xs[j+1] = x;
+			ys[j+1] = y;
+		}
+	}
+
+	/**
+	 * Write the changes between the last committed snapshot and the
+	 * state captured this tick.
+	 *
+	 * @param out The buffer to write the records to
+	 * @return The number of records written
+	 */
+	public int encodeDelta(ByteBuffer out) {
+		int countPosition = out.position();
+		out.putInt(0);
+
+		int records = 0;
+		int lastId = 0;
+		int p = 0;
+		int c = 0;
+
+		// walk both id ordered lists together
+		while ((p < prevCount) || (c < count)) {
+			int prevId = p < prevCount ? prevIds[p] : Integer.MAX_VALUE;
+			int curId = c < count ? ids[c] : Integer.MAX_VALUE;
+
+			if (prevId == curId) {
+				int dx = xs[c] - prevX[p];
+				int dy = ys[c] - prevY[p];
+
+				if ((dx != 0) || (dy != 0)) {
+					putVarInt(out, curId - lastId);
+					lastId = curId;
+					if ((dx >= -128) && (dx <= 127) && (dy >= -128) && (dy <= 127)) {
+						out.put(OP_MOVE_SMALL);
+						out.put((byte) dx);
+						out.put((byte) dy);
+					} else {
+						out.put(OP_MOVE);
+						out.putShort((short) xs[c]);
+						out.putShort((short) ys[c]);
+					}
+					records++;
+				}
+				p++;
+				c++;
+			} else if (curId < prevId) {
+				putVarInt(out, curId - lastId);
+				lastId = curId;
+				putNew(out, c);
+				records++;
+				c++;
+			} else {
+				putVarInt(out, prevId - lastId);
+				lastId = prevId;
+				out.put(OP_REMOVE);
+				records++;
+				p++;
+			}
+		}
+
+		out.putInt(countPosition, records);
+		return records;
+	}
+
+	/**
+	 * Write the complete state captured this tick, for a renderer that
+	 * has no previous snapshot to apply a delta to.
+	 *
+	 * @param out The buffer to write the records to
+	 * @return The number of records written
+	 */
+	public int encodeFull(ByteBuffer out) {
+		out.putInt(count);
+
+		int lastId = 0;
+		for (int c=0;c<count;c++) {
+			putVarInt(out, ids[c] - lastId);
+			lastId = ids[c];
+			putNew(out, c);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Make the state captured this tick the base for the next delta
+	 */
+	public void commit() {
+		int[] t = prevIds; prevIds = ids; ids = t;
+		t = prevX; prevX = xs; xs = t;
+		t = prevY; prevY = ys; ys = t;
+		prevCount = count;
+	}
+
+	/**
+	 * Make sure a capture array can hold the given number of entities
+	 *
+	 * @param array The array to check
+	 * @param size The number of entities it must hold
+	 * @return The array or a larger replacement
+	 */
+	private static int[] ensureCapacity(int[] array, int size) {
+		if (array.length >= size) {
+			return array;
+		}
+		return new int[Math.max(size, array.length * 2)];
+	}
+
+	/**
+	 * Write a record for a newly appeared entity
+	 *
+	 * @param out The buffer to write to
+	 * @param c The index of the entity in the captured state
+	 */
+	private void putNew(ByteBuffer out, int c) {
+		out.put(OP_NEW);
+		out.putShort((short) sprites[c]);
+		out.putShort((short) xs[c]);
+		out.putShort((short) ys[c]);
+	}
+
+	/**
+	 * Clamp a position into the range that fits in a short
+	 *
+	 * @param value The position in pixels
+	 * @return The clamped position
+	 */
+	private static int quantize(int value) {
+		return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+	}
+
+	/**
+	 * Write a non-negative integer using 7 bits per byte
+	 *
+	 * @param out The buffer to write to
+	 * @param value The value to write
+	 */
+	static void putVarInt(ByteBuffer out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	/**
+	 * Read a non-negative integer written by putVarInt()
+	 *
+	 * @param in The buffer to read from
+	 * @return The value read
+	 */
+	static int getVarInt(ByteBuffer in) {
+		int value = 0;
+		int shift = 0;
+		int b;
+
+		do {
+			b = in.get();
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+
+		return value;
+	}
+}
@@ -15,6 +15,10 @@ import java.awt.Image;
 public class Sprite {
 	/** The image to be drawn for this sprite */
 	private Image image;
+	/** The id given to this sprite by the store that loaded it */
+	private int id;
+	/** The reference the sprite was loaded from */
+	private String ref;
 	
 	/**
 	 * Create a new sprite based on an image
@@ -22,7 +26,39 @@ public class Sprite {
 	 * @param image The image that is this sprite
 	 */
 	public Sprite(Image image) {
+		this(image,-1,null);
+	}
+	
+	/**
+	 * Create a new sprite based on an image loaded from a reference
+	 * 
+	 * @param image The image that is this sprite
+	 * @param id The id given to this sprite by the store
+	 * @param ref The reference the image was loaded from
+	 */
+	public Sprite(Image image,int id,String ref) {
 		this.image = image;
+		this.id = id;
+		this.ref = ref;
+	}
+	
+	/**
+	 * Get the id given to this sprite by the store. Ids are small
+	 * integers which makes them cheap to send over the wire.
+	 * 
+	 * @return The id of this sprite
+	 */
+	public int getId() {
+		return id;
+	}
+	
+	/**
+	 * Get the reference this sprite was loaded from
+	 * 
+	 * @return The reference of the sprite's image
+	 */
+	public String getRef() {
+		return ref;
 	}
 	
 	/**
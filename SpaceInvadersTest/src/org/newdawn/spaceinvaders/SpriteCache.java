@@ -0,0 +1,127 @@
+package org.newdawn.spaceinvaders;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.HashMap;
+
+import javax.imageio.ImageIO;
+
+/**
+ * A cache of sprite images that have already been decoded into raw
+ * pixels. The build writes the cache next to the sprites so that at
+ * start up the sprite store can read the pixels straight in, without
+ * starting up ImageIO and its image decoders.
+ * <p>
+ * The cache is a simple binary file: a magic number, the number of
+ * sprites and then for each sprite its reference, width, height and
+ * ARGB pixels.
+ *
+ * @author John
+ */
+public class SpriteCache {
+	/** The reference the cache is stored under on the class path */
+	public static final String CACHE_REF = "sprites/sprites.cache";
+	/** The magic number at the start of a cache file */
+	private static final int MAGIC = 0x53494331;
+
+	/**
+	 * Read the cache from the class path if it's there
+	 *
+	 * @param loader The class loader to find the cache with
+	 * @return A map from sprite reference to decoded image, or null if there's no usable cache
+	 */
+	public static HashMap load(ClassLoader loader) {
+		URL url = loader.getResource(CACHE_REF);
+		if (url == null) {
+			return null;
+		}
+
+		HashMap images = new HashMap();
+		try {
+			InputStream stream = url.openStream();
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+				if (in.readInt() != MAGIC) {
+					return null;
+				}
+
+				int count = in.readInt();
+				for (int i=0;i<count;i++) {
+					String ref = in.readUTF();
+					int width = in.readShort();
+					int height = in.readShort();
+					int[] pixels = new int[width * height];
+					for (int p=0;p<pixels.length;p++) {
+						pixels[p] = in.readInt();
+					}
+
+					BufferedImage image = new BufferedImage(width,height,BufferedImage.TYPE_INT_ARGB);
+					image.setRGB(0,0,width,height,pixels,0,width);
+					images.put(ref,image);
+				}
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			// a broken cache just means we decode the images as normal
+			return null;
+		}
+
+		return images;
+	}
+
+	/**
+	 * Decode the given sprites and write them to a cache file
+	 *
+	 * @param file The file to write the cache to
+	 * @param refs The references of the sprites to cache
+	 * @throws IOException Indicates a sprite couldn't be read or the cache written
+	 */
+	public static void write(File file, String[] refs) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(refs.length);
+
+			for (int i=0;i<refs.length;i++) {
+				URL url = SpriteCache.class.getClassLoader().getResource(refs[i]);
+				if (url == null) {
+					throw new IOException("Can't find ref: "+refs[i]);
+				}
+
+				BufferedImage image = ImageIO.read(url);
+				int width = image.getWidth();
+				int height = image.getHeight();
+				int[] pixels = image.getRGB(0,0,width,height,null,0,width);
+
+				out.writeUTF(refs[i]);
+				out.writeShort(width);
+				out.writeShort(height);
+				for (int p=0;p<pixels.length;p++) {
+					out.writeInt(pixels[p]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Build the cache for the game's sprites, run as part of the build
+	 *
+	 * @param argv The arguments, the file to write the cache to
+	 * @throws IOException Indicates the cache couldn't be written
+	 */
+	public static void main(String argv[]) throws IOException {
+		System.setProperty("java.awt.headless", "true");
+		write(new File(argv[0]), SpriteStore.DEFAULT_SPRITES);
+	}
+}
@@ -7,7 +7,9 @@ import java.awt.Transparency;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Map;
 
 import javax.imageio.ImageIO;
 
@@ -17,25 +19,85 @@ import javax.imageio.ImageIO;
  * it makes sense to have a central resource loader that goes away, gets
  * your resources and caches them for future use.
  * <p>
- * [singleton]
+ * The store loads every sprite it will ever hold when it's created and
+ * never changes after that, so a single store can be shared by any
+ * number of games running on any number of threads without locking.
+ * Each sprite is given a small id in the order it was listed.
  * <p>
  * @author Kevin Glass
  */
 public class SpriteStore {
-	/** The single instance of this class */
-	private static SpriteStore single = new SpriteStore();
+	/** The sprites used by the game, in id order */
+	public static final String[] DEFAULT_SPRITES = {
+		"sprites/ship.gif", "sprites/alien.gif", "sprites/largeAlien.gif",
+		"sprites/projectileAlien.gif", "sprites/shot.gif", "sprites/alienShot.gif",
+		"sprites/roundShot.gif"
+	};
 	
 	/**
-	 * Get the single instance of this class 
+	 * Holds the shared store, so it's only loaded the first time
+	 * it's asked for
+	 */
+	private static class Shared {
+		/** The store shared by every game */
+		private static final SpriteStore STORE = new SpriteStore(DEFAULT_SPRITES);
+	}
+	
+	/**
+	 * Get the store holding the game's sprites, shared by every game
+	 * in the JVM
 	 * 
-	 * @return The single instance of this class
+	 * @return The shared sprite store
 	 */
 	public static SpriteStore get() {
-		return single;
+		return Shared.STORE;
+	}
+	
+	/**
+	 * Get the id a sprite has in a store of the default sprites, for
+	 * things worked out ahead of time without a store to hand
+	 * 
+	 * @param ref The reference to the image of the sprite
+	 * @return The id of the sprite
+	 */
+	public static int getDefaultId(String ref) {
+		for (int i=0;i<DEFAULT_SPRITES.length;i++) {
+			if (DEFAULT_SPRITES[i].equals(ref)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Not a default sprite: "+ref);
 	}
 	
-	/** The cached sprite map, from reference to sprite instance */
-	private HashMap sprites = new HashMap();
+	/** The sprite map, from reference to sprite instance */
+	private final Map sprites;
+	/** The sprites indexed by id */
+	private final Sprite[] spritesById;
+	
+	/**
+	 * Create a new store holding the given sprites
+	 * 
+	 * @param refs The references to the images to load, in id order
+	 */
+	public SpriteStore(String[] refs) {
+		HashMap map = new HashMap();
+		
+		// the build leaves the images already decoded in a cache,
+		// which saves starting up ImageIO at all
+		HashMap cached = SpriteCache.load(getClass().getClassLoader());
+		
+		spritesById = new Sprite[refs.length];
+		for (int i=0;i<refs.length;i++) {
+			BufferedImage sourceImage = cached == null ? null : (BufferedImage) cached.get(refs[i]);
+			if (sourceImage == null) {
+				sourceImage = readImage(refs[i]);
+			}
+			spritesById[i] = createSprite(sourceImage,refs[i],i);
+			map.put(refs[i],spritesById[i]);
+		}
+		
+		sprites = Collections.unmodifiableMap(map);
+	}
 	
 	/**
 	 * Retrieve a sprite from the store
@@ -44,13 +106,23 @@ public class SpriteStore {
 	 * @return A sprite instance containing an accelerate image of the request reference
 	 */
 	public Sprite getSprite(String ref) {
-		// if we've already got the sprite in the cache
-		// then just return the existing version
-		if (sprites.get(ref) != null) {
-			return (Sprite) sprites.get(ref);
+		Sprite sprite = (Sprite) sprites.get(ref);
+		
+		if (sprite == null) {
+			fail("Sprite not in store: "+ref);
 		}
 		
-		// otherwise, go away and grab the sprite from the resource
+		return sprite;
+	}
+	
+	/**
+	 * Decode the image for a sprite
+	 * 
+	 * @param ref The reference to the image to use for the sprite
+	 * @return The decoded image
+	 */
+	private BufferedImage readImage(String ref) {
+		// go away and grab the sprite from the resource
 		// loader
 		BufferedImage sourceImage = null;
 		
@@ -71,18 +143,53 @@ public class SpriteStore {
 			fail("Failed to load: "+ref);
 		}
 		
-		// create an accelerated image of the right size to store our sprite in
-		GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
-		Image image = gc.createCompatibleImage(sourceImage.getWidth(),sourceImage.getHeight(),Transparency.BITMASK);
+		return sourceImage;
+	}
+	
+	/**
+	 * Create a sprite from its decoded image
+	 * 
+	 * @param sourceImage The decoded image
+	 * @param ref The reference the image was loaded from
+	 * @param id The id to give the sprite
+	 * @return A sprite instance containing an accelerate image of the request reference
+	 */
+	private Sprite createSprite(BufferedImage sourceImage,String ref,int id) {
+		// create an accelerated image of the right size to store our sprite in,
+		// without a display there is nothing to accelerate so a plain
+		// image will do
+		Image image;
+		if (GraphicsEnvironment.isHeadless()) {
+			image = new BufferedImage(sourceImage.getWidth(),sourceImage.getHeight(),BufferedImage.TYPE_INT_ARGB);
+		} else {
+			GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+			image = gc.createCompatibleImage(sourceImage.getWidth(),sourceImage.getHeight(),Transparency.BITMASK);
+		}
 		
 		// draw our source image into the accelerated image
 		image.getGraphics().drawImage(sourceImage,0,0,null);
 		
-		// create a sprite, add it the cache then return it
-		Sprite sprite = new Sprite(image);
-		sprites.put(ref,sprite);
-		
-		return sprite;
+		return new Sprite(image,id,ref);
+	}
+	
+	/**
+	 * Get the number of sprites in the store. Sprite ids run from
+	 * zero up to one less than this value.
+	 * 
+	 * @return The number of sprites in the store
+	 */
+	public int getSpriteCount() {
+		return spritesById.length;
+	}
+	
+	/**
+	 * Retrieve a sprite by its id
+	 * 
+	 * @param id The id of the sprite
+	 * @return The sprite with the given id
+	 */
+	public Sprite getSprite(int id) {
+		return spritesById[id];
 	}
 	
 	/**
@@ -15,6 +15,10 @@ public class StraightShot extends ShotEntity {
         super(game, sprite, x, y, _speedMod, _angle, _damage,_playerProj);
     }
     
+    public StraightShot(Game game, Sprite sprite, int x, int y, double _moveSpeed, float _angle, double _dx, double _dy, int _damage, boolean _playerProj) {
+        super(game, sprite, x, y, _moveSpeed, _angle, _dx, _dy, _damage, _playerProj);
+    }
+    
     @Override
     public void move(long _delta){
         super.move(_delta);
@@ -0,0 +1,73 @@
+package org.newdawn.spaceinvaders;
+
+/**
+ * A simple agent that sweeps the ship from side to side across the
+ * screen holding down one of the fire keys the whole time.
+ *
+ * @author John
+ */
+public class SweepAgent implements Agent {
+	/** The fire action this agent uses */
+	private int fireAction;
+	/** The movement action currently held, or -1 for none */
+	private int moving = -1;
+	/** True if the fire key is currently held */
+	private boolean firing;
+
+	/**
+	 * Create a new agent
+	 *
+	 * @param shotType The type of shot the agent fires
+	 */
+	public SweepAgent(Game.ShotType shotType) {
+		switch (shotType) {
+			case DOUBLE:
+				fireAction = InputQueue.FIRE_DOUBLE;
+				break;
+			case TRIPLE:
+				fireAction = InputQueue.FIRE_TRIPLE;
+				break;
+			case BOMB:
+				fireAction = InputQueue.FIRE_BOMB;
+				break;
+			default:
+				fireAction = InputQueue.FIRE_SINGLE;
+				break;
+		}
+	}
+
+	/**
+	 * @see org.newdawn.spaceinvaders.Agent#startRound(Game)
+	 */
+	public void startRound(Game game) {
+		moving = -1;
+		firing = false;
+	}
+
+	/**
+	 * @see org.newdawn.spaceinvaders.Agent#act(Game, InputQueue)
+	 */
+	public void act(Game game, InputQueue input) {
+		if (!firing) {
+			input.offer(fireAction, true);
+			firing = true;
+		}
+
+		// turn round when we reach either side of the screen
+		int x = game.getShip().getX();
+		int direction = moving;
+		if ((moving < 0) || ((moving == InputQueue.LEFT) && (x < 20))) {
+			direction = InputQueue.RIGHT;
+		} else if ((moving == InputQueue.RIGHT) && (x > 740)) {
+			direction = InputQueue.LEFT;
+		}
+
+		if (direction != moving) {
+			if (moving >= 0) {
+				input.offer(moving, false);
+			}
+			input.offer(direction, true);
+			moving = direction;
+		}
+	}
+}
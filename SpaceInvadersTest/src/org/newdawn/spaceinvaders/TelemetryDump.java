@@ -0,0 +1,108 @@
+package org.newdawn.spaceinvaders;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Dumps the ticks held in a telemetry ring file as CSV, oldest first.
+ * The file can be read while the game is still writing it or after it
+ * has died.
+ * <p>
+ * Usage: TelemetryDump &lt;file&gt; [from] [to] where from and to limit
+ * the dump to a range of wall clock times (ms since the epoch). A
+ * negative from means that many seconds before the last tick recorded.
+ *
+ * @author John
+ */
+public class TelemetryDump {
+	/**
+	 * Write the ticks in a time range out as CSV
+	 *
+	 * @param buffer The mapped telemetry file
+	 * @param from The earliest wall clock time to include (ms)
+	 * @param to The latest wall clock time to include (ms)
+	 * @param out The stream to write the CSV to
+	 */
+	private static void dump(MappedByteBuffer buffer, long from, long to, PrintStream out) {
+		int capacity = buffer.getInt(12);
+		long next = buffer.getLong(TelemetryRecorder.NEXT_TICK);
+		long first = Math.max(1, next - capacity);
+
+		out.print("tick,wall_ms,game_ms,tick_ns");
+		for (int i=0;i<TickProbe.PHASE_COUNT;i++) {
+			out.print(","+TickProbe.PHASE_NAMES[i].replace(' ', '_')+"_ns");
+		}
+		out.println(",entities,aliens,spawns,kills,inputs,collision_pairs");
+
+		for (long tick=first;tick<next;tick++) {
+			int offset = TelemetryRecorder.HEADER_SIZE + ((int) ((tick - 1) % capacity) * TelemetryRecorder.RECORD_SIZE);
+
+			// skip records that were being written or have been overwritten
+			if (buffer.getLong(offset) != tick) {
+				continue;
+			}
+			long wall = buffer.getLong(offset + TelemetryRecorder.WALL_TIME);
+			if ((wall < from) || (wall > to)) {
+				continue;
+			}
+
+			StringBuilder line = new StringBuilder();
+			line.append(tick).append(',').append(wall);
+			line.append(',').append(buffer.getLong(offset + TelemetryRecorder.GAME_TIME));
+			line.append(',').append(buffer.getInt(offset + TelemetryRecorder.TICK_TIME));
+			for (int i=0;i<TickProbe.PHASE_COUNT;i++) {
+				line.append(',').append(buffer.getInt(offset + TelemetryRecorder.PHASE_TIMES + (i * 4)));
+			}
+			for (int field=TelemetryRecorder.ENTITIES;field<=TelemetryRecorder.PAIRS;field+=4) {
+				line.append(',').append(buffer.getInt(offset + field));
+			}
+			out.println(line);
+		}
+	}
+
+	/**
+	 * Find the wall clock time of the last tick recorded
+	 *
+	 * @param buffer The mapped telemetry file
+	 * @return The wall clock time of the last tick (ms) or 0 if there are none
+	 */
+	private static long lastWallTime(MappedByteBuffer buffer) {
+		int capacity = buffer.getInt(12);
+		long last = buffer.getLong(TelemetryRecorder.NEXT_TICK) - 1;
+		if (last < 1) {
+			return 0;
+		}
+		int offset = TelemetryRecorder.HEADER_SIZE + ((int) ((last - 1) % capacity) * TelemetryRecorder.RECORD_SIZE);
+		return buffer.getLong(offset + TelemetryRecorder.WALL_TIME);
+	}
+
+	/**
+	 * The entry point for the dump tool
+	 *
+	 * @param argv The arguments: the telemetry file, from and to times
+	 * @throws IOException Indicates the file couldn't be read
+	 */
+	public static void main(String argv[]) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(new File(argv[0]), "r");
+		try {
+			MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			if ((buffer.getInt(0) != TelemetryRecorder.MAGIC) || (buffer.getInt(8) != TelemetryRecorder.RECORD_SIZE)) {
+				throw new IOException("Not a telemetry file: "+argv[0]);
+			}
+
+			long from = argv.length > 1 ? Long.parseLong(argv[1]) : Long.MIN_VALUE;
+			long to = argv.length > 2 ? Long.parseLong(argv[2]) : Long.MAX_VALUE;
+			if ((argv.length > 1) && (from < 0)) {
+				from = lastWallTime(buffer) + (from * 1000);
+			}
+
+			dump(buffer, from, to, System.out);
+		} finally {
+			file.close();
+		}
+	}
+}
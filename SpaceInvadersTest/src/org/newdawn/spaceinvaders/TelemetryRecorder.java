@@ -0,0 +1,191 @@
+package org.newdawn.spaceinvaders;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records the metrics of every tick into a fixed size ring of records
+ * in a memory-mapped file, so the last few minutes of play can be
+ * looked at after a stutter or a crash. TelemetryDump reads the file
+ * back out as CSV.
+ * <p>
+ * The recorder is a probe on the game. Writing a record is just stores
+ * into the mapping from the game loop thread, with no allocation and no
+ * system calls. The operating system takes care of getting the pages
+ * to disk, and since they live in the page cache they survive the
+ * process dying.
+ * <p>
+ * The file is a header followed by the ring of records:
+ * <pre>
+ * header: magic, version, record size, capacity (ints), next tick (long)
+ * record: tick, wall clock (ms), game time (ms) (longs),
+ *         tick time (ns), time of each phase (ns), entities, aliens,
+ *         spawns, kills, input events, collision pairs (ints)
+ * </pre>
+ * The tick number of a record is cleared before the record is written
+ * and set once it's complete, so a record caught half written is
+ * skipped by the reader.
+ *
+ * @author John
+ */
+public class TelemetryRecorder implements TickProbe {
+	/** The magic number at the start of a telemetry file */
+	static final int MAGIC = 0x54454C45;
+	/** The version of the file layout */
+	static final int VERSION = 1;
+	/** The size of the header (bytes) */
+	static final int HEADER_SIZE = 32;
+	/** The size of each record (bytes) */
+	static final int RECORD_SIZE = 88;
+	/** The offset of the next tick number in the header */
+	static final int NEXT_TICK = 16;
+
+	/** The offset of the wall clock time in a record */
+	static final int WALL_TIME = 8;
+	/** The offset of the game time in a record */
+	static final int GAME_TIME = 16;
+	/** The offset of the tick time in a record */
+	static final int TICK_TIME = 24;
+	/** The offset of the phase times in a record */
+	static final int PHASE_TIMES = 28;
+	/** The offset of the entity count in a record */
+	static final int ENTITIES = PHASE_TIMES + (PHASE_COUNT * 4);
+	/** The offset of the alien count in a record */
+	static final int ALIENS = ENTITIES + 4;
+	/** The offset of the spawn count in a record */
+	static final int SPAWNS = ALIENS + 4;
+	/** The offset of the kill count in a record */
+	static final int KILLS = SPAWNS + 4;
+	/** The offset of the input event count in a record */
+	static final int INPUTS = KILLS + 4;
+	/** The offset of the collision pair count in a record */
+	static final int PAIRS = INPUTS + 4;
+
+	/** The game being recorded */
+	private Game game;
+	/** The file the ring is kept in */
+	private RandomAccessFile file;
+	/** The mapping of the file */
+	private MappedByteBuffer buffer;
+	/** The number of records in the ring */
+	private int capacity;
+	/** The number of the next tick to be recorded, starting at 1 */
+	private long tick = 1;
+
+	/** The time at the last mark (ns) */
+	private long last;
+	/** The time the current tick started (ns) */
+	private long tickStart;
+	/** The time of each phase in the current tick (ns) */
+	private int[] phaseTime = new int[PHASE_COUNT];
+	/** The number of entities the game had added when the last record was written */
+	private long lastSpawns;
+	/** The number of aliens killed when the last record was written */
+	private long lastKills;
+	/** The number of input events when the last record was written */
+	private long lastInputs;
+
+	/**
+	 * Create a recorder writing to the given file. An existing file of
+	 * the same size carries on from where it left off.
+	 *
+	 * @param game The game to record
+	 * @param path The file to keep the ring in
+	 * @param capacity The number of ticks the ring holds
+	 * @throws IOException Indicates the file couldn't be mapped
+	 */
+	public TelemetryRecorder(Game game, File path, int capacity) throws IOException {
+		this.game = game;
+		this.capacity = capacity;
+
+		file = new RandomAccessFile(path, "rw");
+		long size = HEADER_SIZE + ((long) capacity * RECORD_SIZE);
+		boolean fresh = file.length() != size;
+		file.setLength(size);
+		buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+		if ((fresh) || (buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION)) {
+			for (int i=0;i<size;i+=8) {
+				buffer.putLong(i, 0);
+			}
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+			buffer.putInt(8, RECORD_SIZE);
+			buffer.putInt(12, capacity);
+			buffer.putLong(NEXT_TICK, 1);
+		}
+		tick = buffer.getLong(NEXT_TICK);
+
+		lastSpawns = game.getEntitiesAdded();
+		lastKills = game.getAliensKilled();
+		lastInputs = game.getInputEvents();
+	}
+
+	/**
+	 * @see org.newdawn.spaceinvaders.TickProbe#mark()
+	 */
+	public void mark() {
+		last = System.nanoTime();
+		tickStart = last;
+	}
+
+	/**
+	 * @see org.newdawn.spaceinvaders.TickProbe#phaseEnded(int)
+	 */
+	public void phaseEnded(int phase) {
+		long now = System.nanoTime();
+		phaseTime[phase] = (int) (now - last);
+		last = now;
+	}
+
+	/**
+	 * Write the record for the tick just finished. The render time is
+	 * that of the last frame drawn.
+	 *
+	 * @see org.newdawn.spaceinvaders.TickProbe#tickEnded()
+	 */
+	public void tickEnded() {
+		int offset = HEADER_SIZE + ((int) ((tick - 1) % capacity) * RECORD_SIZE);
+
+		// mark the slot as being written before touching anything else
+		buffer.putLong(offset, 0);
+
+		buffer.putLong(offset + WALL_TIME, System.currentTimeMillis());
+		buffer.putLong(offset + GAME_TIME, game.getTime());
+		buffer.putInt(offset + TICK_TIME, (int) (last - tickStart));
+		for (int i=0;i<PHASE_COUNT;i++) {
+			buffer.putInt(offset + PHASE_TIMES + (i * 4), phaseTime[i]);
+		}
+		buffer.putInt(offset + ENTITIES, game.getEntities().size());
+		buffer.putInt(offset + ALIENS, game.getAlienCount());
+
+		long spawns = game.getEntitiesAdded();
+		long kills = game.getAliensKilled();
+		long inputs = game.getInputEvents();
+		buffer.putInt(offset + SPAWNS, (int) (spawns - lastSpawns));
+		buffer.putInt(offset + KILLS, (int) (kills - lastKills));
+		buffer.putInt(offset + INPUTS, (int) (inputs - lastInputs));
+		buffer.putInt(offset + PAIRS, game.getCollisionPairs());
+		lastSpawns = spawns;
+		lastKills = kills;
+		lastInputs = inputs;
+
+		// and finally make the record visible
+		buffer.putLong(offset, tick);
+		tick++;
+		buffer.putLong(NEXT_TICK, tick);
+	}
+
+	/**
+	 * Flush the ring to disk and close the file
+	 *
+	 * @throws IOException Indicates the file couldn't be closed
+	 */
+	public void close() throws IOException {
+		buffer.force();
+		file.close();
+	}
+}
@@ -0,0 +1,52 @@
+package org.newdawn.spaceinvaders;
+
+/**
+ * Instrumentation attached to a game that is told as each phase of a
+ * tick finishes. A probe marks the start of a stretch of work and is
+ * then told which phase the work since the last mark belonged to, so
+ * it can measure whatever it likes (time, allocation and so on) per
+ * phase.
+ * <p>
+ * Probes are called on the game loop thread in the middle of the tick,
+ * so they should be cheap and must not allocate.
+ *
+ * @author John
+ */
+public interface TickProbe {
+	/** Moving the entities */
+	public static final int MOVE = 0;
+	/** The aliens deciding whether to fire */
+	public static final int ENEMY_FIRE = 1;
+	/** Resolving collisions between the entities */
+	public static final int COLLIDE = 2;
+	/** Removing entities and running the game logic */
+	public static final int LOGIC = 3;
+	/** Applying the player's input, including the player firing */
+	public static final int INPUT = 4;
+	/** Updating the visual effects */
+	public static final int EFFECTS = 5;
+	/** Drawing the frame */
+	public static final int RENDER = 6;
+	/** The number of phases */
+	public static final int PHASE_COUNT = 7;
+	/** The names of the phases, for reports */
+	public static final String[] PHASE_NAMES = {"move", "enemy fire", "collide", "logic", "input", "effects", "render"};
+
+	/**
+	 * Mark the start of the next stretch of work
+	 */
+	public void mark();
+
+	/**
+	 * Notification that the work since the last mark belonged to a
+	 * phase. This also marks the start of the next stretch of work.
+	 *
+	 * @param phase The phase the work belonged to
+	 */
+	public void phaseEnded(int phase);
+
+	/**
+	 * Notification that a whole tick has been completed
+	 */
+	public void tickEnded();
+}
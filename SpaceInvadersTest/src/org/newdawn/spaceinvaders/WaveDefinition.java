@@ -0,0 +1,120 @@
+package org.newdawn.spaceinvaders;
+
+/**
+ * The layout of a single wave of aliens, as read from a wave file.
+ * This is just a compact grid of alien kinds, no entities are created
+ * until the wave is about to enter play.
+ *
+ * @author John
+ */
+public class WaveDefinition {
+	/** An empty slot in the formation */
+	public static final byte EMPTY = 0;
+	/** A regular alien */
+	public static final byte ALIEN = 1;
+	/** An alien that takes extra hits */
+	public static final byte HIGH_HEALTH_ALIEN = 2;
+	/** An alien that fires back */
+	public static final byte PROJECTILE_ALIEN = 3;
+
+	/** The kind of alien in each slot, row by row */
+	private final byte[] cells;
+	/** The number of rows in the formation */
+	private final int rows;
+	/** The number of columns in the formation */
+	private final int columns;
+	/** The base firing interval of the projectile aliens (ms) */
+	private final int firingInterval;
+	/** The time between aliens peeling off to dive (ms), 0 for none */
+	private final int diveInterval;
+	/** The baked dive paths, null if the wave doesn't dive */
+	private final DivePaths divePaths;
+	/** The pattern the projectile aliens fire */
+	private final BulletPattern firePattern;
+
+	/**
+	 * Create a new wave definition
+	 *
+	 * @param cells The kind of alien in each slot, row by row
+	 * @param rows The number of rows in the formation
+	 * @param columns The number of columns in the formation
+	 * @param firingInterval The base firing interval of the projectile aliens (ms)
+	 * @param diveInterval The time between aliens peeling off to dive (ms), 0 for none
+	 * @param divePaths The baked dive paths, null if the wave doesn't dive
+	 * @param firePattern The pattern the projectile aliens fire
+	 */
+	public WaveDefinition(byte[] cells, int rows, int columns, int firingInterval, int diveInterval, DivePaths divePaths, BulletPattern firePattern) {
+		this.cells = cells;
+		this.rows = rows;
+		this.columns = columns;
+		this.firingInterval = firingInterval;
+		this.diveInterval = diveInterval;
+		this.divePaths = divePaths;
+		this.firePattern = firePattern;
+	}
+
+	/**
+	 * Get the number of rows in the formation
+	 *
+	 * @return The number of rows
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * Get the number of columns in the formation
+	 *
+	 * @return The number of columns
+	 */
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Get the kind of alien in a slot of the formation
+	 *
+	 * @param row The row of the slot
+	 * @param column The column of the slot
+	 * @return The kind of alien, one of the constants above
+	 */
+	public byte getCell(int row, int column) {
+		return cells[(row * columns) + column];
+	}
+
+	/**
+	 * Get the base firing interval of the projectile aliens
+	 *
+	 * @return The firing interval (ms)
+	 */
+	public int getFiringInterval() {
+		return firingInterval;
+	}
+
+	/**
+	 * Get the time between aliens peeling off the formation to dive
+	 *
+	 * @return The dive interval (ms), 0 if the wave doesn't dive
+	 */
+	public int getDiveInterval() {
+		return diveInterval;
+	}
+
+	/**
+	 * Get the dive paths baked for this wave
+	 *
+	 * @return The dive paths, null if the wave doesn't dive
+	 */
+	public DivePaths getDivePaths() {
+		return divePaths;
+	}
+
+	/**
+	 * Get the compiled pattern the projectile aliens of this wave fire
+	 *
+	 * @return The fire pattern
+	 */
+	public BulletPattern getFirePattern() {
+		return firePattern;
+	}
+}
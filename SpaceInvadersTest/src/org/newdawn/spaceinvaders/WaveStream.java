@@ -0,0 +1,361 @@
+package org.newdawn.spaceinvaders;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams wave definitions out of a wave file a few at a time.
+ * <p>
+ * Parsing happens on background loader threads, never on the thread
+ * taking the waves. The stream keeps a small fixed number of waves
+ * parsed ahead of play and parses another each time one is taken, so
+ * however long the campaign only a couple of waves are ever held in
+ * memory and none of them are turned into entities until they enter
+ * play. Parsing starts as soon as the stream is opened.
+ * <p>
+ * The loader threads are pooled, a stream that needs waves parsed gets
+ * a thread of its own for as long as it's parsing, so a stream is
+ * never held up behind the parsing of other games sharing the process.
+ * Only one thread parses for a stream at a time, so its waves come out
+ * in order.
+ * <p>
+ * Taking a wave never waits. If the next wave isn't parsed yet take()
+ * says so and the caller tries again later. Only code that isn't on a
+ * tick, like a driver setting up a round, should use awaitReady().
+ * <p>
+ * The file is looked up on the class path first and then as a plain
+ * file. See waves/default.waves for the format.
+ *
+ * @author John
+ */
+public class WaveStream {
+	/** The number of waves kept parsed ahead of play */
+	private static final int LOOKAHEAD = 2;
+	/** The firing interval used when a wave doesn't give one (ms) */
+	private static final int DEFAULT_FIRING_INTERVAL = 6000;
+	/** The dive depth used when a diving wave doesn't give one (pixels) */
+	private static final int DEFAULT_DIVE_DEPTH = 300;
+	/** The pattern fired when a wave doesn't give one, the classic single shot */
+	private static final BulletPattern DEFAULT_FIRE_PATTERN = PatternCompiler.parse("single");
+	/** Marks the end of the stream in the queue */
+	private static final Object END = new Object();
+
+	/** The loader threads, one for each stream that's parsing, let go after a minute idle */
+	private static final ExecutorService LOADER = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "wave-loader");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/** The waves parsed and waiting to be taken, followed by END once the file runs out */
+	private ArrayBlockingQueue ready = new ArrayBlockingQueue(LOOKAHEAD);
+	/** True while a loader thread is parsing for this stream */
+	private AtomicBoolean loading = new AtomicBoolean();
+	/** The reader for the wave file, only used while loading */
+	private BufferedReader reader;
+	/** The "wave" line read at the end of the previous wave, only used while loading */
+	private String header;
+	/** The number of waves still to be skipped, only used while loading */
+	private int skip;
+	/** True once the end of the file or an error has been reached */
+	private volatile boolean ended;
+	/** True once the stream has been closed */
+	private volatile boolean closed;
+	/** The reason the stream failed, if it did */
+	private volatile Exception failure;
+	/** The name of the wave file, for error messages */
+	private String ref;
+
+	/** Tops up the lookahead on a loader thread */
+	private Runnable loadTask = new Runnable() {
+		public void run() {
+			fill();
+			loading.set(false);
+
+			// a wave may have been taken or the stream closed after
+			// the last check but before we let go
+			if (closed ? (reader != null) : ((!ended) && (ready.size() < LOOKAHEAD))) {
+				load();
+			}
+		}
+	};
+
+	/**
+	 * Open a stream of waves and start parsing the first of them
+	 *
+	 * @param ref The class path reference or file name of the wave file
+	 * @param skip The number of waves to skip before the first one taken
+	 */
+	public WaveStream(String ref, int skip) {
+		this.ref = ref;
+		this.skip = skip;
+		load();
+	}
+
+	/**
+	 * Check if the next wave, or the end of the stream, has been parsed
+	 *
+	 * @return True if take() has an answer now
+	 */
+	public boolean isReady() {
+		return ready.peek() != null;
+	}
+
+	/**
+	 * Check if every wave in the file has been taken
+	 *
+	 * @return True if there are no more waves
+	 */
+	public boolean isFinished() {
+		return next() == END;
+	}
+
+	/**
+	 * Get the next wave without taking it
+	 *
+	 * @return The next wave or null if it isn't ready or there are no more
+	 */
+	public WaveDefinition peek() {
+		Object next = next();
+		return next == END ? null : (WaveDefinition) next;
+	}
+
+	/**
+	 * Take the next wave if it's ready. Another wave is parsed in the
+	 * background to replace it.
+	 *
+	 * @return The next wave or null if it isn't ready or there are no more
+	 */
+	public WaveDefinition take() {
+		Object next = next();
+		if ((next == null) || (next == END)) {
+			return null;
+		}
+		ready.poll();
+		load();
+
+		return (WaveDefinition) next;
+	}
+
+	/**
+	 * Look at the head of the queue, failing if the stream did
+	 *
+	 * @return The next wave, END or null if nothing is ready
+	 */
+	private Object next() {
+		Object next = ready.peek();
+		if ((next == END) && (failure != null)) {
+			throw new IllegalStateException("Failed to load waves from "+ref, failure);
+		}
+		return next;
+	}
+
+	/**
+	 * Wait until take() has an answer. This blocks, so it's not for
+	 * use on a tick.
+	 */
+	public synchronized void awaitReady() {
+		while (!isReady()) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Close the stream. Any waves still waiting are discarded.
+	 */
+	public void close() {
+		closed = true;
+		load();
+	}
+
+	/**
+	 * Have a loader thread top up the lookahead, unless one already is
+	 */
+	private void load() {
+		if (loading.compareAndSet(false, true)) {
+			LOADER.execute(loadTask);
+		}
+	}
+
+	/**
+	 * Parse waves until the lookahead is full or the file runs out, or
+	 * close the reader if the stream has been closed. Runs on a loader
+	 * thread.
+	 */
+	private void fill() {
+		while ((!closed) && (!ended) && (ready.size() < LOOKAHEAD)) {
+			ready.offer(parseNext());
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+		if (closed) {
+			closeReader();
+		}
+	}
+
+	/**
+	 * Parse the next wave. Only called while loading.
+	 *
+	 * @return The wave parsed or END if there are no more
+	 */
+	private Object parseNext() {
+		WaveDefinition wave = null;
+		if (!ended) {
+			try {
+				if (reader == null) {
+					reader = open();
+				}
+				wave = readWave();
+				while ((wave != null) && (skip > 0)) {
+					skip--;
+					wave = readWave();
+				}
+			} catch (Exception e) {
+				failure = e;
+			}
+			if (wave == null) {
+				ended = true;
+				closeReader();
+			}
+		}
+
+		return wave == null ? END : wave;
+	}
+
+	/**
+	 * Open the wave file
+	 *
+	 * @return A reader for the wave file
+	 * @throws IOException Indicates the file couldn't be found
+	 */
+	private BufferedReader open() throws IOException {
+		InputStream in = getClass().getClassLoader().getResourceAsStream(ref);
+		if (in == null) {
+			File file = new File(ref);
+			if (!file.exists()) {
+				throw new IOException("Can't find wave file: "+ref);
+			}
+			in = new FileInputStream(file);
+		}
+		return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Read the next wave from the file
+	 *
+	 * @return The wave read or null if there are no more
+	 * @throws IOException Indicates the file couldn't be read or is malformed
+	 */
+	private WaveDefinition readWave() throws IOException {
+		// find the start of the wave, unless we've already read it
+		while (header == null) {
+			String line = reader.readLine();
+			if (line == null) {
+				return null;
+			}
+			line = line.trim();
+			if (line.startsWith("wave")) {
+				header = line;
+			} else if ((line.length() > 0) && (!line.startsWith("#"))) {
+				throw new IOException("Expected a wave line: "+line);
+			}
+		}
+
+		String[] parts = header.split("\\s+");
+		int firingInterval = parts.length > 1 ? Integer.parseInt(parts[1]) : DEFAULT_FIRING_INTERVAL;
+		int diveInterval = parts.length > 2 ? Integer.parseInt(parts[2]) : 0;
+		int diveDepth = parts.length > 3 ? Integer.parseInt(parts[3]) : DEFAULT_DIVE_DEPTH;
+		header = null;
+
+		// read rows until the next wave or the end of the file. The
+		// fire pattern is compiled here along with the rest of the
+		// wave, so the game only ever copies it out into shots
+		ArrayList rows = new ArrayList();
+		int columns = 0;
+		BulletPattern firePattern = DEFAULT_FIRE_PATTERN;
+		for (String line=reader.readLine();line!=null;line=reader.readLine()) {
+			line = line.trim();
+			if (line.startsWith("wave")) {
+				header = line;
+				break;
+			}
+			if ((line.length() == 0) || (line.startsWith("#"))) {
+				continue;
+			}
+			if (line.startsWith("fire")) {
+				try {
+					firePattern = PatternCompiler.parse(line.substring(4));
+				} catch (IllegalArgumentException e) {
+					throw new IOException("Bad fire line: "+line, e);
+				}
+				continue;
+			}
+			rows.add(line);
+			columns = Math.max(columns, line.length());
+		}
+
+		byte[] cells = new byte[rows.size() * columns];
+		for (int row=0;row<rows.size();row++) {
+			String line = (String) rows.get(row);
+			for (int column=0;column<line.length();column++) {
+				cells[(row * columns) + column] = toCell(line.charAt(column));
+			}
+		}
+
+		// bake the dive paths here too, so they're ready to follow
+		// by the time the wave enters play
+		DivePaths divePaths = diveInterval > 0 ? new DivePaths(diveDepth) : null;
+
+		return new WaveDefinition(cells, rows.size(), columns, firingInterval, diveInterval, divePaths, firePattern);
+	}
+
+	/**
+	 * Convert a character from the wave file into an alien kind
+	 *
+	 * @param c The character from the file
+	 * @return The kind of alien
+	 * @throws IOException Indicates the character isn't a known kind
+	 */
+	private static byte toCell(char c) throws IOException {
+		switch (c) {
+			case 'A': return WaveDefinition.ALIEN;
+			case 'H': return WaveDefinition.HIGH_HEALTH_ALIEN;
+			case 'P': return WaveDefinition.PROJECTILE_ALIEN;
+			case '.': return WaveDefinition.EMPTY;
+			default: throw new IOException("Unknown alien in wave file: "+c);
+		}
+	}
+
+	/**
+	 * Close the reader if it's open. Only called while loading.
+	 */
+	private void closeReader() {
+		if (reader != null) {
+			try {
+				reader.close();
+			} catch (IOException e) {
+				// nothing more to read anyway
+			}
+			reader = null;
+		}
+	}
+}
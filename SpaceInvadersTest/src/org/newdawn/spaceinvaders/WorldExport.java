@@ -0,0 +1,194 @@
+package org.newdawn.spaceinvaders;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Publishes the entities of a game into a memory-mapped file at the
+ * end of every tick, so other processes on the same machine (an
+ * overlay, an analytics agent) can read the live world straight out
+ * of shared memory. WorldExportReader is the other end.
+ * <p>
+ * The export is a probe on the game. Each tick the entity table is
+ * built up in a buffer on the heap and then copied into the mapping in
+ * one bulk put, so the table in shared memory is only being changed
+ * for the length of one copy. The table is guarded by a seqlock: the
+ * sequence in the header is made odd before the copy and even again
+ * after it, with fences either side, and a reader that sees the same
+ * even sequence before and after reading knows it read a whole tick.
+ * Nothing is allocated and there are no system calls once the file is
+ * mapped.
+ * <p>
+ * The file is a header followed by the table, in the machine's own
+ * byte order since it's only shared on one machine:
+ * <pre>
+ * header: magic, version, record size, capacity (ints),
+ *         sequence, tick, game time (ms) (longs),
+ *         entity count, entities left out (ints)
+ * record: id, type (ints), x, y (floats), health (int)
+ * </pre>
+ * The types are the snapshot type tags in WorldSnapshot. Entities that
+ * can't be damaged have a health of 0. If there are more entities than
+ * records the rest are left out and counted in the header.
+ *
+ * @author John
+ */
+public class WorldExport implements TickProbe {
+	/** The magic number at the start of an export file */
+	static final int MAGIC = 0x574F524C;
+	/** The version of the file layout */
+	static final int VERSION = 1;
+	/** The size of the header, rounded up to a cache line (bytes) */
+	static final int HEADER_SIZE = 64;
+	/** The size of each record (bytes) */
+	static final int RECORD_SIZE = 20;
+
+	/** The offset of the record size in the header */
+	static final int RECORD_SIZE_OFFSET = 8;
+	/** The offset of the capacity in the header */
+	static final int CAPACITY = 12;
+	/** The offset of the seqlock sequence in the header, odd while the table is being written */
+	static final int SEQUENCE = 16;
+	/** The offset of the tick number in the header */
+	static final int TICK = 24;
+	/** The offset of the game time in the header */
+	static final int GAME_TIME = 32;
+	/** The offset of the entity count in the header */
+	static final int COUNT = 40;
+	/** The offset of the count of entities left out in the header */
+	static final int LEFT_OUT = 44;
+
+	/** The offset of the id in a record */
+	static final int ID = 0;
+	/** The offset of the type in a record */
+	static final int TYPE = 4;
+	/** The offset of the x position in a record */
+	static final int X = 8;
+	/** The offset of the y position in a record */
+	static final int Y = 12;
+	/** The offset of the health in a record */
+	static final int HEALTH = 16;
+
+	/** The game being exported */
+	private Game game;
+	/** The file the export is kept in */
+	private RandomAccessFile file;
+	/** The mapping of the file */
+	private MappedByteBuffer buffer;
+	/** The table part of the mapping */
+	private ByteBuffer table;
+	/** The table as it's built up each tick, before it's copied out */
+	private ByteBuffer scratch;
+	/** The number of records in the table */
+	private int capacity;
+	/** The current seqlock sequence */
+	private long sequence;
+	/** The number of ticks exported */
+	private long tick;
+
+	/**
+	 * Create an export writing to the given file, replacing whatever
+	 * was in it
+	 *
+	 * @param game The game to export
+	 * @param path The file to export to
+	 * @param capacity The most entities the table holds
+	 * @throws IOException Indicates the file couldn't be mapped
+	 */
+	public WorldExport(Game game, File path, int capacity) throws IOException {
+		this.game = game;
+		this.capacity = capacity;
+
+		file = new RandomAccessFile(path, "rw");
+		long size = HEADER_SIZE + ((long) capacity * RECORD_SIZE);
+		file.setLength(size);
+		buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		buffer.order(ByteOrder.nativeOrder());
+
+		buffer.position(HEADER_SIZE);
+		table = buffer.slice();
+		buffer.position(0);
+		scratch = ByteBuffer.allocate(capacity * RECORD_SIZE).order(ByteOrder.nativeOrder());
+
+		// a reader that finds the file before the header is complete
+		// sees the wrong magic number and waits
+		buffer.putInt(0, 0);
+		MemoryFences.storeFence();
+		buffer.putInt(4, VERSION);
+		buffer.putInt(RECORD_SIZE_OFFSET, RECORD_SIZE);
+		buffer.putInt(CAPACITY, capacity);
+		buffer.putLong(SEQUENCE, 0);
+		buffer.putLong(TICK, 0);
+		buffer.putLong(GAME_TIME, 0);
+		buffer.putInt(COUNT, 0);
+		buffer.putInt(LEFT_OUT, 0);
+		MemoryFences.storeFence();
+		buffer.putInt(0, MAGIC);
+	}
+
+	/**
+	 * @see org.newdawn.spaceinvaders.TickProbe#mark()
+	 */
+	public void mark() {
+	}
+
+	/**
+	 * @see org.newdawn.spaceinvaders.TickProbe#phaseEnded(int)
+	 */
+	public void phaseEnded(int phase) {
+	}
+
+	/**
+	 * Publish the entities as they are at the end of the tick
+	 *
+	 * @see org.newdawn.spaceinvaders.TickProbe#tickEnded()
+	 */
+	public void tickEnded() {
+		ArrayList entities = game.getEntities();
+		int count = Math.min(entities.size(), capacity);
+
+		// build the table off to the side first, so readers only have
+		// to wait for the copy
+		scratch.clear();
+		for (int i=0;i<count;i++) {
+			Entity entity = (Entity) entities.get(i);
+			scratch.putInt(entity.getId());
+			scratch.putInt(WorldSnapshot.typeOf(entity));
+			scratch.putFloat((float) entity.x);
+			scratch.putFloat((float) entity.y);
+			scratch.putInt(entity instanceof Damageable ? ((Damageable) entity).getHealth() : 0);
+		}
+		scratch.flip();
+		tick++;
+
+		// odd while the table is being written
+		buffer.putLong(SEQUENCE, ++sequence);
+		MemoryFences.storeFence();
+
+		buffer.putLong(TICK, tick);
+		buffer.putLong(GAME_TIME, game.getTime());
+		buffer.putInt(COUNT, count);
+		buffer.putInt(LEFT_OUT, entities.size() - count);
+		table.clear();
+		table.put(scratch);
+
+		// and even again once it's whole
+		MemoryFences.storeFence();
+		buffer.putLong(SEQUENCE, ++sequence);
+	}
+
+	/**
+	 * Close the file. Readers keep whatever was last published.
+	 *
+	 * @throws IOException Indicates the file couldn't be closed
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+}
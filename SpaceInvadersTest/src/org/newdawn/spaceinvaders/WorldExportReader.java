@@ -0,0 +1,285 @@
+package org.newdawn.spaceinvaders;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the entities a game publishes with WorldExport, straight out
+ * of the shared mapping, from another process on the same machine.
+ * <p>
+ * Reads go through the seqlock. Either let the reader copy a whole
+ * tick out with read(), which retries until it gets one, or read in
+ * place without copying:
+ * <pre>
+ * long sequence;
+ * do {
+ *     sequence = reader.begin();
+ *     for (int i=0;i&lt;reader.getCount();i++) {
+ *         ... reader.getX(i), reader.getY(i) ...
+ *     }
+ * } while (!reader.validate(sequence));
+ * </pre>
+ * Values read in place mean nothing until validate() says the tick
+ * wasn't changed under them, so act on them only afterwards.
+ * <p>
+ * Usage: WorldExportReader &lt;file&gt; [interval] prints a line for the
+ * latest tick every interval ms (default 1000) until killed.
+ *
+ * @author John
+ */
+public class WorldExportReader {
+	/** The mapping of the export file */
+	private MappedByteBuffer buffer;
+	/** The number of records in the table */
+	private int capacity;
+
+	/**
+	 * Open an export file
+	 *
+	 * @param path The file the game is exporting to
+	 * @throws IOException Indicates the file couldn't be mapped or isn't an export
+	 */
+	public WorldExportReader(File path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		} finally {
+			// the mapping stays valid once the file is closed
+			file.close();
+		}
+		buffer.order(ByteOrder.nativeOrder());
+
+		if ((buffer.capacity() < WorldExport.HEADER_SIZE) || (buffer.getInt(0) != WorldExport.MAGIC)) {
+			throw new IOException("Not a world export, or not ready yet: "+path);
+		}
+		MemoryFences.loadFence();
+		if (buffer.getInt(4) != WorldExport.VERSION) {
+			throw new IOException("Unknown world export version "+buffer.getInt(4)+": "+path);
+		}
+		if (buffer.getInt(WorldExport.RECORD_SIZE_OFFSET) != WorldExport.RECORD_SIZE) {
+			throw new IOException("Unexpected record size in world export: "+path);
+		}
+		capacity = buffer.getInt(WorldExport.CAPACITY);
+	}
+
+	/**
+	 * Start reading a tick in place, waiting for the writer if it's in
+	 * the middle of publishing one
+	 *
+	 * @return The sequence to hand to validate() once reading is done
+	 */
+	public long begin() {
+		long sequence = buffer.getLong(WorldExport.SEQUENCE);
+		while ((sequence & 1) != 0) {
+			Thread.yield();
+			sequence = buffer.getLong(WorldExport.SEQUENCE);
+		}
+		MemoryFences.loadFence();
+		return sequence;
+	}
+
+	/**
+	 * Check that a tick read in place wasn't changed while it was read
+	 *
+	 * @param sequence The sequence returned by begin()
+	 * @return True if everything read since begin() was from one tick
+	 */
+	public boolean validate(long sequence) {
+		MemoryFences.loadFence();
+		return buffer.getLong(WorldExport.SEQUENCE) == sequence;
+	}
+
+	/**
+	 * Get the sequence of the latest tick without waiting. It changes
+	 * every time a tick is published, so it tells a reader polling
+	 * faster than the game ticks whether there's anything new.
+	 *
+	 * @return The current sequence, odd while a tick is being published
+	 */
+	public long getSequence() {
+		return buffer.getLong(WorldExport.SEQUENCE);
+	}
+
+	/**
+	 * Get the number of the tick, counted from when the export started
+	 *
+	 * @return The tick number
+	 */
+	public long getTick() {
+		return buffer.getLong(WorldExport.TICK);
+	}
+
+	/**
+	 * Get the game time at the end of the tick
+	 *
+	 * @return The game time (ms)
+	 */
+	public long getGameTime() {
+		return buffer.getLong(WorldExport.GAME_TIME);
+	}
+
+	/**
+	 * Get the number of entities in the table
+	 *
+	 * @return The number of entities, never more than the table holds
+	 */
+	public int getCount() {
+		return Math.max(0, Math.min(buffer.getInt(WorldExport.COUNT), capacity));
+	}
+
+	/**
+	 * Get the number of entities left out because the table was full
+	 *
+	 * @return The number of entities left out
+	 */
+	public int getLeftOut() {
+		return buffer.getInt(WorldExport.LEFT_OUT);
+	}
+
+	/**
+	 * Get the id of an entity
+	 *
+	 * @param index The index of the entity in the table
+	 * @return The id of the entity
+	 */
+	public int getId(int index) {
+		return buffer.getInt(offset(index) + WorldExport.ID);
+	}
+
+	/**
+	 * Get the type of an entity
+	 *
+	 * @param index The index of the entity in the table
+	 * @return The type of the entity, one of the WorldSnapshot type tags
+	 */
+	public int getType(int index) {
+		return buffer.getInt(offset(index) + WorldExport.TYPE);
+	}
+
+	/**
+	 * Get the x position of an entity
+	 *
+	 * @param index The index of the entity in the table
+	 * @return The x position
+	 */
+	public float getX(int index) {
+		return buffer.getFloat(offset(index) + WorldExport.X);
+	}
+
+	/**
+	 * Get the y position of an entity
+	 *
+	 * @param index The index of the entity in the table
+	 * @return The y position
+	 */
+	public float getY(int index) {
+		return buffer.getFloat(offset(index) + WorldExport.Y);
+	}
+
+	/**
+	 * Get the health of an entity
+	 *
+	 * @param index The index of the entity in the table
+	 * @return The health, 0 for entities that can't be damaged
+	 */
+	public int getHealth(int index) {
+		return buffer.getInt(offset(index) + WorldExport.HEALTH);
+	}
+
+	/**
+	 * Get the offset of a record in the mapping
+	 *
+	 * @param index The index of the entity in the table
+	 * @return The offset of its record
+	 */
+	private int offset(int index) {
+		return WorldExport.HEADER_SIZE + (index * WorldExport.RECORD_SIZE);
+	}
+
+	/**
+	 * Copy a whole tick out of the export, retrying until one is read
+	 * without the writer changing it. The arrays must be big enough for
+	 * the table, or the entities that don't fit are left out.
+	 *
+	 * @param ids The array to fill with the entity ids
+	 * @param types The array to fill with the entity types
+	 * @param xs The array to fill with the x positions
+	 * @param ys The array to fill with the y positions
+	 * @param health The array to fill with the health of each entity
+	 * @return The number of entities copied
+	 */
+	public int read(int[] ids, int[] types, float[] xs, float[] ys, int[] health) {
+		while (true) {
+			long sequence = begin();
+			int count = Math.min(getCount(), ids.length);
+			for (int i=0;i<count;i++) {
+				int offset = offset(i);
+				ids[i] = buffer.getInt(offset + WorldExport.ID);
+				types[i] = buffer.getInt(offset + WorldExport.TYPE);
+				xs[i] = buffer.getFloat(offset + WorldExport.X);
+				ys[i] = buffer.getFloat(offset + WorldExport.Y);
+				health[i] = buffer.getInt(offset + WorldExport.HEALTH);
+			}
+			if (validate(sequence)) {
+				return count;
+			}
+		}
+	}
+
+	/**
+	 * Watch an export, printing a summary of the latest tick now and
+	 * then
+	 *
+	 * @param argv The file and optionally the interval between lines (ms)
+	 * @throws Exception Indicates the file couldn't be read
+	 */
+	public static void main(String[] argv) throws Exception {
+		if (argv.length < 1) {
+			System.err.println("Usage: WorldExportReader <file> [interval]");
+			System.exit(1);
+		}
+		long interval = argv.length > 1 ? Long.parseLong(argv[1]) : 1000;
+
+		WorldExportReader reader = new WorldExportReader(new File(argv[0]));
+		while (true) {
+			long tick;
+			long time;
+			int count;
+			int leftOut;
+			boolean ship;
+			float shipX = 0;
+			int shipHealth = 0;
+			long sequence;
+			do {
+				sequence = reader.begin();
+				tick = reader.getTick();
+				time = reader.getGameTime();
+				count = reader.getCount();
+				leftOut = reader.getLeftOut();
+				ship = false;
+				for (int i=0;i<count;i++) {
+					if (reader.getType(i) == WorldSnapshot.TYPE_SHIP) {
+						ship = true;
+						shipX = reader.getX(i);
+						shipHealth = reader.getHealth(i);
+					}
+				}
+			} while (!reader.validate(sequence));
+
+			StringBuilder line = new StringBuilder();
+			line.append("tick ").append(tick).append(" time ").append(time).append(" entities ").append(count);
+			if (leftOut > 0) {
+				line.append(" (").append(leftOut).append(" left out)");
+			}
+			if (ship) {
+				line.append(" ship x ").append(shipX).append(" health ").append(shipHealth);
+			}
+			System.out.println(line);
+			Thread.sleep(interval);
+		}
+	}
+}
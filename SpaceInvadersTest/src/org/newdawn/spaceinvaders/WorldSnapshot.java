@@ -0,0 +1,137 @@
+package org.newdawn.spaceinvaders;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A complete binary copy of the state of a game, held in a reusable
+ * buffer. Capturing a snapshot and restoring it later puts the game
+ * back exactly as it was, which is what rollback and rewind need.
+ * <p>
+ * The snapshot covers the game's own state (alien count, fire timer,
+ * key state and so on) and the damage to the bunkers, followed by every entity, tagged with its type
+ * and written by the entity itself so each class saves its own fields.
+ * Capturing never allocates and restoring only allocates for entities
+ * that no longer exist in the game.
+ *
+ * @author John
+ */
+public class WorldSnapshot {
+	/** Type tag for the player's ship */
+	static final byte TYPE_SHIP = 1;
+	/** Type tag for a plain alien */
+	static final byte TYPE_ALIEN = 2;
+	/** Type tag for an alien that takes extra hits */
+	static final byte TYPE_HIGH_HEALTH_ALIEN = 3;
+	/** Type tag for an alien that fires back */
+	static final byte TYPE_PROJECTILE_ALIEN = 4;
+	/** Type tag for a plain shot */
+	static final byte TYPE_SHOT = 5;
+	/** Type tag for a shot that travels in a straight line */
+	static final byte TYPE_STRAIGHT_SHOT = 6;
+	/** Type tag for a shot that explodes */
+	static final byte TYPE_BOMB_SHOT = 7;
+
+	/** The buffer holding the snapshot */
+	private ByteBuffer buffer;
+
+	/**
+	 * Create a new, empty snapshot
+	 *
+	 * @param capacity The largest snapshot that can be held (bytes)
+	 */
+	public WorldSnapshot(int capacity) {
+		buffer = ByteBuffer.allocateDirect(capacity);
+	}
+
+	/**
+	 * Capture the current state of a game, replacing whatever the
+	 * snapshot held before. Must be called between ticks.
+	 *
+	 * @param game The game to capture
+	 */
+	public void capture(Game game) {
+		buffer.clear();
+		game.writeState(buffer);
+		buffer.flip();
+	}
+
+	/**
+	 * Put a game back into the state held by this snapshot. The same
+	 * snapshot can be restored any number of times.
+	 *
+	 * @param game The game to restore
+	 */
+	public void restore(Game game) {
+		buffer.rewind();
+		game.readState(buffer);
+	}
+
+	/**
+	 * Get the size of the snapshot currently held
+	 *
+	 * @return The size of the snapshot (bytes)
+	 */
+	public int size() {
+		return buffer.limit();
+	}
+
+	/**
+	 * Get the type tag for an entity
+	 *
+	 * @param entity The entity to tag
+	 * @return The type tag for the entity's class
+	 */
+	static byte typeOf(Entity entity) {
+		Class type = entity.getClass();
+
+		if (type == AlienEntity.class) {
+			return TYPE_ALIEN;
+		} else if (type == StraightShot.class) {
+			return TYPE_STRAIGHT_SHOT;
+		} else if (type == HighHealthAlien.class) {
+			return TYPE_HIGH_HEALTH_ALIEN;
+		} else if (type == ProjectileAlien.class) {
+			return TYPE_PROJECTILE_ALIEN;
+		} else if (type == ShipEntity.class) {
+			return TYPE_SHIP;
+		} else if (type == BombShot.class) {
+			return TYPE_BOMB_SHOT;
+		} else if (type == ShotEntity.class) {
+			return TYPE_SHOT;
+		}
+
+		throw new IllegalArgumentException("Entity can't be saved: "+type.getName());
+	}
+
+	/**
+	 * Create a blank entity of the given type, ready to have its state
+	 * read back in.
+	 *
+	 * @param game The game the entity belongs to
+	 * @param type The type tag of the entity
+	 * @param spriteId The id of the entity's sprite
+	 * @return The new entity
+	 */
+	static Entity createEntity(Game game, byte type, int spriteId) {
+		String ref = game.getSpriteStore().getSprite(spriteId).getRef();
+
+		switch (type) {
+			case TYPE_SHIP:
+				return new ShipEntity(game,ref,0,0,0);
+			case TYPE_ALIEN:
+				return new AlienEntity(game,ref,0,0,0);
+			case TYPE_HIGH_HEALTH_ALIEN:
+				return new HighHealthAlien(game,ref,0,0,0);
+			case TYPE_PROJECTILE_ALIEN:
+				return new ProjectileAlien(game,ref,0,0,0,0);
+			case TYPE_SHOT:
+				return new ShotEntity(game,ref,0,0,1,0,0,false);
+			case TYPE_STRAIGHT_SHOT:
+				return new StraightShot(game,ref,0,0,1,0,0,false);
+			case TYPE_BOMB_SHOT:
+				return new BombShot(game,ref,0,0,1,0,0,0,false);
+		}
+
+		throw new IllegalArgumentException("Unknown entity type: "+type);
+	}
+}